@@ -0,0 +1,84 @@
+package com.nec.endmile.load;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.node.User;
+import rx.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.util.function.Consumer;
+
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * Runs the courier lifecycle load against out-of-process driver nodes, starting every flow over RPC.
+ * <p>
+ * Arguments, all optional: couriers, concurrency, responses per courier, cancel percent. Defaults are 100 4 1 10.
+ * Latencies include RPC and P2P messaging, so compare them with MockNetworkLoadGenerator to see what the network costs.
+ */
+public class DriverLoadGenerator implements CourierLifecycleLoad.FlowStarter {
+    private final NodeHandle requestor;
+    private final NodeHandle responder;
+
+    private DriverLoadGenerator(NodeHandle requestor, NodeHandle responder) {
+        this.requestor = requestor;
+        this.responder = responder;
+    }
+
+    public static void main(String[] args) {
+        final User user = new User("user1", "test", ImmutableSet.of("ALL"));
+        driver(new DriverParameters().withStartNodesInProcess(false).withExtraCordappPackagesToScan(ImmutableList.of("com.nec.endmile")), dsl -> {
+            try {
+                final NodeHandle amazon = dsl.startNode(new NodeParameters()
+                        .withProvidedName(new CordaX500Name("Amazon", "London", "GB"))
+                        .withRpcUsers(ImmutableList.of(user))).get();
+                final NodeHandle necAuto = dsl.startNode(new NodeParameters()
+                        .withProvidedName(new CordaX500Name("NECAuto", "New York", "US"))
+                        .withRpcUsers(ImmutableList.of(user))).get();
+
+                new CourierLifecycleLoad(new DriverLoadGenerator(amazon, necAuto),
+                        MockNetworkLoadGenerator.intArg(args, 0, 100), MockNetworkLoadGenerator.intArg(args, 1, 4),
+                        MockNetworkLoadGenerator.intArg(args, 2, 1), MockNetworkLoadGenerator.intArg(args, 3, 10))
+                        .run(System.out);
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during load run", e);
+            }
+            return null;
+        });
+    }
+
+    private CordaRPCOps rpc(CourierLifecycleLoad.Role role) {
+        return (role == CourierLifecycleLoad.Role.REQUESTOR ? requestor : responder).getRpc();
+    }
+
+    @Override
+    public Party party(CourierLifecycleLoad.Role role) {
+        return (role == CourierLifecycleLoad.Role.REQUESTOR ? requestor : responder).getNodeInfo().getLegalIdentities().get(0);
+    }
+
+    @Override
+    public SecureHash importAttachment(byte[] jar) {
+        return requestor.getRpc().uploadAttachment(new ByteArrayInputStream(jar));
+    }
+
+    @Override
+    public <T> T run(CourierLifecycleLoad.Role role, Class<? extends FlowLogic<T>> flowClass, Consumer<String> onStep, Object... args) throws Exception {
+        final FlowProgressHandle<T> handle = rpc(role).startTrackedFlowDynamic(flowClass, args);
+        final Subscription steps = handle.getProgress().subscribe(onStep::accept, error -> { });
+        try {
+            return handle.getReturnValue().get();
+        } finally {
+            steps.unsubscribe();
+            handle.close();
+        }
+    }
+}
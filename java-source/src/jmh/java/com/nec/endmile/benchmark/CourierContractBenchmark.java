@@ -0,0 +1,123 @@
+package com.nec.endmile.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of CourierContract.verify for every command, with the input carrying the given number of quotes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CourierContractBenchmark {
+    private static final int BATCH_SIZE = 10;
+
+    @Param({"CourierPost", "CourierPostBatch", "CourierRate", "CourierContractAccept", "CourierDocUpload",
+            "CourierPicked", "CourierDelivered", "CourierCancelByRequestor", "CourierCancelByResponder"})
+    public String command;
+
+    @Param({"1", "10", "100"})
+    public int responses;
+
+    private final CourierContract contract = new CourierContract();
+    private LedgerTransaction tx;
+
+    @Setup
+    public void setup() {
+        final CourierState initiated = CourierFixtures.initiated(new UniqueIdentifier());
+        final CourierQuoteBook book = CourierFixtures.quoteBook(responses);
+
+        switch (command) {
+            case "CourierPost":
+                tx = issue(ImmutableList.of(initiated), new CourierContract.Commands.CourierPost());
+                break;
+            case "CourierPostBatch":
+                final List<CourierState> batch = new ArrayList<>(BATCH_SIZE);
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    batch.add(CourierFixtures.initiated(new UniqueIdentifier()));
+                }
+                tx = issue(batch, new CourierContract.Commands.CourierPostBatch());
+                break;
+            case "CourierRate":
+                // The responder quotes again, so the book keeps its size.
+                final CourierQuote requote = new CourierQuote(CourierFixtures.RESPONDER, 9000, 19000, Instant.now());
+                tx = CourierFixtures.ledgerTransaction(
+                        ImmutableList.of(CourierFixtures.withStatus(initiated, CourierStatus.COURIER_RESPONSE_RECEIVED, book)),
+                        ImmutableList.of(CourierFixtures.withStatus(initiated, CourierStatus.COURIER_RESPONSE_RECEIVED, book.withQuote(requote), requote)),
+                        new CourierContract.Commands.CourierRate(), CourierFixtures.RESPONDER);
+                break;
+            case "CourierContractAccept":
+                tx = move(initiated, book, CourierStatus.COURIER_RESPONSE_RECEIVED, CourierStatus.COURIER_ACCEPTED, new CourierContract.Commands.CourierContractAccept());
+                break;
+            case "CourierDocUpload":
+                tx = move(initiated, book, CourierStatus.COURIER_ACCEPTED, CourierStatus.COURIER_UPLOADED, new CourierContract.Commands.CourierDocUpload());
+                break;
+            case "CourierPicked":
+                tx = move(initiated, book, CourierStatus.COURIER_UPLOADED, CourierStatus.COURIER_PICKED, new CourierContract.Commands.CourierPicked(),
+                        CourierFixtures.RESPONDER);
+                break;
+            case "CourierDelivered":
+                tx = move(initiated, book, CourierStatus.COURIER_PICKED, CourierStatus.COURIER_DELIVERED, new CourierContract.Commands.CourierDelivered(),
+                        CourierFixtures.RESPONDER);
+                break;
+            case "CourierCancelByRequestor":
+                tx = move(initiated, book, CourierStatus.COURIER_ACCEPTED, CourierStatus.COURIER_REQUESTOR_CANCELLED, new CourierContract.Commands.CourierCancelByRequestor());
+                break;
+            case "CourierCancelByResponder":
+                tx = move(initiated, book, CourierStatus.COURIER_ACCEPTED, CourierStatus.COURIER_RESPONDER_CANCELLED, new CourierContract.Commands.CourierCancelByResponder(),
+                        CourierFixtures.RESPONDER);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    private static LedgerTransaction issue(List<CourierState> outputs, CommandData command) {
+        return CourierFixtures.ledgerTransaction(ImmutableList.of(), outputs, command, CourierFixtures.REQUESTOR);
+    }
+
+    private static LedgerTransaction move(CourierState courier, CourierQuoteBook book, CourierStatus from, CourierStatus to, CommandData command) {
+        return move(courier, book, from, to, command, CourierFixtures.REQUESTOR);
+    }
+
+    private static LedgerTransaction move(CourierState courier, CourierQuoteBook book, CourierStatus from, CourierStatus to, CommandData command,
+                                          Party signer) {
+        return CourierFixtures.ledgerTransaction(
+                ImmutableList.of(CourierFixtures.withStatus(courier, from, book)),
+                ImmutableList.of(CourierFixtures.withStatus(courier, to, book)),
+                command, signer);
+    }
+
+    @Benchmark
+    public LedgerTransaction verify() {
+        contract.verify(tx);
+        return tx;
+    }
+}
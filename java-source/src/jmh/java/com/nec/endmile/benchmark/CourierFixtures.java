@@ -0,0 +1,97 @@
+package com.nec.endmile.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.CommandWithParties;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.PrivacySalt;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parties, states and ledger transactions shared by the benchmarks. Built once per trial, outside the measured code.
+ */
+final class CourierFixtures {
+    static final Party NOTARY = party("Notary", "London", "GB");
+    static final Party REQUESTOR = party("Amazon", "London", "GB");
+    static final Party RESPONDER = party("NECAuto", "New York", "US");
+
+    private CourierFixtures() {
+    }
+
+    static Party party(String organisation, String locality, String country) {
+        return new Party(new CordaX500Name(organisation, locality, country), Crypto.generateKeyPair().getPublic());
+    }
+
+    /**
+     * A book of quotes from distinct responders, with the benchmark responder always among them.
+     */
+    static CourierQuoteBook quoteBook(int responses) {
+        final List<CourierQuote> quotes = new ArrayList<>(responses);
+        final Instant now = Instant.now();
+        quotes.add(new CourierQuote(RESPONDER, 10000, 20000, now));
+        for (int i = 1; i < responses; i++) {
+            quotes.add(new CourierQuote(party("Auto" + i, "Bangalore", "IN"), 10000 + i, 20000 + i, now.plusMillis(i)));
+        }
+        return new CourierQuoteBook(quotes);
+    }
+
+    static CourierState initiated(UniqueIdentifier linearId) {
+        return new CourierState(10, 10, 10, 10, "krpuram", "marathahalli", REQUESTOR, CourierStatus.COURIER_INITIATED,
+                linearId, linearId.getId().toString(), ImmutableList.of(RESPONDER));
+    }
+
+    /**
+     * The courier moved to the given status, carrying the given quotes and, from acceptance on, the responder's quote.
+     */
+    static CourierState withStatus(CourierState courier, CourierStatus status, CourierQuoteBook responses) {
+        return withStatus(courier, status, responses, null);
+    }
+
+    /**
+     * As {@link #withStatus(CourierState, CourierStatus, CourierQuoteBook)}, for a transition that adds the given quote.
+     */
+    static CourierState withStatus(CourierState courier, CourierStatus status, CourierQuoteBook responses, CourierQuote added) {
+        final boolean accepted = status != CourierStatus.COURIER_INITIATED && status != CourierStatus.COURIER_RESPONSE_RECEIVED;
+        return new CourierState(courier.getCourierLength(), courier.getCourierWidth(), courier.getCourierHeight(), courier.getCourierWeight(),
+                null, courier.getSource(), courier.getDestination(), courier.getRequestor(),
+                accepted ? RESPONDER : null,
+                accepted ? responses.quoteOf(RESPONDER).priceFor(CourierType.SHARED) : null,
+                accepted ? CourierType.SHARED : null,
+                status, courier.getLinearId(), responses, courier.getCourierId(), courier.getAutoNodes(), added);
+    }
+
+    static LedgerTransaction ledgerTransaction(List<CourierState> inputs, List<CourierState> outputs, CommandData command, Party signer) {
+        final List<StateAndRef<ContractState>> inputRefs = new ArrayList<>(inputs.size());
+        for (CourierState input : inputs) {
+            inputRefs.add(new StateAndRef<>(new TransactionState<>(input, CourierContract.CONTRACT_ID, NOTARY),
+                    new StateRef(SecureHash.randomSHA256(), 0)));
+        }
+        final List<TransactionState<ContractState>> outputStates = new ArrayList<>(outputs.size());
+        for (CourierState output : outputs) {
+            outputStates.add(new TransactionState<>(output, CourierContract.CONTRACT_ID, NOTARY));
+        }
+        final List<CommandWithParties<CommandData>> commands = ImmutableList.of(
+                new CommandWithParties<>(ImmutableList.of(signer.getOwningKey()), ImmutableList.of(signer), command));
+
+        return new LedgerTransaction(inputRefs, outputStates, commands, ImmutableList.of(), SecureHash.randomSHA256(),
+                NOTARY, null, new PrivacySalt());
+    }
+}
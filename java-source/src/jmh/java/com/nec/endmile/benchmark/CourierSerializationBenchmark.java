@@ -0,0 +1,70 @@
+package com.nec.endmile.benchmark;
+
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.serialization.SerializationContext;
+import net.corda.core.serialization.SerializationDefaults;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.core.serialization.SerializedBytes;
+import net.corda.testing.core.GlobalSerializationEnvironment;
+import net.corda.testing.core.SerializationTestHelpersKt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AMQP serialising a CourierState in the P2P context, as done for every transaction sent between nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CourierSerializationBenchmark {
+    @Param({"1", "10", "100"})
+    public int responses;
+
+    private GlobalSerializationEnvironment serializationEnvironment;
+    private SerializationFactory factory;
+    private SerializationContext context;
+    private CourierState courier;
+    private SerializedBytes<CourierState> serialized;
+
+    @Setup
+    public void setup() {
+        serializationEnvironment = SerializationTestHelpersKt.setGlobalSerialization(true);
+        factory = SerializationDefaults.INSTANCE.getSERIALIZATION_FACTORY();
+        context = SerializationDefaults.INSTANCE.getP2P_CONTEXT();
+        courier = CourierFixtures.withStatus(CourierFixtures.initiated(new UniqueIdentifier()), CourierStatus.COURIER_RESPONSE_RECEIVED,
+                CourierFixtures.quoteBook(responses));
+        serialized = factory.serialize(courier, context);
+    }
+
+    @TearDown
+    public void tearDown() {
+        serializationEnvironment.unset();
+    }
+
+    @Benchmark
+    public SerializedBytes<CourierState> serialize() {
+        return factory.serialize(courier, context);
+    }
+
+    @Benchmark
+    public CourierState deserialize() {
+        return factory.deserialize(serialized, CourierState.class, context);
+    }
+}
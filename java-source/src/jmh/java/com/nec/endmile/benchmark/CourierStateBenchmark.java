@@ -0,0 +1,85 @@
+package com.nec.endmile.benchmark;
+
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.schema.CourierSchemaV2;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.schemas.PersistentState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and copying a CourierState, of the quote book operations the respond and accept flows run, and
+ * of mapping the state to its schema.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CourierStateBenchmark {
+    @Param({"1", "10", "100"})
+    public int responses;
+
+    private final CourierSchemaV2 schemaV2 = new CourierSchemaV2();
+    private final UniqueIdentifier linearId = new UniqueIdentifier();
+
+    private CourierState responded;
+    private CourierQuoteBook book;
+    private CourierQuote newQuote;
+
+    @Setup
+    public void setup() {
+        book = CourierFixtures.quoteBook(responses);
+        responded = CourierFixtures.withStatus(CourierFixtures.initiated(linearId), CourierStatus.COURIER_RESPONSE_RECEIVED, book);
+        newQuote = new CourierQuote(CourierFixtures.party("NewAuto", "Bangalore", "IN"), 9000, 19000, Instant.now());
+    }
+
+    @Benchmark
+    public CourierState construct() {
+        return CourierFixtures.initiated(linearId);
+    }
+
+    @Benchmark
+    public CourierState copy() {
+        return new CourierState(responded.getCourierLength(), responded.getCourierWidth(), responded.getCourierHeight(), responded.getCourierWeight(),
+                responded.getSource(), responded.getDestination(), responded.getRequestor(), CourierStatus.COURIER_RESPONSE_RECEIVED,
+                responded.getLinearId(), responded.getCourierId(), responded.getResponses(), responded.getAutoNodes(), null);
+    }
+
+    @Benchmark
+    public CourierQuoteBook addQuote() {
+        return book.withQuote(newQuote);
+    }
+
+    @Benchmark
+    public CourierQuote bestQuote() {
+        return book.bestQuote(CourierType.SHARED);
+    }
+
+    @Benchmark
+    public CourierQuote quoteOf() {
+        return book.quoteOf(CourierFixtures.RESPONDER);
+    }
+
+    @Benchmark
+    public PersistentState generateMappedObjectV2() {
+        return responded.generateMappedObject(schemaV2);
+    }
+}
@@ -1,32 +1,67 @@
 package com.nec.endmile.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.flow.CourierBatchRequestFlow;
 import com.nec.endmile.flow.CourierContractAcceptFlow;
+import com.nec.endmile.flow.CourierQuoteFlow;
+import com.nec.endmile.flow.CourierQuoteQueryFlow;
 import com.nec.endmile.flow.CourierRequestFlow;
 import com.nec.endmile.flow.CourierRespondFlow;
-import com.nec.endmile.schema.CourierSchemaV1;
+import com.nec.endmile.schema.CourierSchemaV2;
+import com.nec.endmile.service.FlowMetricsService;
+import com.nec.endmile.state.CourierQuote;
 import com.nec.endmile.state.CourierState;
+import net.corda.client.jackson.JacksonSupport;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
-import net.corda.core.node.NodeInfo;
+import net.corda.core.messaging.FlowHandle;
 import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.BinaryLogicalOperator;
 import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.ColumnPredicate;
 import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.PageSpecification;
 import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
 import net.corda.core.transactions.SignedTransaction;
+import org.glassfish.jersey.server.ChunkedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static java.util.stream.Collectors.toList;
 import static javax.ws.rs.core.Response.Status.*;
@@ -36,14 +71,34 @@ import static javax.ws.rs.core.Response.Status.*;
 public class CourierApi1 {
     private final CordaRPCOps rpcOps;
     private final CordaX500Name myLegalName;
-
-    private final List<String> serviceNames = ImmutableList.of("Notary");
+    private final FlowRegistry flowRegistry;
+    private final NetworkCache networkCache;
+    private final ObjectMapper jsonMapper;
+    private final CourierEventHub eventHub;
+    private final CourierReadModel readModel;
+    private final IdempotencyKeys idempotencyKeys;
 
     static private final Logger logger = LoggerFactory.getLogger(CourierApi1.class);
 
-    public CourierApi1(CordaRPCOps rpcOps) {
+    static private final String NDJSON = "application/x-ndjson";
+    static private final String PROMETHEUS_TEXT = "text/plain; version=0.0.4";
+    static private final int METRICS_TIMEOUT_MILLIS = 5_000;
+    static private final String DEFAULT_PAGE_SIZE = "200";
+    static private final int MAX_PAGE_SIZE = 1000;
+    static private final String SORT_BY_RECORDED_TIME = "recordedTime";
+    static private final String SORT_BY_COURIER_ID = "courierId";
+    static private final int MAX_COMMANDS = 100;
+    static private final Duration DEFAULT_PRICE_WINDOW = Duration.ofDays(30);
+
+    public CourierApi1(CordaRPCOps rpcOps, FlowRegistry flowRegistry, NetworkCache networkCache, IdempotencyKeys idempotencyKeys) {
         this.rpcOps = rpcOps;
+        this.flowRegistry = flowRegistry;
+        this.networkCache = networkCache;
+        this.idempotencyKeys = idempotencyKeys;
         this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+        this.jsonMapper = JacksonSupport.createDefaultMapper(rpcOps);
+        this.eventHub = new CourierEventHub(rpcOps, jsonMapper);
+        this.readModel = new CourierReadModel(rpcOps);
     }
 
     /**
@@ -64,38 +119,372 @@ public class CourierApi1 {
     @Path("any/peers")
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, List<CordaX500Name>> getPeers() {
-        List<NodeInfo> nodeInfoSnapshot = rpcOps.networkMapSnapshot();
-        return ImmutableMap.of("peers", nodeInfoSnapshot
-                .stream()
-                .map(node -> node.getLegalIdentities().get(0).getName())
-                .filter(name -> !name.equals(myLegalName) && !serviceNames.contains(name.getOrganisation()))
-                .collect(toList()));
+        return ImmutableMap.of("peers", networkCache.getPeers());
     }
 
     /**
-     * Displays all Courier states that exist in the node's vault.
+     * Returns the status of a flow started through this API, and its transaction id once it has completed.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/any/flow/6a1bc9bf-6a4f-4c1a-9b8e-1c4fd3b0d3a4'
+     */
+    @GET
+    @Path("any/flow/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getFlow(@PathParam("id") String flowId) {
+        final FlowRegistry.FlowOutcome outcome = flowRegistry.get(flowId);
+        if (outcome == null) {
+            return Response.status(NOT_FOUND).entity("Flow " + flowId + " is unknown to this webserver.\n").build();
+        }
+        return Response.status(OK).entity(outcome).build();
+    }
+
+    /**
+     * Exposes the node's courier flow latency histograms, overall and per stage, in the Prometheus text format.
+     * <p>
+     * They are read from the export the node serves on the loopback interface when it is started with the
+     * com.nec.endmile.metrics.port system property, so a scrape costs no flow. This webserver must be started with
+     * the same property, and answers 503 without it.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/any/metrics'
+     */
+    @GET
+    @Path("any/metrics")
+    @Produces(PROMETHEUS_TEXT)
+    public Response getMetrics() {
+        final String port = System.getProperty(FlowMetricsService.EXPORT_PORT_PROPERTY);
+        if (port == null) {
+            return Response.status(SERVICE_UNAVAILABLE)
+                    .entity("Flow metrics are not exported. Start the node and its webserver with -D" + FlowMetricsService.EXPORT_PORT_PROPERTY + "=<port>.\n").build();
+        }
+        try {
+            return Response.status(OK).entity(readNodeMetrics(Integer.parseInt(port))).build();
+        } catch (IOException | NumberFormatException ex) {
+            logger.error("Unable to read the node's flow metrics", ex);
+            return Response.status(SERVICE_UNAVAILABLE).entity("Unable to read the node's flow metrics: " + ex.getMessage() + "\n").build();
+        }
+    }
+
+    private static String readNodeMetrics(int port) throws IOException {
+        final URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, FlowMetricsService.EXPORT_PATH);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(METRICS_TIMEOUT_MILLIS);
+        connection.setReadTimeout(METRICS_TIMEOUT_MILLIS);
+        try (InputStream in = connection.getInputStream()) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Displays one page of the Courier states that exist in the node's vault.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/any/getAll?page=1&size=200&sort=courierId&direction=ASC'
      */
     @GET
     @Path("any/getAll")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<CourierState>> getAll() {
-        return rpcOps.vaultQuery(CourierState.class).getStates();
+    public Response getAll(@QueryParam("page") @DefaultValue("1") int page,
+                           @QueryParam("size") @DefaultValue(DEFAULT_PAGE_SIZE) int size,
+                           @QueryParam("sort") @DefaultValue(SORT_BY_RECORDED_TIME) String sort,
+                           @QueryParam("direction") @DefaultValue("ASC") String direction) {
+        return queryPage(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED), page, size, sort, direction);
     }
 
     /**
-     * Displays all courier states that are created by Party.
+     * Displays one page of the courier states with the given status.
      */
     @GET
     @Path("any/getByStatus")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getByStatus(@QueryParam("status") String status) throws NoSuchFieldException {
-        QueryCriteria generalCriteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
-        Field statusInVault = CourierSchemaV1.PersistentCourier.class.getDeclaredField("status");
-        CriteriaExpression statusIndex = Builder.equal(statusInVault, status);
-        QueryCriteria statusCriteria = new QueryCriteria.VaultCustomQueryCriteria(statusIndex);
-        QueryCriteria criteria = generalCriteria.and(statusCriteria);
-        List<StateAndRef<CourierState>> results = rpcOps.vaultQueryByCriteria(criteria, CourierState.class).getStates();
-        return Response.status(OK).entity(results).build();
+    public Response getByStatus(@QueryParam("status") String status,
+                                @QueryParam("page") @DefaultValue("1") int page,
+                                @QueryParam("size") @DefaultValue(DEFAULT_PAGE_SIZE) int size,
+                                @QueryParam("sort") @DefaultValue(SORT_BY_RECORDED_TIME) String sort,
+                                @QueryParam("direction") @DefaultValue("ASC") String direction) throws NoSuchFieldException {
+        final QueryCriteria criteria;
+        try {
+            criteria = statusCriteria(status);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        return queryPage(criteria, page, size, sort, direction);
+    }
+
+    /**
+     * Displays one page of the courier states matching every given filter. Filters left out are not applied.
+     * <p>
+     * All filters are combined into a single custom criteria on courier_states_v2, whose filter columns are each
+     * indexed, so the page is served by index seeks.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/any/search?status=initiated&source=krpuram&destination=marathahalli&page=1&size=200'
+     */
+    @GET
+    @Path("any/search")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response search(@QueryParam("courierId") String courierId,
+                           @QueryParam("status") String status,
+                           @QueryParam("requestor") CordaX500Name requestor,
+                           @QueryParam("acceptedResponder") CordaX500Name acceptedResponder,
+                           @QueryParam("source") String source,
+                           @QueryParam("destination") String destination,
+                           @QueryParam("page") @DefaultValue("1") int page,
+                           @QueryParam("size") @DefaultValue(DEFAULT_PAGE_SIZE) int size,
+                           @QueryParam("sort") @DefaultValue(SORT_BY_RECORDED_TIME) String sort,
+                           @QueryParam("direction") @DefaultValue("ASC") String direction) throws NoSuchFieldException {
+        final Map<String, Object> filters = new LinkedHashMap<>();
+        try {
+            filters.put("courierId", courierId);
+            filters.put("status", status == null ? null : CourierStatus.fromLabel(status).getCode());
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        filters.put("requestor", requestor == null ? null : requestor.toString());
+        filters.put("acceptedResponder", acceptedResponder == null ? null : acceptedResponder.toString());
+        filters.put("source", source);
+        filters.put("destination", destination);
+
+        return queryPage(searchCriteria(filters), page, size, sort, direction);
+    }
+
+    /**
+     * Lists the quotes of every courier with the given status, keyed by courierId.
+     * <p>
+     * The quotes are read from the courier_quotes table in one query, rather than per courier.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/any/getQuotesByStatus?status=response-received'
+     */
+    @GET
+    @Path("any/getQuotesByStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getQuotesByStatus(@Suspended final AsyncResponse asyncResponse, @QueryParam("status") String status) {
+        final CourierStatus courierStatus;
+        try {
+            courierStatus = CourierStatus.fromLabel(status);
+        } catch (IllegalArgumentException ex) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build());
+            return;
+        }
+
+        try {
+            FlowRegistry.respondWithResult(rpcOps.startFlowDynamic(CourierQuoteQueryFlow.ByStatus.class, courierStatus),
+                    OK, INTERNAL_SERVER_ERROR, asyncResponse);
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            asyncResponse.resume(Response.status(INTERNAL_SERVER_ERROR).entity(ex.getMessage() + "\n").build());
+        }
+    }
+
+    /**
+     * Lists the quotes carriers have sent off the ledger for a courier this node requested.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/requestor/getOfferedQuotes?courierId=4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4'
+     */
+    @GET
+    @Path("requestor/getOfferedQuotes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getOfferedQuotes(@Suspended final AsyncResponse asyncResponse, @QueryParam("courierId") String courierId) {
+        try {
+            FlowRegistry.respondWithResult(rpcOps.startFlowDynamic(CourierQuoteQueryFlow.Offered.class, courierId),
+                    OK, INTERNAL_SERVER_ERROR, asyncResponse);
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            asyncResponse.resume(Response.status(INTERNAL_SERVER_ERROR).entity(ex.getMessage() + "\n").build());
+        }
+    }
+
+    /**
+     * Streams every unconsumed courier state, optionally filtered by status, as newline-delimited JSON.
+     * <p>
+     * The vault is walked one page at a time while the response is written, so an export of any size uses bounded
+     * heap on both the node and the webserver. Every page reads the couriers that were unconsumed when the export
+     * started, including any consumed since, in recorded time and StateRef order, so couriers moving on while the
+     * export runs neither shift a courier onto a page already written nor write it twice.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/any/export?status=initiated'
+     */
+    @GET
+    @Path("any/export")
+    @Produces(NDJSON)
+    public Response export(@QueryParam("status") String status,
+                           @QueryParam("size") @DefaultValue(DEFAULT_PAGE_SIZE) int size) throws NoSuchFieldException {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'size' must be between 1 and " + MAX_PAGE_SIZE + ".\n").build();
+        }
+
+        final QueryCriteria criteria;
+        try {
+            criteria = snapshotCriteria(rpcOps.currentNodeTime(), status);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        final Sort sorting = new Sort(ImmutableSet.of(
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+        final StreamingOutput stream = output -> {
+            long written = 0;
+            for (int page = 1; ; page++) {
+                final Vault.Page<CourierState> results = rpcOps.vaultQueryBy(criteria, new PageSpecification(page, size), sorting, CourierState.class);
+                for (StateAndRef<CourierState> state : results.getStates()) {
+                    output.write(jsonMapper.writeValueAsBytes(state));
+                    output.write('\n');
+                }
+                output.flush();
+                written += results.getStates().size();
+                if (results.getStates().isEmpty() || written >= results.getTotalStatesAvailable()) {
+                    break;
+                }
+            }
+        };
+        return Response.status(OK).entity(stream).build();
+    }
+
+    /**
+     * Streams courier state changes as server-sent events, optionally filtered by status, requestor and responder.
+     * <p>
+     * Each event is a courier state produced by a transaction, as JSON. A responder matches couriers it has quoted
+     * on or been accepted for. Every client shares one vault subscription on the node, so dashboards can follow
+     * changes without polling. A client that falls too far behind is disconnected.
+     * <p>
+     * curl -N 'http://localhost:10009/api/couriers/any/stream?status=response-received'
+     */
+    @GET
+    @Path("any/stream")
+    @Produces(CourierEventHub.EVENT_STREAM)
+    public ChunkedOutput<String> stream(@QueryParam("status") String status,
+                                        @QueryParam("requestor") CordaX500Name requestor,
+                                        @QueryParam("responder") CordaX500Name responder) {
+        Predicate<CourierState> filter = courier -> true;
+        if (status != null) {
+            final CourierStatus courierStatus;
+            try {
+                courierStatus = CourierStatus.fromLabel(status);
+            } catch (IllegalArgumentException ex) {
+                throw new WebApplicationException(Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build());
+            }
+            filter = filter.and(courier -> courier.getStatus() == courierStatus);
+        }
+        if (requestor != null) {
+            filter = filter.and(courier -> courier.getRequestor().getName().equals(requestor));
+        }
+        if (responder != null) {
+            filter = filter.and(courier -> (courier.getAcceptedResponder() != null && courier.getAcceptedResponder().getName().equals(responder))
+                    || courier.getResponses().getQuotes().stream().anyMatch(quote -> quote.getResponder().getName().equals(responder)));
+        }
+        return eventHub.subscribe(filter);
+    }
+
+    /**
+     * Summarises the prices of couriers accepted in a time window, by route, delivery type and responder: count,
+     * average, min, max and the 50th, 90th and 99th percentiles, in minor units.
+     * <p>
+     * from and to are ISO-8601 instants. The window is the last 30 days up to now unless given. The summary is
+     * computed on the node from the numeric price column, so no courier state is read.
+     * <p>
+     * curl 'http://localhost:10009/api/couriers/any/priceStats?from=2018-09-01T00:00:00Z&to=2018-10-01T00:00:00Z'
+     */
+    @GET
+    @Path("any/priceStats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void priceStats(@Suspended final AsyncResponse asyncResponse, @QueryParam("from") String from, @QueryParam("to") String to) {
+        final Instant windowEnd;
+        final Instant windowStart;
+        try {
+            windowEnd = to == null ? Instant.now() : Instant.parse(to);
+            windowStart = from == null ? windowEnd.minus(DEFAULT_PRICE_WINDOW) : Instant.parse(from);
+        } catch (DateTimeParseException ex) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity("Query parameters 'from' and 'to' must be ISO-8601 instants.\n").build());
+            return;
+        }
+        if (!windowStart.isBefore(windowEnd)) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity("Query parameter 'from' must be before 'to'.\n").build());
+            return;
+        }
+
+        try {
+            FlowRegistry.respondWithResult(rpcOps.startFlowDynamic(CourierQuoteQueryFlow.AcceptedPrices.class, windowStart, windowEnd),
+                    OK, INTERNAL_SERVER_ERROR, asyncResponse);
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            asyncResponse.resume(Response.status(INTERNAL_SERVER_ERROR).entity(ex.getMessage() + "\n").build());
+        }
+    }
+
+    /**
+     * Counts unconsumed couriers per status, per requestor and per accepted responder.
+     * <p>
+     * The counts are kept by the read model as vault updates arrive, so the call costs the same however large the
+     * vault is. Until the model has loaded the existing couriers the endpoint returns 503.
+     * <p>
+     * curl 'http://localhost:10009/api/couriers/any/stats'
+     */
+    @GET
+    @Path("any/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stats() {
+        if (!readModel.isReady()) {
+            return Response.status(SERVICE_UNAVAILABLE).entity("Courier read model is still loading.\n").build();
+        }
+        return Response.status(OK).entity(readModel.stats()).build();
+    }
+
+    /**
+     * Lists compact summaries of unconsumed couriers, in courierId order, optionally filtered by status, requestor and
+     * responder. A responder matches couriers it has quoted on or been accepted for.
+     * <p>
+     * Summaries are served from an in-memory read model kept up to date from vault updates, so no vault query runs.
+     * Until the model has loaded the existing couriers the endpoint returns 503.
+     * <p>
+     * curl 'http://localhost:10009/api/couriers/any/summaries?status=accepted&page=1&size=50'
+     */
+    @GET
+    @Path("any/summaries")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response summaries(@QueryParam("status") String status,
+                              @QueryParam("requestor") CordaX500Name requestor,
+                              @QueryParam("responder") CordaX500Name responder,
+                              @QueryParam("page") @DefaultValue("1") int page,
+                              @QueryParam("size") @DefaultValue(DEFAULT_PAGE_SIZE) int size) {
+        if (!readModel.isReady()) {
+            return Response.status(SERVICE_UNAVAILABLE).entity("Courier read model is still loading.\n").build();
+        }
+        if (page < 1) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'page' must be 1 or greater.\n").build();
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'size' must be between 1 and " + MAX_PAGE_SIZE + ".\n").build();
+        }
+        CourierStatus courierStatus = null;
+        if (status != null) {
+            try {
+                courierStatus = CourierStatus.fromLabel(status);
+            } catch (IllegalArgumentException ex) {
+                return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+            }
+        }
+
+        Predicate<CourierSummary> filter = courier -> true;
+        if (requestor != null) {
+            final String requestorName = requestor.toString();
+            filter = filter.and(courier -> courier.getRequestor().equals(requestorName));
+        }
+        if (responder != null) {
+            final String responderName = responder.toString();
+            filter = filter.and(courier -> courier.involvesResponder(responderName));
+        }
+        final List<CourierSummary> matching = readModel.select(courierStatus, filter);
+
+        final int from = (int) Math.min((long) (page - 1) * size, matching.size());
+        final int to = Math.min(from + size, matching.size());
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("couriers", matching.subList(from, to));
+        body.put("page", page);
+        body.put("size", size);
+        body.put("totalCouriersAvailable", matching.size());
+        body.put("nextPage", to < matching.size() ? page + 1 : null);
+        return Response.status(OK).entity(body).build();
     }
 
     /**
@@ -104,84 +493,235 @@ public class CourierApi1 {
     @GET
     @Path("any/getById")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getById(@QueryParam("courierId") String courierId) throws NoSuchFieldException {
-        QueryCriteria generalCriteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
-        Field courierIdInVault = CourierSchemaV1.PersistentCourier.class.getDeclaredField("courierId");
-        CriteriaExpression statusIndex = Builder.equal(courierIdInVault, courierId);
-        QueryCriteria statusCriteria = new QueryCriteria.VaultCustomQueryCriteria(statusIndex);
-        QueryCriteria criteria = generalCriteria.and(statusCriteria);
+    public Response getById(@QueryParam("courierId") String courierId) {
+        final QueryCriteria criteria;
+        try {
+            criteria = linearCriteria(courierId, Vault.StateStatus.UNCONSUMED);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'courierId' missing or has wrong format.\n").build();
+        }
         List<StateAndRef<CourierState>> results = rpcOps.vaultQueryByCriteria(criteria, CourierState.class).getStates();
+        if (results.isEmpty()) {
+            return Response.status(NOT_FOUND).entity("Courier " + courierId + " is not present in the vault.\n").build();
+        }
         return Response.status(OK).entity(results.get(0)).build();
     }
 
+    /**
+     * Displays every version of a courier, oldest first, consumed ones included.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/any/getHistory?courierId=4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4'
+     */
+    @GET
+    @Path("any/getHistory")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getHistory(@QueryParam("courierId") String courierId) {
+        final QueryCriteria criteria;
+        try {
+            criteria = linearCriteria(courierId, Vault.StateStatus.ALL);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'courierId' missing or has wrong format.\n").build();
+        }
+        final Sort sorting = sortBy(SORT_BY_RECORDED_TIME, Sort.Direction.ASC);
+        List<StateAndRef<CourierState>> results = rpcOps.vaultQueryBy(criteria, new PageSpecification(1, MAX_PAGE_SIZE), sorting, CourierState.class).getStates();
+        return Response.status(OK).entity(results).build();
+    }
+
+    /**
+     * Resolves the carriers named by the 'partyName' query parameters. No names resolves to an empty list, which the
+     * request flows send to every carrier on the network. Returns null after resuming the response with 400 when a
+     * name is unknown.
+     */
+    private List<Party> carriers(List<CordaX500Name> partyNames, AsyncResponse asyncResponse) {
+        final List<Party> carriers = new ArrayList<>(partyNames.size());
+        for (CordaX500Name partyName : partyNames) {
+            final Party carrier = networkCache.wellKnownParty(partyName);
+            if (carrier == null) {
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity("Party named " + partyName + " cannot be found.\n").build());
+                return null;
+            }
+            carriers.add(carrier);
+        }
+        return carriers;
+    }
+
     /**
      * Initiates a flow to create a Courier request.
      * <p>
      * <p>
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
+     * <p>
+     * Repeat 'partyName' to send the request to several carriers in one transaction, or leave it out to send it to
+     * every carrier on the network.
      * <p>
      * curl -X GET 'http://localhost:10009/api/couriers/requestor/create?courierLength=10&courierWidth=10&courierHeight=10&courierWeight=10&source=krpuram&destination=marathahalli&partyName=O=NECAuto,L=New%20York,C=US'
      */
     @GET
     @Path("requestor/create")
-    public Response create(@QueryParam("courierLength") int courierLength, @QueryParam("courierWidth") int courierWidth,
-                           @QueryParam("courierHeight") int courierHeight, @QueryParam("courierWeight") int courierWeight,
-                           @QueryParam("source") String source,
-                           @QueryParam("destination") String destination,
-                           @QueryParam("partyName") CordaX500Name partyName) throws InterruptedException, ExecutionException {
+    public void create(@Suspended final AsyncResponse asyncResponse,
+                       @QueryParam("courierLength") int courierLength, @QueryParam("courierWidth") int courierWidth,
+                       @QueryParam("courierHeight") int courierHeight, @QueryParam("courierWeight") int courierWeight,
+                       @QueryParam("source") String source,
+                       @QueryParam("destination") String destination,
+                       @QueryParam("partyName") List<CordaX500Name> partyNames,
+                       @QueryParam("wait") long wait,
+                       @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
 
-        if (partyName == null) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'partyName' missing or has wrong format.\n").build();
+        final List<Party> carriers = carriers(partyNames, asyncResponse);
+        if (carriers == null) {
+            return;
         }
 
-        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
-        if (otherParty == null) {
-            return Response.status(BAD_REQUEST).entity("Party named " + partyName + "cannot be found.\n").build();
-        }
+        final List<Object> request = Arrays.asList(courierLength, courierWidth, courierHeight, courierWeight, source, destination, partyNames);
+        idempotencyKeys.run(idempotencyKey, "requestor/create", request, 1, false, asyncResponse, claim -> {
+            try {
+                final FlowHandle<SignedTransaction> flowHandle = rpcOps.startFlowDynamic(CourierRequestFlow.Initiator.class, courierLength, courierWidth, courierHeight, courierWeight, source, destination, carriers);
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, CREATED, asyncResponse);
 
-        try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(CourierRequestFlow.Initiator.class, courierLength, courierWeight, courierHeight, courierWeight, source, destination, otherParty)
-                    .getReturnValue()
-                    .get();
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
+    }
 
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(CREATED).entity(msg).build();
+    /**
+     * Initiates a flow to create a whole batch of Courier requests in one transaction.
+     * <p>
+     * Every courier is checked as the create command checks it before the flow is started. A batch with any invalid
+     * courier is answered with 400 and the errors of each, keyed by its index in the array.
+     * <p>
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
+     * <p>
+     * curl -X POST -H 'Content-Type: application/json' -d '[{"courierLength":10,"courierWidth":10,"courierHeight":10,"courierWeight":10,"source":"krpuram","destination":"marathahalli"}]' 'http://localhost:10009/api/couriers/requestor/createBatch?partyName=O=NECAuto,L=New%20York,C=US'
+     */
+    @POST
+    @Path("requestor/createBatch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public void createBatch(@Suspended final AsyncResponse asyncResponse,
+                            List<CourierRequestBody> parcels,
+                            @QueryParam("partyName") List<CordaX500Name> partyNames,
+                            @QueryParam("wait") long wait,
+                            @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
 
-        } catch (Throwable ex) {
-            final String msg = ex.getMessage();
-            logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
+        if (parcels == null || parcels.isEmpty()) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity("Request body must be a non-empty JSON array of couriers.\n").build());
+            return;
         }
+        final Map<Integer, List<String>> invalid = new LinkedHashMap<>();
+        for (int i = 0; i < parcels.size(); i++) {
+            if (parcels.get(i) == null) {
+                invalid.put(i, ImmutableList.of("Courier is missing"));
+                continue;
+            }
+            final List<String> errors = new ArrayList<>();
+            parcels.get(i).validate(errors);
+            if (!errors.isEmpty()) {
+                invalid.put(i, errors);
+            }
+        }
+        if (!invalid.isEmpty()) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity(ImmutableMap.of("errors", invalid)).build());
+            return;
+        }
+
+        final List<Party> carriers = carriers(partyNames, asyncResponse);
+        if (carriers == null) {
+            return;
+        }
+
+        final List<Object> request = Arrays.asList(parcels, partyNames);
+        idempotencyKeys.run(idempotencyKey, "requestor/createBatch", request, 1, false, asyncResponse, claim -> {
+            final List<CourierBatchRequestFlow.Parcel> batch = parcels.stream()
+                    .map(body -> new CourierBatchRequestFlow.Parcel(body.getCourierLength(), body.getCourierWidth(), body.getCourierHeight(),
+                            body.getCourierWeight(), body.getSource(), body.getDestination()))
+                    .collect(toList());
+
+            try {
+                final FlowHandle<SignedTransaction> flowHandle = rpcOps.startFlowDynamic(CourierBatchRequestFlow.Initiator.class, batch, carriers);
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, CREATED, asyncResponse);
+
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
     }
 
     /**
      * Initiates a flow to create a Courier request.
      * <p>
      * <p>
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
      * <p>
-     * curl -X GET 'http://localhost:10012/api/couriers/responder/setFares?courierId=4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4&sharedPrice=10&dedicatedPrice=10&responder=auto-1'
+     * Prices are decimal amounts, e.g. 10.50, and the quote is recorded against this node's identity.
+     * <p>
+     * curl -X GET 'http://localhost:10012/api/couriers/responder/setFares?courierId=4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4&sharedPrice=10&dedicatedPrice=10'
      */
     @GET
     @Path("responder/setFares")
-    public Response setFares(@QueryParam("courierId") String courierId, @QueryParam("sharedPrice") String sharedPrice,
-                           @QueryParam("dedicatedPrice") String dedicatedPrice, @QueryParam("responder") String responder) throws InterruptedException, ExecutionException {
+    public void setFares(@Suspended final AsyncResponse asyncResponse,
+                         @QueryParam("courierId") String courierId, @QueryParam("sharedPrice") String sharedPrice,
+                         @QueryParam("dedicatedPrice") String dedicatedPrice,
+                         @QueryParam("wait") long wait,
+                         @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
 
+        final List<Object> request = Arrays.asList(courierId, sharedPrice, dedicatedPrice);
+        idempotencyKeys.run(idempotencyKey, "responder/setFares", request, 1, false, asyncResponse, claim -> {
+            try {
+                final FlowHandle<SignedTransaction> flowHandle = rpcOps.startFlowDynamic(CourierRespondFlow.Responder.class, courierId,
+                        CourierQuote.parsePrice(sharedPrice), CourierQuote.parsePrice(dedicatedPrice));
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, CREATED, asyncResponse);
 
-        try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(CourierRespondFlow.Responder.class, courierId, sharedPrice, dedicatedPrice, responder)
-                    .getReturnValue()
-                    .get();
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
+    }
 
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(CREATED).entity(msg).build();
+    /**
+     * Sends a quote to the courier's requestor off the ledger, without a transaction.
+     * <p>
+     * The quote only reaches the ledger if the requestor accepts it, so any number of carriers can quote on a
+     * courier without contending for its state. Prices are decimal amounts, e.g. 10.50.
+     * <p>
+     * curl -X GET 'http://localhost:10012/api/couriers/responder/submitQuote?courierId=4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4&sharedPrice=10&dedicatedPrice=10'
+     */
+    @GET
+    @Path("responder/submitQuote")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void submitQuote(@Suspended final AsyncResponse asyncResponse,
+                            @QueryParam("courierId") String courierId, @QueryParam("sharedPrice") String sharedPrice,
+                            @QueryParam("dedicatedPrice") String dedicatedPrice) {
+        final long shared;
+        final long dedicated;
+        try {
+            shared = CourierQuote.parsePrice(sharedPrice);
+            dedicated = CourierQuote.parsePrice(dedicatedPrice);
+        } catch (NullPointerException | ArithmeticException | NumberFormatException ex) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity("Query parameters 'sharedPrice' and 'dedicatedPrice' must be decimal amounts.\n").build());
+            return;
+        }
 
+        try {
+            FlowRegistry.respondWithResult(rpcOps.startFlowDynamic(CourierQuoteFlow.Submitter.class, courierId, shared, dedicated),
+                    CREATED, BAD_REQUEST, asyncResponse);
         } catch (Throwable ex) {
-            final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build());
         }
     }
 
@@ -189,29 +729,194 @@ public class CourierApi1 {
      * Initiates a flow to accept a courier response.
      * <p>
      * <p>
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
      * <p>
-     * curl -X GET 'http://localhost:10009/api/couriers/requestor/acceptCourier?courierId=4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4&responder=auto-1&finalDeliveryType=shared'
+     * 'responder' is the X500 name of the quoting node. Without it the cheapest quote for the delivery type is accepted.
+     * <p>
+     * curl -X GET 'http://localhost:10009/api/couriers/requestor/acceptCourier?courierId=4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4&responder=O=NECAuto,L=New%20York,C=US&finalDeliveryType=shared'
      */
     @GET
     @Path("requestor/acceptCourier")
-    public Response acceptCourier(@QueryParam("courierId") String courierId, @QueryParam("responder") String responder,
-                           @QueryParam("finalDeliveryType")  String finalDeliveryType) throws InterruptedException, ExecutionException {
+    public void acceptCourier(@Suspended final AsyncResponse asyncResponse,
+                              @QueryParam("courierId") String courierId, @QueryParam("responder") CordaX500Name responder,
+                              @QueryParam("finalDeliveryType")  String finalDeliveryType,
+                              @QueryParam("wait") long wait,
+                              @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
+
+        final List<Object> request = Arrays.asList(courierId, responder, finalDeliveryType);
+        idempotencyKeys.run(idempotencyKey, "requestor/acceptCourier", request, 1, false, asyncResponse, claim -> {
+            try {
+                final FlowHandle<SignedTransaction> flowHandle;
+                if (responder == null) {
+                    flowHandle = rpcOps.startFlowDynamic(CourierContractAcceptFlow.Acceptor.class, courierId, CourierType.fromLabel(finalDeliveryType));
+                } else {
+                    final Party responderParty = networkCache.wellKnownParty(responder);
+                    if (responderParty == null) {
+                        claim.release();
+                        asyncResponse.resume(Response.status(BAD_REQUEST).entity("Party named " + responder + " cannot be found.\n").build());
+                        return;
+                    }
+                    flowHandle = rpcOps.startFlowDynamic(CourierContractAcceptFlow.Acceptor.class, courierId, responderParty, CourierType.fromLabel(finalDeliveryType));
+                }
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, CREATED, asyncResponse);
 
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
+    }
+
+    /**
+     * Runs an array of JSON courier commands, one flow each. See {@link CourierCommand} for the command bodies.
+     * <p>
+     * Every command is validated, and its parties resolved, before any flow starts. If any command is invalid the
+     * request is rejected with 400 and the errors of each invalid command by index, and nothing is started.
+     * Otherwise the request returns 202 with each command's flow outcome, in order, straight away. With 'wait' it
+     * returns 200 once every flow has finished, or 202 with the outcomes so far when the wait runs out.
+     * <p>
+     * Like every command endpoint, it honours an Idempotency-Key header: a retry sending the same key is answered with
+     * the outcomes of the flows the first request started, and starts none.
+     * <p>
+     * curl -X POST -H 'Content-Type: application/json' -d '[{"command":"setFares","courierId":"4d38ccbc-5a7a-49ce-bcc9-bfb21d40e5d4","sharedPrice":"10","dedicatedPrice":"15"}]' 'http://localhost:10012/api/couriers/commands'
+     */
+    @POST
+    @Path("commands")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void commands(@Suspended final AsyncResponse asyncResponse,
+                         List<CourierCommand> commands,
+                         @QueryParam("wait") long wait,
+                         @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
+
+        if (commands == null || commands.isEmpty() || commands.size() > MAX_COMMANDS) {
+            asyncResponse.resume(Response.status(BAD_REQUEST)
+                    .entity("Request body must be a JSON array of 1 to " + MAX_COMMANDS + " courier commands.\n").build());
+            return;
+        }
+
+        final Map<Integer, List<String>> invalid = new LinkedHashMap<>();
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i) == null) {
+                invalid.put(i, ImmutableList.of("Command is missing"));
+                continue;
+            }
+            final List<String> errors = new ArrayList<>();
+            commands.get(i).validate(networkCache, errors);
+            if (!errors.isEmpty()) {
+                invalid.put(i, errors);
+            }
+        }
+        if (!invalid.isEmpty()) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity(ImmutableMap.of("errors", invalid)).build());
+            return;
+        }
+
+        idempotencyKeys.run(idempotencyKey, "commands", commands, commands.size(), true, asyncResponse, claim -> {
+            final List<Supplier<FlowHandle<SignedTransaction>>> starters = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                final CourierCommand command = commands.get(i);
+                starters.add(claim.recording(i, () -> command.start(rpcOps)));
+            }
+            flowRegistry.respondAll(starters, wait, asyncResponse);
+        });
+    }
 
+    private Response queryPage(QueryCriteria criteria, int page, int size, String sort, String direction) {
+        if (page < 1) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'page' must be 1 or greater.\n").build();
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'size' must be between 1 and " + MAX_PAGE_SIZE + ".\n").build();
+        }
+
+        final Sort sorting;
         try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(CourierContractAcceptFlow.Acceptor.class, courierId, responder, finalDeliveryType)
-                    .getReturnValue()
-                    .get();
+            sorting = sortBy(sort, Sort.Direction.valueOf(direction.toUpperCase()));
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
 
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(CREATED).entity(msg).build();
+        final Vault.Page<CourierState> results = rpcOps.vaultQueryBy(criteria, new PageSpecification(page, size), sorting, CourierState.class);
 
-        } catch (Throwable ex) {
-            final String msg = ex.getMessage();
-            logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("states", results.getStates());
+        body.put("page", page);
+        body.put("size", size);
+        body.put("totalStatesAvailable", results.getTotalStatesAvailable());
+        body.put("nextPage", (long) page * size < results.getTotalStatesAvailable() ? page + 1 : null);
+        return Response.status(OK).entity(body).build();
+    }
+
+    /**
+     * A courierId is the id of the courier's linearId, so it is resolved through the indexed vault_linear_states table.
+     */
+    private static QueryCriteria linearCriteria(String courierId, Vault.StateStatus stateStatus) {
+        if (courierId == null) {
+            throw new IllegalArgumentException("No courierId given");
+        }
+        return new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(UUID.fromString(courierId)), null, stateStatus);
+    }
+
+    private static QueryCriteria statusCriteria(String status) throws NoSuchFieldException {
+        QueryCriteria generalCriteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        Field statusInVault = CourierSchemaV2.PersistentCourier.class.getDeclaredField("status");
+        CriteriaExpression statusIndex = Builder.equal(statusInVault, CourierStatus.fromLabel(status).getCode());
+        QueryCriteria statusCriteria = new QueryCriteria.VaultCustomQueryCriteria(statusIndex);
+        return generalCriteria.and(statusCriteria);
+    }
+
+    /**
+     * Matches the couriers that were unconsumed at the given node time, whether or not they have been consumed since,
+     * optionally of one status. Unlike the unconsumed set, this set does not change while it is paged through.
+     */
+    private static QueryCriteria snapshotCriteria(Instant at, String status) throws NoSuchFieldException {
+        final QueryCriteria recordedBy = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL, null, null, null, null,
+                new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED,
+                        new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.LESS_THAN_OR_EQUAL, at)));
+        final QueryCriteria consumedAfter = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.CONSUMED, null, null, null, null,
+                new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.CONSUMED,
+                        new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.GREATER_THAN, at)));
+        final QueryCriteria criteria = recordedBy.and(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED).or(consumedAfter));
+        if (status == null) {
+            return criteria;
+        }
+        Field statusInVault = CourierSchemaV2.PersistentCourier.class.getDeclaredField("status");
+        CriteriaExpression statusIndex = Builder.equal(statusInVault, CourierStatus.fromLabel(status).getCode());
+        return criteria.and(new QueryCriteria.VaultCustomQueryCriteria(statusIndex, Vault.StateStatus.ALL, null));
+    }
+
+    /**
+     * ANDs an equality predicate for every non-null filter, keyed by [CourierSchemaV2.PersistentCourier] field name,
+     * into one custom criteria.
+     */
+    private static QueryCriteria searchCriteria(Map<String, Object> filters) throws NoSuchFieldException {
+        QueryCriteria generalCriteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        CriteriaExpression combined = null;
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            if (filter.getValue() == null) {
+                continue;
+            }
+            Field column = CourierSchemaV2.PersistentCourier.class.getDeclaredField(filter.getKey());
+            CriteriaExpression predicate = Builder.equal(column, filter.getValue());
+            combined = combined == null ? predicate : new CriteriaExpression.BinaryLogical(combined, predicate, BinaryLogicalOperator.AND);
+        }
+        return combined == null ? generalCriteria : generalCriteria.and(new QueryCriteria.VaultCustomQueryCriteria(combined));
+    }
+
+    private static Sort sortBy(String sort, Sort.Direction direction) {
+        final SortAttribute attribute;
+        if (SORT_BY_RECORDED_TIME.equals(sort)) {
+            attribute = new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME);
+        } else if (SORT_BY_COURIER_ID.equals(sort)) {
+            attribute = new SortAttribute.Custom(CourierSchemaV2.PersistentCourier.class, "courierId");
+        } else {
+            throw new IllegalArgumentException("Query parameter 'sort' must be " + SORT_BY_RECORDED_TIME + " or " + SORT_BY_COURIER_ID + ".");
         }
+        return new Sort(ImmutableSet.of(new Sort.SortColumn(attribute, direction)));
     }
-}
\ No newline at end of file
+}
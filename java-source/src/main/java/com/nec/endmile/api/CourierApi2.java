@@ -1,17 +1,21 @@
 package com.nec.endmile.api;
 
 import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
 import com.nec.endmile.flow.*;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
 import net.corda.core.transactions.SignedTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Response;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
 
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.OK;
@@ -21,13 +25,17 @@ import static javax.ws.rs.core.Response.Status.OK;
 public class CourierApi2 {
     private final CordaRPCOps rpcOps;
     private final CordaX500Name myLegalName;
+    private final FlowRegistry flowRegistry;
+    private final IdempotencyKeys idempotencyKeys;
 
     private final List<String> serviceNames = ImmutableList.of("Notary");
 
     static private final Logger logger = LoggerFactory.getLogger(com.nec.endmile.api.CourierApi2.class);
 
-    public CourierApi2(CordaRPCOps rpcOps) {
+    public CourierApi2(CordaRPCOps rpcOps, FlowRegistry flowRegistry, IdempotencyKeys idempotencyKeys) {
         this.rpcOps = rpcOps;
+        this.flowRegistry = flowRegistry;
+        this.idempotencyKeys = idempotencyKeys;
         this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
     }
 
@@ -35,112 +43,129 @@ public class CourierApi2 {
      * Requestor sending courierReceiptHash to update it in the CourierState.
      * <p>
      * <p>
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
      * <p>
      * curl -X GET 'http://localhost:10009/api/couriers/requestor/sendCourierReceiptHash?courierId=&courierReceiptHash='
      */
     @GET
     @Path("requestor/sendCourierReceiptHash")
-    public Response sendCourierReceiptHash(@QueryParam("courierId") String courierId,
-                                         @QueryParam("courierReceiptHash") String courierReceiptHash) throws InterruptedException, ExecutionException {
-        try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(CourierDocUploadFlow.Initiator.class, courierId, courierReceiptHash)
-                    .getReturnValue()
-                    .get();
-
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(OK).entity(msg).build();
-
-        } catch (Throwable ex) {
-            final String msg = ex.getMessage();
-            logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
-        }
+    public void sendCourierReceiptHash(@Suspended final AsyncResponse asyncResponse,
+                                       @QueryParam("courierId") String courierId,
+                                       @QueryParam("courierReceiptHash") String courierReceiptHash,
+                                       @QueryParam("wait") long wait,
+                                       @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
+
+        final List<Object> request = Arrays.asList(courierId, courierReceiptHash);
+        idempotencyKeys.run(idempotencyKey, "requestor/sendCourierReceiptHash", request, 1, false, asyncResponse, claim -> {
+            try {
+                final FlowHandle<SignedTransaction> flowHandle = rpcOps.startFlowDynamic(CourierDocUploadFlow.Initiator.class, courierId, courierReceiptHash);
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, OK, asyncResponse);
+
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
     }
 
     /**
      * Responder updating courier status to "picked" or "delivered"
      * <p>
      * <p>
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
      * <p>
      * curl -X GET 'http://localhost:10012/api/courier/responder/updateStatus?courierId=&status='
      */
     @GET
     @Path("responder/updateStatus")
-    public Response updateStatus(@QueryParam("courierId") String courierId,
-                                         @QueryParam("status") String status) throws InterruptedException, ExecutionException {
-
-        try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(CourierFinalFlow.Initiator.class, courierId, status)
-                    .getReturnValue()
-                    .get();
-
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(OK).entity(msg).build();
-
-        } catch (Throwable ex) {
-            final String msg = ex.getMessage();
-            logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
-        }
+    public void updateStatus(@Suspended final AsyncResponse asyncResponse,
+                             @QueryParam("courierId") String courierId,
+                             @QueryParam("status") String status,
+                             @QueryParam("wait") long wait,
+                             @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
+
+        final List<Object> request = Arrays.asList(courierId, status);
+        idempotencyKeys.run(idempotencyKey, "responder/updateStatus", request, 1, false, asyncResponse, claim -> {
+            try {
+                final FlowHandle<SignedTransaction> flowHandle = rpcOps.startFlowDynamic(CourierFinalFlow.Initiator.class, courierId, CourierStatus.fromLabel(status));
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, OK, asyncResponse);
+
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
     }
 
     /**
      * Courier cancellation by Requestor
      * <p>
      * <p>
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
      * <p>
      * curl -X GET 'http://localhost:10009/api/courier/requestor/cancelByRequestor?courierId='
      */
     @GET
     @Path("requestor/cancelByRequestor")
-    public Response cancelByRequestor(@QueryParam("courierId") String courierId) throws InterruptedException, ExecutionException {
-
-        try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(CourierRequestorCancelFlow.Initiator.class, courierId)
-                    .getReturnValue()
-                    .get();
-
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(OK).entity(msg).build();
-
-        } catch (Throwable ex) {
-            final String msg = ex.getMessage();
-            logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
-        }
+    public void cancelByRequestor(@Suspended final AsyncResponse asyncResponse,
+                                  @QueryParam("courierId") String courierId,
+                                  @QueryParam("wait") long wait,
+                                  @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
+
+        final List<Object> request = Arrays.asList(courierId);
+        idempotencyKeys.run(idempotencyKey, "requestor/cancelByRequestor", request, 1, false, asyncResponse, claim -> {
+            try {
+                final FlowHandle<SignedTransaction> flowHandle = rpcOps.startFlowDynamic(CourierRequestorCancelFlow.Initiator.class, courierId);
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, OK, asyncResponse);
+
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
     }
 
     /**
      * Courier cancellation by Responder
      * <p>
      * <p>
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously. The request returns 202 with the flow id straight away, or waits up to 'wait'
+     * milliseconds for the flow's call() method to return. Poll GET /api/couriers/any/flow/{id} for the outcome.
      * <p>
      * curl -X GET 'http://localhost:10012/api/courier/responder/cancelByResponder?courierId='
      */
     @GET
     @Path("responder/cancelByResponder")
-    public Response cancelByResponder(@QueryParam("courierId") String courierId) throws InterruptedException, ExecutionException {
-
-        try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(CourierResponderCancelFlow.Initiator.class, courierId)
-                    .getReturnValue()
-                    .get();
-
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(OK).entity(msg).build();
-
-        } catch (Throwable ex) {
-            final String msg = ex.getMessage();
-            logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
-        }
+    public void cancelByResponder(@Suspended final AsyncResponse asyncResponse,
+                                  @QueryParam("courierId") String courierId,
+                                  @QueryParam("wait") long wait,
+                                  @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) {
+
+        final List<Object> request = Arrays.asList(courierId);
+        idempotencyKeys.run(idempotencyKey, "responder/cancelByResponder", request, 1, false, asyncResponse, claim -> {
+            try {
+                final FlowHandle<SignedTransaction> flowHandle = rpcOps.startFlowDynamic(CourierResponderCancelFlow.Initiator.class, courierId);
+                claim.started(0, flowHandle);
+                flowRegistry.respond(flowHandle, wait, OK, asyncResponse);
+
+            } catch (Throwable ex) {
+                claim.release();
+                final String msg = ex.getMessage();
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(BAD_REQUEST).entity(msg).build());
+            }
+        });
     }
 }
\ No newline at end of file
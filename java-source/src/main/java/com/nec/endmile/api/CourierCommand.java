@@ -0,0 +1,280 @@
+package com.nec.endmile.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.flow.CourierContractAcceptFlow;
+import com.nec.endmile.flow.CourierDocUploadFlow;
+import com.nec.endmile.flow.CourierFinalFlow;
+import com.nec.endmile.flow.CourierRequestFlow;
+import com.nec.endmile.flow.CourierRequestorCancelFlow;
+import com.nec.endmile.flow.CourierRespondFlow;
+import com.nec.endmile.flow.CourierResponderCancelFlow;
+import com.nec.endmile.state.CourierQuote;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * JSON body of one courier command, told apart by its "command" property, e.g.
+ * {"command":"setFares","courierId":"...","sharedPrice":"10.50","dedicatedPrice":"15"}.
+ * <p>
+ * A command is validated in full, parties included, before any flow is started, so a rejected request costs no RPC
+ * call and no flow fiber. Validation keeps what it parses and resolves, which {@link #start} then hands to the flow.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "command")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = CourierCommand.Create.class, name = "create"),
+        @JsonSubTypes.Type(value = CourierCommand.SetFares.class, name = "setFares"),
+        @JsonSubTypes.Type(value = CourierCommand.Accept.class, name = "accept"),
+        @JsonSubTypes.Type(value = CourierCommand.UploadReceipt.class, name = "uploadReceipt"),
+        @JsonSubTypes.Type(value = CourierCommand.UpdateStatus.class, name = "updateStatus"),
+        @JsonSubTypes.Type(value = CourierCommand.CancelByRequestor.class, name = "cancelByRequestor"),
+        @JsonSubTypes.Type(value = CourierCommand.CancelByResponder.class, name = "cancelByResponder")})
+public abstract class CourierCommand {
+
+    /**
+     * Checks the command and resolves its parties, adding a message to errors for each problem found.
+     */
+    abstract void validate(NetworkCache network, List<String> errors);
+
+    /**
+     * Starts the command's flow. Only called once {@link #validate} has found no errors.
+     */
+    abstract FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps);
+
+    /**
+     * Creates a courier request. Leave carriers out to send it to every carrier on the network.
+     */
+    public static class Create extends CourierCommand {
+        @JsonProperty
+        private int courierLength;
+        @JsonProperty
+        private int courierWidth;
+        @JsonProperty
+        private int courierHeight;
+        @JsonProperty
+        private int courierWeight;
+        @JsonProperty
+        private String source;
+        @JsonProperty
+        private String destination;
+        @JsonProperty
+        private List<CordaX500Name> carriers;
+
+        private List<Party> carrierParties;
+
+        @Override
+        void validate(NetworkCache network, List<String> errors) {
+            validateParcel(courierLength, courierWidth, courierHeight, courierWeight, source, destination, errors);
+            carrierParties = carriers == null ? Collections.emptyList() : parties(network, carriers, errors);
+        }
+
+        @Override
+        FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps) {
+            return rpcOps.startFlowDynamic(CourierRequestFlow.Initiator.class, courierLength, courierWidth, courierHeight, courierWeight,
+                    source, destination, carrierParties);
+        }
+    }
+
+    /**
+     * Command on an existing courier, named by its courierId.
+     */
+    abstract static class Transition extends CourierCommand {
+        @JsonProperty
+        String courierId;
+
+        @Override
+        void validate(NetworkCache network, List<String> errors) {
+            try {
+                UUID.fromString(courierId);
+            } catch (NullPointerException | IllegalArgumentException ex) {
+                errors.add("courierId must be a courier's UUID");
+            }
+        }
+    }
+
+    /**
+     * Records this node's quote for a courier on the ledger. Prices are decimal amounts, e.g. "10.50".
+     */
+    public static class SetFares extends Transition {
+        @JsonProperty
+        private String sharedPrice;
+        @JsonProperty
+        private String dedicatedPrice;
+
+        private long shared;
+        private long dedicated;
+
+        @Override
+        void validate(NetworkCache network, List<String> errors) {
+            super.validate(network, errors);
+            shared = price("sharedPrice", sharedPrice, errors);
+            dedicated = price("dedicatedPrice", dedicatedPrice, errors);
+        }
+
+        @Override
+        FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps) {
+            return rpcOps.startFlowDynamic(CourierRespondFlow.Responder.class, courierId, shared, dedicated);
+        }
+    }
+
+    /**
+     * Accepts a responder's quote. Without a responder the cheapest quote for the delivery type is accepted.
+     */
+    public static class Accept extends Transition {
+        @JsonProperty
+        private CordaX500Name responder;
+        @JsonProperty
+        private String finalDeliveryType;
+
+        private Party responderParty;
+        private CourierType deliveryType;
+
+        @Override
+        void validate(NetworkCache network, List<String> errors) {
+            super.validate(network, errors);
+            try {
+                deliveryType = CourierType.fromLabel(finalDeliveryType);
+            } catch (IllegalArgumentException ex) {
+                errors.add(ex.getMessage());
+            }
+            if (responder != null) {
+                responderParty = party(network, responder, errors);
+            }
+        }
+
+        @Override
+        FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps) {
+            if (responderParty == null) {
+                return rpcOps.startFlowDynamic(CourierContractAcceptFlow.Acceptor.class, courierId, deliveryType);
+            }
+            return rpcOps.startFlowDynamic(CourierContractAcceptFlow.Acceptor.class, courierId, responderParty, deliveryType);
+        }
+    }
+
+    /**
+     * Records the hash of the courier's receipt.
+     */
+    public static class UploadReceipt extends Transition {
+        @JsonProperty
+        private String courierReceiptHash;
+
+        @Override
+        void validate(NetworkCache network, List<String> errors) {
+            super.validate(network, errors);
+            if (isBlank(courierReceiptHash)) {
+                errors.add("courierReceiptHash is required");
+            }
+        }
+
+        @Override
+        FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps) {
+            return rpcOps.startFlowDynamic(CourierDocUploadFlow.Initiator.class, courierId, courierReceiptHash);
+        }
+    }
+
+    /**
+     * Moves an accepted courier on to "picked" or "delivered".
+     */
+    public static class UpdateStatus extends Transition {
+        @JsonProperty
+        private String status;
+
+        private CourierStatus courierStatus;
+
+        @Override
+        void validate(NetworkCache network, List<String> errors) {
+            super.validate(network, errors);
+            try {
+                courierStatus = CourierStatus.fromLabel(status);
+            } catch (IllegalArgumentException ex) {
+                errors.add(ex.getMessage());
+                return;
+            }
+            if (courierStatus != CourierStatus.COURIER_PICKED && courierStatus != CourierStatus.COURIER_DELIVERED) {
+                errors.add("status must be " + CourierStatus.COURIER_PICKED.getLabel() + " or " + CourierStatus.COURIER_DELIVERED.getLabel());
+            }
+        }
+
+        @Override
+        FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps) {
+            return rpcOps.startFlowDynamic(CourierFinalFlow.Initiator.class, courierId, courierStatus);
+        }
+    }
+
+    public static class CancelByRequestor extends Transition {
+        @Override
+        FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps) {
+            return rpcOps.startFlowDynamic(CourierRequestorCancelFlow.Initiator.class, courierId);
+        }
+    }
+
+    public static class CancelByResponder extends Transition {
+        @Override
+        FlowHandle<SignedTransaction> start(CordaRPCOps rpcOps) {
+            return rpcOps.startFlowDynamic(CourierResponderCancelFlow.Initiator.class, courierId);
+        }
+    }
+
+    private static long price(String field, String price, List<String> errors) {
+        try {
+            final long parsed = CourierQuote.parsePrice(price);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NullPointerException | ArithmeticException | NumberFormatException ex) {
+            // Reported below with the other invalid prices.
+        }
+        errors.add(field + " must be a positive decimal amount with at most " + CourierQuote.PRICE_SCALE + " decimal places");
+        return 0;
+    }
+
+    private static Party party(NetworkCache network, CordaX500Name name, List<String> errors) {
+        final Party party = network.wellKnownParty(name);
+        if (party == null) {
+            errors.add("Party named " + name + " cannot be found");
+        }
+        return party;
+    }
+
+    private static List<Party> parties(NetworkCache network, List<CordaX500Name> names, List<String> errors) {
+        final List<Party> parties = new ArrayList<>(names.size());
+        for (CordaX500Name name : names) {
+            final Party party = party(network, name, errors);
+            if (party != null) {
+                parties.add(party);
+            }
+        }
+        return parties;
+    }
+
+    /**
+     * Checks the dimensions and route of a parcel to be requested, adding a message to errors for each problem found.
+     */
+    static void validateParcel(int courierLength, int courierWidth, int courierHeight, int courierWeight, String source,
+                               String destination, List<String> errors) {
+        if (courierLength <= 0 || courierWidth <= 0 || courierHeight <= 0) {
+            errors.add("courierLength, courierWidth and courierHeight must be positive");
+        }
+        if (courierWeight <= 0) {
+            errors.add("courierWeight must be positive");
+        }
+        if (isBlank(source) || isBlank(destination)) {
+            errors.add("source and destination are required");
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
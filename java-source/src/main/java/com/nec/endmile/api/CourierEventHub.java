@@ -0,0 +1,188 @@
+package com.nec.endmile.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.Subscription;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Fans courier state changes out to server-sent event streams.
+ * <p>
+ * The hub holds a single vaultTrack subscription on the node, opened when the first client connects, however many
+ * clients are streaming. Each change is serialised once and queued for every client whose filter it matches. Each
+ * client has a bounded queue, drained by a small shared writer pool. A client that falls a whole queue behind is
+ * disconnected rather than slowing the feed or growing the heap; it can reconnect and catch up with a query.
+ */
+public class CourierEventHub {
+    static final String EVENT_STREAM = "text/event-stream";
+
+    static private final Logger logger = LoggerFactory.getLogger(CourierEventHub.class);
+
+    static final int QUEUE_CAPACITY = 256;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final String HEARTBEAT = ":\n\n";
+
+    private final Supplier<Observable<Vault.Update<CourierState>>> updates;
+    private final ObjectMapper jsonMapper;
+    private final Set<Client> clients = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ScheduledExecutorService writers = Executors.newScheduledThreadPool(2, runnable -> {
+        final Thread thread = new Thread(runnable, "courier-event-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Subscription feed;
+
+    public CourierEventHub(CordaRPCOps rpcOps, ObjectMapper jsonMapper) {
+        // Only updates are streamed, so the snapshot that comes with the feed is kept to a single state.
+        this(() -> rpcOps.vaultTrackBy(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                new PageSpecification(1, 1), new Sort(Collections.emptySet()), CourierState.class).getUpdates(), jsonMapper);
+    }
+
+    CourierEventHub(Supplier<Observable<Vault.Update<CourierState>>> updates, ObjectMapper jsonMapper) {
+        this.updates = updates;
+        this.jsonMapper = jsonMapper;
+        // Heartbeats keep proxies from timing the stream out and find clients that have gone away.
+        writers.scheduleWithFixedDelay(() -> clients.forEach(client -> client.offer(HEARTBEAT)),
+                HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens a stream of the courier states produced from now on that match the filter.
+     */
+    public ChunkedOutput<String> subscribe(Predicate<CourierState> filter) {
+        return subscribe(filter, new ChunkedOutput<>(String.class));
+    }
+
+    ChunkedOutput<String> subscribe(Predicate<CourierState> filter, ChunkedOutput<String> output) {
+        final Client client = new Client(output, filter);
+        clients.add(client);
+        try {
+            ensureFeed();
+        } catch (RuntimeException e) {
+            client.close();
+            throw e;
+        }
+        return client.output;
+    }
+
+    private synchronized void ensureFeed() {
+        if (feed != null) {
+            return;
+        }
+        feed = updates.get().subscribe(this::onUpdate, this::onFeedError);
+    }
+
+    private synchronized void onFeedError(Throwable error) {
+        logger.warn("Courier vault feed failed, closing event streams", error);
+        feed = null;
+        clients.forEach(Client::close);
+    }
+
+    private void onUpdate(Vault.Update<CourierState> update) {
+        for (StateAndRef<CourierState> produced : update.getProduced()) {
+            final CourierState courier = produced.getState().getData();
+            String event = null;
+            for (Client client : clients) {
+                if (client.filter.test(courier)) {
+                    if (event == null) {
+                        event = toEvent(produced);
+                        if (event == null) {
+                            break;
+                        }
+                    }
+                    client.offer(event);
+                }
+            }
+        }
+    }
+
+    private String toEvent(StateAndRef<CourierState> produced) {
+        try {
+            return "id: " + produced.getRef() + "\nevent: courier\ndata: " + jsonMapper.writeValueAsString(produced) + "\n\n";
+        } catch (JsonProcessingException e) {
+            logger.error("Unable to serialise courier " + produced.getState().getData().getCourierId(), e);
+            return null;
+        }
+    }
+
+    private final class Client {
+        private final ChunkedOutput<String> output;
+        private final Predicate<CourierState> filter;
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Client(ChunkedOutput<String> output, Predicate<CourierState> filter) {
+            this.output = output;
+            this.filter = filter;
+        }
+
+        private void offer(String event) {
+            if (output.isClosed()) {
+                close();
+                return;
+            }
+            if (!queue.offer(event)) {
+                logger.warn("Courier event stream client fell " + QUEUE_CAPACITY + " events behind, disconnecting");
+                close();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                writers.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                String event;
+                while ((event = queue.poll()) != null) {
+                    output.write(event);
+                }
+            } catch (IOException e) {
+                close();
+            } finally {
+                draining.set(false);
+            }
+            // An event queued after the last poll but before the flag was cleared would otherwise wait.
+            if (!queue.isEmpty() && !output.isClosed()) {
+                scheduleDrain();
+            }
+        }
+
+        private void close() {
+            clients.remove(this);
+            queue.clear();
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.debug("Courier event stream already closed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.nec.endmile.api;
+
+import com.google.common.collect.ImmutableSet;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * In-memory projection of the node's unconsumed couriers, held as {@link CourierSummary} rows keyed by courierId and
+ * indexed by status.
+ * <p>
+ * The model subscribes to vault updates before loading the existing couriers, so nothing recorded during the load is
+ * missed, and applies each update as it arrives. A courier already updated by the feed is skipped by the load, as
+ * the loaded row could be older. Reads never touch the vault, so list queries cost neither a Hibernate query nor
+ * state deserialisation. Counts per status, requestor and accepted responder are kept alongside the rows, so
+ * {@link #stats} costs the same however many couriers there are. The model is empty until {@link #isReady} returns
+ * true.
+ * <p>
+ * A load that fails is retried. If the feed fails, the model stops being ready and is emptied, as it can no longer
+ * follow the vault, and is rebuilt from a new subscription and a fresh load.
+ */
+public class CourierReadModel {
+    static private final Logger logger = LoggerFactory.getLogger(CourierReadModel.class);
+
+    private static final int LOAD_PAGE_SIZE = 1000;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(5);
+
+    /**
+     * Passes every unconsumed courier in the vault to the consumer.
+     */
+    interface Loader {
+        void load(Consumer<CourierState> unconsumed);
+    }
+
+    private final Supplier<Observable<Vault.Update<CourierState>>> updates;
+    private final Loader loader;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "courier-read-model");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentSkipListMap<String, CourierSummary> couriers = new ConcurrentSkipListMap<>();
+    private final Map<CourierStatus, NavigableSet<String>> byStatus = new EnumMap<>(CourierStatus.class);
+    private final Map<CourierStatus, AtomicInteger> statusCounts = new EnumMap<>(CourierStatus.class);
+    private final ConcurrentMap<String, Integer> requestorCounts = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Integer> responderCounts = new ConcurrentSkipListMap<>();
+    private final Set<String> updatedDuringLoad = new HashSet<>();
+    private volatile boolean ready;
+    // Counts feed failures, so a load begun before the last one cannot fill the emptied model or mark it ready.
+    private int generation;
+
+    public CourierReadModel(CordaRPCOps rpcOps) {
+        // Only updates are applied from the feed, so its snapshot is kept to a single state.
+        this(() -> rpcOps.vaultTrackBy(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                new PageSpecification(1, 1), new Sort(Collections.emptySet()), CourierState.class).getUpdates(),
+                unconsumed -> loadUnconsumed(rpcOps, unconsumed), RETRY_DELAY);
+    }
+
+    CourierReadModel(Supplier<Observable<Vault.Update<CourierState>>> updates, Loader loader, Duration retryDelay) {
+        this.updates = updates;
+        this.loader = loader;
+        this.retryDelayMillis = retryDelay.toMillis();
+        for (CourierStatus status : CourierStatus.values()) {
+            byStatus.put(status, new ConcurrentSkipListSet<>());
+            statusCounts.put(status, new AtomicInteger());
+        }
+        worker.execute(this::subscribeAndLoad);
+    }
+
+    /**
+     * Whether the existing couriers have been loaded.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * The couriers matching the filter, in courierId order, narrowed to a single status first when one is given.
+     */
+    public List<CourierSummary> select(CourierStatus status, Predicate<CourierSummary> filter) {
+        final List<CourierSummary> selected = new ArrayList<>();
+        if (status == null) {
+            for (CourierSummary courier : couriers.values()) {
+                if (filter.test(courier)) {
+                    selected.add(courier);
+                }
+            }
+        } else {
+            for (String courierId : byStatus.get(status)) {
+                final CourierSummary courier = couriers.get(courierId);
+                // The courier may have moved on between reading the index and the row.
+                if (courier != null && courier.getStatus() == status && filter.test(courier)) {
+                    selected.add(courier);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Courier counts per status, requestor and accepted responder. Each map is read as it stands, so a courier that
+     * changes during the call may be counted under its old status in one map and its new one in another.
+     */
+    public CourierStats stats() {
+        final Map<String, Integer> byStatus = new LinkedHashMap<>();
+        for (Map.Entry<CourierStatus, AtomicInteger> entry : statusCounts.entrySet()) {
+            byStatus.put(entry.getKey().getLabel(), entry.getValue().get());
+        }
+        return new CourierStats(couriers.size(), byStatus, new TreeMap<>(requestorCounts), new TreeMap<>(responderCounts));
+    }
+
+    private void subscribeAndLoad() {
+        final int subscribed;
+        synchronized (this) {
+            subscribed = generation;
+        }
+        try {
+            updates.get().subscribe(this::onUpdate, this::onFeedError);
+        } catch (RuntimeException e) {
+            logger.error("Unable to subscribe to the courier vault feed, retrying", e);
+            worker.schedule(this::subscribeAndLoad, retryDelayMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        load(subscribed);
+    }
+
+    private void load(int loading) {
+        try {
+            loader.load(courier -> loaded(loading, CourierSummary.of(courier)));
+        } catch (RuntimeException e) {
+            logger.error("Unable to load the courier read model, retrying", e);
+            worker.schedule(() -> load(loading), retryDelayMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        synchronized (this) {
+            if (loading != generation) {
+                return;
+            }
+            updatedDuringLoad.clear();
+            ready = true;
+        }
+        logger.info("Courier read model loaded " + couriers.size() + " couriers");
+    }
+
+    /**
+     * Pages through every courier state, consumed ones included, in the order they were recorded. Consumed states
+     * are counted but not applied, so states consumed while the load runs cannot shift a later page past a courier.
+     */
+    private static void loadUnconsumed(CordaRPCOps rpcOps, Consumer<CourierState> unconsumed) {
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
+        final Sort sort = new Sort(ImmutableSet.of(new Sort.SortColumn(
+                new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC)));
+        int page = 1;
+        long seen = 0;
+        Vault.Page<CourierState> results;
+        do {
+            results = rpcOps.vaultQueryBy(criteria, new PageSpecification(page++, LOAD_PAGE_SIZE), sort, CourierState.class);
+            final List<StateAndRef<CourierState>> states = results.getStates();
+            final List<Vault.StateMetadata> metadata = results.getStatesMetadata();
+            for (int i = 0; i < states.size(); i++) {
+                if (metadata.get(i).getStatus() == Vault.StateStatus.UNCONSUMED) {
+                    unconsumed.accept(states.get(i).getState().getData());
+                }
+            }
+            seen += states.size();
+        } while (seen < results.getTotalStatesAvailable() && !results.getStates().isEmpty());
+    }
+
+    private synchronized void loaded(int loading, CourierSummary courier) {
+        if (loading == generation && !updatedDuringLoad.contains(courier.getCourierId())) {
+            put(courier);
+        }
+    }
+
+    private synchronized void onFeedError(Throwable error) {
+        logger.error("Courier vault feed failed, rebuilding the read model", error);
+        ready = false;
+        generation++;
+        couriers.clear();
+        byStatus.values().forEach(Set::clear);
+        statusCounts.values().forEach(count -> count.set(0));
+        requestorCounts.clear();
+        responderCounts.clear();
+        updatedDuringLoad.clear();
+        worker.schedule(this::subscribeAndLoad, retryDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onUpdate(Vault.Update<CourierState> update) {
+        final Set<String> produced = new HashSet<>();
+        for (StateAndRef<CourierState> state : update.getProduced()) {
+            final CourierSummary courier = CourierSummary.of(state.getState().getData());
+            produced.add(courier.getCourierId());
+            put(courier);
+        }
+        for (StateAndRef<CourierState> state : update.getConsumed()) {
+            final String courierId = state.getState().getData().getCourierId();
+            if (!produced.contains(courierId)) {
+                remove(courierId);
+            }
+        }
+        if (!ready) {
+            updatedDuringLoad.addAll(produced);
+            for (StateAndRef<CourierState> state : update.getConsumed()) {
+                updatedDuringLoad.add(state.getState().getData().getCourierId());
+            }
+        }
+    }
+
+    private void put(CourierSummary courier) {
+        final CourierSummary previous = couriers.put(courier.getCourierId(), courier);
+        if (previous != null) {
+            if (previous.getStatus() != courier.getStatus()) {
+                byStatus.get(previous.getStatus()).remove(courier.getCourierId());
+            }
+            count(previous, -1);
+        }
+        byStatus.get(courier.getStatus()).add(courier.getCourierId());
+        count(courier, 1);
+    }
+
+    private void remove(String courierId) {
+        final CourierSummary previous = couriers.remove(courierId);
+        if (previous != null) {
+            byStatus.get(previous.getStatus()).remove(courierId);
+            count(previous, -1);
+        }
+    }
+
+    private void count(CourierSummary courier, int delta) {
+        statusCounts.get(courier.getStatus()).addAndGet(delta);
+        adjust(requestorCounts, courier.getRequestor(), delta);
+        if (courier.getAcceptedResponder() != null) {
+            adjust(responderCounts, courier.getAcceptedResponder(), delta);
+        }
+    }
+
+    private static void adjust(ConcurrentMap<String, Integer> counts, String key, int delta) {
+        // Merging to null drops parties with no couriers left.
+        counts.merge(key, delta, (current, change) -> current + change == 0 ? null : current + change);
+    }
+}
@@ -0,0 +1,70 @@
+package com.nec.endmile.api;
+
+import java.util.List;
+
+/**
+ * JSON body describing one parcel of a courier request.
+ */
+public class CourierRequestBody {
+    private int courierLength;
+    private int courierWidth;
+    private int courierHeight;
+    private int courierWeight;
+    private String source;
+    private String destination;
+
+    public int getCourierLength() {
+        return courierLength;
+    }
+
+    public void setCourierLength(int courierLength) {
+        this.courierLength = courierLength;
+    }
+
+    public int getCourierWidth() {
+        return courierWidth;
+    }
+
+    public void setCourierWidth(int courierWidth) {
+        this.courierWidth = courierWidth;
+    }
+
+    public int getCourierHeight() {
+        return courierHeight;
+    }
+
+    public void setCourierHeight(int courierHeight) {
+        this.courierHeight = courierHeight;
+    }
+
+    public int getCourierWeight() {
+        return courierWeight;
+    }
+
+    public void setCourierWeight(int courierWeight) {
+        this.courierWeight = courierWeight;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * Checks the parcel as a create command is checked, adding a message to errors for each problem found.
+     */
+    void validate(List<String> errors) {
+        CourierCommand.validateParcel(courierLength, courierWidth, courierHeight, courierWeight, source, destination, errors);
+    }
+}
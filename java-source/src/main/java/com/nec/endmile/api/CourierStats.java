@@ -0,0 +1,37 @@
+package com.nec.endmile.api;
+
+import java.util.Map;
+
+/**
+ * Courier counts taken from the {@link CourierReadModel}. Statuses are keyed by label, in lifecycle order, and parties
+ * by X500 name. Responders are counted by the couriers they have been accepted for.
+ */
+public class CourierStats {
+    private final int total;
+    private final Map<String, Integer> byStatus;
+    private final Map<String, Integer> byRequestor;
+    private final Map<String, Integer> byResponder;
+
+    CourierStats(int total, Map<String, Integer> byStatus, Map<String, Integer> byRequestor, Map<String, Integer> byResponder) {
+        this.total = total;
+        this.byStatus = byStatus;
+        this.byRequestor = byRequestor;
+        this.byResponder = byResponder;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public Map<String, Integer> getByStatus() {
+        return byStatus;
+    }
+
+    public Map<String, Integer> getByRequestor() {
+        return byRequestor;
+    }
+
+    public Map<String, Integer> getByResponder() {
+        return byResponder;
+    }
+}
@@ -0,0 +1,105 @@
+package com.nec.endmile.api;
+
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierState;
+
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Compact, immutable view of a courier for list endpoints. Parties are held as X500 names and prices as decimal
+ * strings, so serving one needs neither the state nor its parties' certificates.
+ */
+public class CourierSummary {
+    private final String courierId;
+    private final CourierStatus status;
+    private final String requestor;
+    private final String acceptedResponder;
+    private final String source;
+    private final String destination;
+    private final CourierType finalDeliveryType;
+    private final String finalQuotedPrice;
+    private final int quoteCount;
+    private final List<String> quotedBy;
+    private final String bestSharedPrice;
+    private final String bestDedicatedPrice;
+
+    private CourierSummary(CourierState courier) {
+        this.courierId = courier.getCourierId();
+        this.status = courier.getStatus();
+        this.requestor = courier.getRequestor().getName().toString();
+        this.acceptedResponder = courier.getAcceptedResponder() == null ? null : courier.getAcceptedResponder().getName().toString();
+        this.source = courier.getSource();
+        this.destination = courier.getDestination();
+        this.finalDeliveryType = courier.getFinalDeliveryType();
+        this.finalQuotedPrice = courier.getFinalQuotedPrice() == null ? null : CourierQuote.formatPrice(courier.getFinalQuotedPrice());
+        this.quoteCount = courier.getResponses().size();
+        this.quotedBy = courier.getResponses().getQuotes().stream().map(quote -> quote.getResponder().getName().toString()).collect(toList());
+        final CourierQuote bestShared = courier.getResponses().bestQuote(CourierType.SHARED);
+        final CourierQuote bestDedicated = courier.getResponses().bestQuote(CourierType.DEDICATED);
+        this.bestSharedPrice = bestShared == null ? null : CourierQuote.formatPrice(bestShared.getSharedPrice());
+        this.bestDedicatedPrice = bestDedicated == null ? null : CourierQuote.formatPrice(bestDedicated.getDedicatedPrice());
+    }
+
+    static CourierSummary of(CourierState courier) {
+        return new CourierSummary(courier);
+    }
+
+    public String getCourierId() {
+        return courierId;
+    }
+
+    public CourierStatus getStatus() {
+        return status;
+    }
+
+    public String getRequestor() {
+        return requestor;
+    }
+
+    public String getAcceptedResponder() {
+        return acceptedResponder;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public CourierType getFinalDeliveryType() {
+        return finalDeliveryType;
+    }
+
+    public String getFinalQuotedPrice() {
+        return finalQuotedPrice;
+    }
+
+    public int getQuoteCount() {
+        return quoteCount;
+    }
+
+    public List<String> getQuotedBy() {
+        return quotedBy;
+    }
+
+    /**
+     * Whether the party has quoted on the courier or been accepted for it.
+     */
+    boolean involvesResponder(String responder) {
+        return responder.equals(acceptedResponder) || quotedBy.contains(responder);
+    }
+
+    public String getBestSharedPrice() {
+        return bestSharedPrice;
+    }
+
+    public String getBestDedicatedPrice() {
+        return bestDedicatedPrice;
+    }
+}
@@ -0,0 +1,270 @@
+package com.nec.endmile.api;
+
+import com.nec.endmile.service.CourierLockedException;
+import net.corda.core.CordaThrowable;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * Webserver-side registry of courier flows started through the REST API.
+ * <p>
+ * Endpoints hand the started {@link FlowHandle} to the registry and return straight away with the flow id, so no Jetty
+ * worker thread is pinned for the notarisation latency. Callers either poll GET /api/couriers/any/flow/{id} or ask
+ * the endpoint to wait for up to 'wait' milliseconds before falling back to 202.
+ */
+public class FlowRegistry {
+    static private final Logger logger = LoggerFactory.getLogger(FlowRegistry.class);
+
+    static final long MAX_WAIT_MILLIS = 60_000;
+    private static final int MAX_COMPLETED_FLOWS = 10_000;
+
+    /**
+     * CONFLICT is a failure caused by another flow updating the same courier, which the caller may retry.
+     */
+    public enum FlowStatus {RUNNING, COMPLETED, FAILED, CONFLICT}
+
+    /**
+     * JSON view of a flow started through the API.
+     */
+    public static class FlowOutcome {
+        private final String flowId;
+        private final FlowStatus status;
+        private final String transactionId;
+        private final String error;
+
+        FlowOutcome(String flowId, FlowStatus status, String transactionId, String error) {
+            this.flowId = flowId;
+            this.status = status;
+            this.transactionId = transactionId;
+            this.error = error;
+        }
+
+        public String getFlowId() {
+            return flowId;
+        }
+
+        public FlowStatus getStatus() {
+            return status;
+        }
+
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final ConcurrentMap<String, FlowOutcome> flows = new ConcurrentHashMap<>();
+    private final Queue<String> completed = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the whole queue, so its length is counted alongside it.
+    private final AtomicInteger completedCount = new AtomicInteger();
+
+    /**
+     * Tracks the flow and returns a future completing with its final outcome once the flow has finished.
+     */
+    public CordaFuture<FlowOutcome> register(FlowHandle<SignedTransaction> handle) {
+        final String flowId = handle.getId().getUuid().toString();
+        flows.put(flowId, new FlowOutcome(flowId, FlowStatus.RUNNING, null, null));
+
+        return handle.getReturnValue().then(future -> {
+            final FlowOutcome outcome = outcomeOf(flowId, future);
+            flows.put(flowId, outcome);
+            completed.add(flowId);
+            completedCount.incrementAndGet();
+            evictCompleted();
+            return outcome;
+        });
+    }
+
+    /**
+     * Returns the last known outcome of the flow, or null if the flow is unknown or has been evicted.
+     */
+    public FlowOutcome get(String flowId) {
+        return flows.get(flowId);
+    }
+
+    /**
+     * Registers the flow and resumes the request with 202 and the flow id, or, if waitMillis is positive, with the
+     * final outcome as soon as the flow completes within that time.
+     */
+    public void respond(FlowHandle<SignedTransaction> handle, long waitMillis, Response.Status successStatus, AsyncResponse asyncResponse) {
+        final String flowId = handle.getId().getUuid().toString();
+        final CordaFuture<FlowOutcome> outcome = register(handle);
+
+        if (waitMillis <= 0) {
+            asyncResponse.resume(Response.status(ACCEPTED).entity(get(flowId)).build());
+            return;
+        }
+
+        asyncResponse.setTimeoutHandler(timedOut -> timedOut.resume(Response.status(ACCEPTED).entity(get(flowId)).build()));
+        asyncResponse.setTimeout(Math.min(waitMillis, MAX_WAIT_MILLIS), TimeUnit.MILLISECONDS);
+        outcome.then(future -> asyncResponse.resume(toResponse(outcomeOf(future), successStatus)));
+    }
+
+    /**
+     * Starts the flows of a request carrying several commands, in order, and resumes it with 202 and every flow's
+     * outcome, or, if waitMillis is positive, with 200 as soon as all of them complete within that time. A flow that
+     * cannot be started is reported as failed without affecting the others.
+     */
+    public void respondAll(List<Supplier<FlowHandle<SignedTransaction>>> starters, long waitMillis, AsyncResponse asyncResponse) {
+        final AtomicReferenceArray<FlowOutcome> outcomes = new AtomicReferenceArray<>(starters.size());
+        final AtomicInteger running = new AtomicInteger(starters.size());
+        final Runnable finished = () -> {
+            if (running.decrementAndGet() == 0 && waitMillis > 0) {
+                asyncResponse.resume(Response.status(OK).entity(snapshot(outcomes)).build());
+            }
+        };
+        if (waitMillis > 0) {
+            asyncResponse.setTimeoutHandler(timedOut -> timedOut.resume(Response.status(ACCEPTED).entity(snapshot(outcomes)).build()));
+            asyncResponse.setTimeout(Math.min(waitMillis, MAX_WAIT_MILLIS), TimeUnit.MILLISECONDS);
+        }
+
+        for (int i = 0; i < starters.size(); i++) {
+            final int index = i;
+            final FlowHandle<SignedTransaction> handle;
+            try {
+                handle = starters.get(i).get();
+            } catch (RuntimeException ex) {
+                logger.error(ex.getMessage(), ex);
+                outcomes.set(index, new FlowOutcome(null, FlowStatus.FAILED, null, ex.getMessage()));
+                finished.run();
+                continue;
+            }
+            outcomes.set(index, new FlowOutcome(handle.getId().getUuid().toString(), FlowStatus.RUNNING, null, null));
+            register(handle).then(future -> {
+                outcomes.set(index, outcomeOf(future));
+                finished.run();
+                return null;
+            });
+        }
+
+        if (waitMillis <= 0) {
+            asyncResponse.resume(Response.status(ACCEPTED).entity(snapshot(outcomes)).build());
+        }
+    }
+
+    /**
+     * Resumes the request with the return value of a query flow once it completes, or with failureStatus and the
+     * flow's error, so the request thread is not held while the flow runs. A flow still running after
+     * MAX_WAIT_MILLIS is answered with 503.
+     */
+    public static <T> void respondWithResult(FlowHandle<T> handle, Response.Status successStatus, Response.Status failureStatus,
+                                             AsyncResponse asyncResponse) {
+        asyncResponse.setTimeoutHandler(timedOut -> timedOut.resume(Response.status(SERVICE_UNAVAILABLE)
+                .entity("Flow " + handle.getId().getUuid() + " did not complete in time.\n").build()));
+        asyncResponse.setTimeout(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        handle.getReturnValue().then(future -> {
+            try {
+                return asyncResponse.resume(Response.status(successStatus).entity(future.get()).build());
+            } catch (ExecutionException ex) {
+                final Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                logger.error(cause.getMessage(), cause);
+                return asyncResponse.resume(Response.status(failureStatus).entity(cause.getMessage() + "\n").build());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return asyncResponse.resume(Response.status(INTERNAL_SERVER_ERROR).entity(ex.getMessage() + "\n").build());
+            }
+        });
+    }
+
+    private static List<FlowOutcome> snapshot(AtomicReferenceArray<FlowOutcome> outcomes) {
+        final List<FlowOutcome> snapshot = new ArrayList<>(outcomes.length());
+        for (int i = 0; i < outcomes.length(); i++) {
+            snapshot.add(outcomes.get(i));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Maps a finished flow to the HTTP response an endpoint would have returned had it waited for it.
+     */
+    static Response toResponse(FlowOutcome outcome, Response.Status successStatus) {
+        if (outcome.getStatus() == FlowStatus.CONFLICT) {
+            return Response.status(CONFLICT).entity(outcome).build();
+        }
+        if (outcome.getStatus() == FlowStatus.FAILED) {
+            return Response.status(BAD_REQUEST).entity(outcome).build();
+        }
+        return Response.status(successStatus).entity(outcome).build();
+    }
+
+    private static FlowOutcome outcomeOf(CordaFuture<FlowOutcome> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Flow outcome requested before completion", e);
+        }
+    }
+
+    static FlowOutcome outcomeOf(String flowId, CordaFuture<? extends SignedTransaction> future) {
+        try {
+            return new FlowOutcome(flowId, FlowStatus.COMPLETED, future.get().getId().toString(), null);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            if (isConflict(cause)) {
+                logger.warn(cause.getMessage());
+                return new FlowOutcome(flowId, FlowStatus.CONFLICT, null, cause.getMessage());
+            }
+            logger.error(cause.getMessage(), cause);
+            return new FlowOutcome(flowId, FlowStatus.FAILED, null, cause.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new FlowOutcome(flowId, FlowStatus.FAILED, null, ex.getMessage());
+        }
+    }
+
+    /**
+     * Whether the flow lost a race for a courier, either to a flow holding its soft lock or at the notary. The
+     * exception may arrive as its own class or, if RPC could not rebuild it, under its original class name.
+     */
+    static boolean isConflict(Throwable cause) {
+        if (cause instanceof CourierLockedException
+                || (cause instanceof NotaryException && ((NotaryException) cause).getError() instanceof NotaryError.Conflict)) {
+            return true;
+        }
+        if (cause instanceof CordaThrowable) {
+            final String className = ((CordaThrowable) cause).getOriginalExceptionClassName();
+            return CourierLockedException.class.getName().equals(className);
+        }
+        return false;
+    }
+
+    private void evictCompleted() {
+        while (completedCount.get() > MAX_COMPLETED_FLOWS) {
+            final String evicted = completed.poll();
+            if (evicted == null) {
+                return;
+            }
+            completedCount.decrementAndGet();
+            flows.remove(evicted);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.nec.endmile.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nec.endmile.flow.CourierIdempotencyFlow;
+import com.nec.endmile.service.CourierIdempotencyRecord;
+import com.nec.endmile.service.CourierIdempotencyStore;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * Answers command requests that repeat an Idempotency-Key with the outcome of the flows the first request started,
+ * rather than starting them again.
+ * <p>
+ * A key is scoped by the endpoint it is sent to, and remembers a hash of the request it was first sent with. Sending
+ * it again with a different request is answered with 422, and a retry that arrives while the first request's flows
+ * are still running gets 409.
+ * <p>
+ * Recent keys are held in a bounded cache on the webserver, which answers a retry without calling the node. A new key
+ * is claimed on the node's courier_idempotency_keys table, which also returns the outcome of a key the cache has lost,
+ * e.g. to a restart, and each command's outcome is written once its flow ends: one flow per request, plus one per
+ * command. The claim is not waited for on the request thread; the request's flows are started once it returns. A
+ * claim that fails is answered with 503 and starts nothing, as the key may already be held by an earlier request.
+ */
+public class IdempotencyKeys {
+    public static final String HEADER = "Idempotency-Key";
+
+    static final int UNPROCESSABLE_ENTITY = 422;
+
+    static private final Logger logger = LoggerFactory.getLogger(IdempotencyKeys.class);
+
+    private static final int MAX_CACHED_KEYS = 10_000;
+    private static final long TTL_MILLIS = CourierIdempotencyStore.TTL.toMillis();
+    // A command the node holds no outcome for this long after its key was claimed was lost with the webserver running it.
+    private static final long LOST_MILLIS = Duration.ofMinutes(10).toMillis();
+
+    private final Node node;
+    private final ObjectMapper jsonMapper = JacksonSupport.createNonRpcMapper();
+    private final ExecutorService claimed = Executors.newFixedThreadPool(4, runnable -> {
+        final Thread thread = new Thread(runnable, "idempotency-key-claims");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_CACHED_KEYS;
+        }
+    };
+
+    /**
+     * The node's key table, reached through the flows of {@link CourierIdempotencyFlow}.
+     */
+    interface Node {
+        CompletableFuture<List<CourierIdempotencyRecord>> claim(String endpoint, String key, String requestHash, int commands,
+                                                                boolean multiple);
+
+        CompletableFuture<Void> complete(String endpoint, String key, int commandIndex, FlowRegistry.FlowOutcome outcome);
+
+        CompletableFuture<Void> release(String endpoint, String key);
+    }
+
+    /**
+     * The request a key was sent with, and the outcome of each of its commands. An outcome is null while its flow is
+     * being started.
+     */
+    private static final class Entry {
+        private final String requestHash;
+        private final boolean multiple;
+        private final FlowRegistry.FlowOutcome[] outcomes;
+        private final long createdAt;
+
+        private Entry(String requestHash, boolean multiple, int commands, long createdAt) {
+            this.requestHash = requestHash;
+            this.multiple = multiple;
+            this.outcomes = new FlowRegistry.FlowOutcome[commands];
+            this.createdAt = createdAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - createdAt > TTL_MILLIS;
+        }
+    }
+
+    public IdempotencyKeys(CordaRPCOps rpcOps) {
+        this(new RpcNode(rpcOps));
+    }
+
+    IdempotencyKeys(Node node) {
+        this.node = node;
+    }
+
+    /**
+     * Starts the request's flows with start, or, if an earlier request sent the same key to the endpoint, resumes the
+     * request with that request's outcome and starts nothing. request holds what the endpoint was sent, and is hashed
+     * to tell a retry from a different request reusing the key. A request without a key is started straight away.
+     */
+    public void run(String key, String endpoint, Object request, int commands, boolean multiple, AsyncResponse asyncResponse,
+                    Consumer<Claim> start) {
+        if (key == null) {
+            start.accept(new Claim(null, null, null, null));
+            return;
+        }
+        if (key.isEmpty() || key.length() > CourierIdempotencyStore.MAX_KEY_LENGTH) {
+            asyncResponse.resume(Response.status(BAD_REQUEST)
+                    .entity("Header '" + HEADER + "' must be 1 to " + CourierIdempotencyStore.MAX_KEY_LENGTH + " characters.\n").build());
+            return;
+        }
+        final String requestHash;
+        try {
+            requestHash = SecureHash.sha256(jsonMapper.writeValueAsBytes(request)).toString();
+        } catch (JsonProcessingException ex) {
+            asyncResponse.resume(Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build());
+            return;
+        }
+
+        // Header values cannot hold a line break, so it cannot join two keys into the same cache entry.
+        final String cacheKey = endpoint + "\n" + key;
+        final Entry entry = new Entry(requestHash, multiple, commands, System.currentTimeMillis());
+        final Entry earlier;
+        synchronized (cache) {
+            final Entry cached = cache.get(cacheKey);
+            earlier = cached == null || cached.isExpired(entry.createdAt) ? null : cached;
+            if (earlier == null) {
+                cache.put(cacheKey, entry);
+            }
+        }
+        if (earlier != null) {
+            resume(earlier, requestHash, asyncResponse);
+            return;
+        }
+
+        final Claim claim = new Claim(cacheKey, endpoint, key, entry);
+        final CompletableFuture<List<CourierIdempotencyRecord>> stored;
+        try {
+            stored = node.claim(endpoint, key, requestHash, commands, multiple);
+        } catch (RuntimeException ex) {
+            unavailable(cacheKey, entry, key, ex, asyncResponse);
+            return;
+        }
+        asyncResponse.setTimeoutHandler(timedOut -> timedOut.resume(Response.status(SERVICE_UNAVAILABLE)
+                .entity("Header '" + HEADER + "' could not be claimed in time.\n").build()));
+        asyncResponse.setTimeout(FlowRegistry.MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        // Off the RPC client's thread, as starting the request's flows makes further RPC calls.
+        stored.whenCompleteAsync((records, error) -> {
+            try {
+                if (error != null) {
+                    unavailable(cacheKey, entry, key, error, asyncResponse);
+                } else if (records.isEmpty()) {
+                    start.accept(claim);
+                } else {
+                    replay(cacheKey, records, requestHash, asyncResponse);
+                }
+            } catch (RuntimeException ex) {
+                logger.error(ex.getMessage(), ex);
+                asyncResponse.resume(Response.status(INTERNAL_SERVER_ERROR).entity(ex.getMessage() + "\n").build());
+            }
+        }, claimed);
+    }
+
+    /**
+     * A key claimed for a request, which records what the request's commands start.
+     */
+    public final class Claim {
+        private final String cacheKey;
+        private final String endpoint;
+        private final String key;
+        private final Entry entry;
+
+        private Claim(String cacheKey, String endpoint, String key, Entry entry) {
+            this.cacheKey = cacheKey;
+            this.endpoint = endpoint;
+            this.key = key;
+            this.entry = entry;
+        }
+
+        /**
+         * Records the flow the command at the index started, and how it ends once it does.
+         */
+        public void started(int commandIndex, FlowHandle<SignedTransaction> handle) {
+            if (key == null) {
+                return;
+            }
+            final String flowId = handle.getId().getUuid().toString();
+            update(commandIndex, new FlowRegistry.FlowOutcome(flowId, FlowRegistry.FlowStatus.RUNNING, null, null));
+            handle.getReturnValue().then(future -> {
+                update(commandIndex, FlowRegistry.outcomeOf(flowId, future));
+                return null;
+            });
+        }
+
+        /**
+         * Wraps the starter of the command at the index so that what it starts, or fails to start, is recorded.
+         */
+        public Supplier<FlowHandle<SignedTransaction>> recording(int commandIndex, Supplier<FlowHandle<SignedTransaction>> starter) {
+            if (key == null) {
+                return starter;
+            }
+            return () -> {
+                final FlowHandle<SignedTransaction> handle;
+                try {
+                    handle = starter.get();
+                } catch (RuntimeException ex) {
+                    update(commandIndex, new FlowRegistry.FlowOutcome(null, FlowRegistry.FlowStatus.FAILED, null, ex.getMessage()));
+                    throw ex;
+                }
+                started(commandIndex, handle);
+                return handle;
+            };
+        }
+
+        /**
+         * Frees the key of a request that started no flow, so a retry can try again.
+         */
+        public void release() {
+            if (key == null) {
+                return;
+            }
+            synchronized (cache) {
+                cache.remove(cacheKey, entry);
+            }
+            try {
+                logFailure(node.release(endpoint, key));
+            } catch (RuntimeException ex) {
+                logger.warn("Unable to release idempotency key " + key + " on the node", ex);
+            }
+        }
+
+        /**
+         * Sets the outcome of the command at the index, and writes it to the node once the command's flow has ended.
+         */
+        void update(int commandIndex, FlowRegistry.FlowOutcome outcome) {
+            synchronized (entry) {
+                final FlowRegistry.FlowOutcome current = entry.outcomes[commandIndex];
+                // A fast flow can finish before its start is recorded, and must not be marked running again.
+                if (current != null && current.getStatus() != FlowRegistry.FlowStatus.RUNNING) {
+                    return;
+                }
+                entry.outcomes[commandIndex] = outcome;
+            }
+            if (outcome.getStatus() == FlowRegistry.FlowStatus.RUNNING) {
+                return;
+            }
+            try {
+                logFailure(node.complete(endpoint, key, commandIndex, outcome));
+            } catch (RuntimeException ex) {
+                logger.warn("Unable to record idempotency key " + key + " on the node", ex);
+            }
+        }
+
+        private void logFailure(CompletableFuture<Void> written) {
+            written.whenComplete((done, error) -> {
+                if (error != null) {
+                    logger.warn("Unable to record idempotency key " + key + " on the node", error);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers a request whose key could not be claimed. The claim may still have been written, so the key is left on
+     * the node rather than released, and only forgotten by the cache so that a retry claims it again.
+     */
+    private void unavailable(String cacheKey, Entry entry, String key, Throwable error, AsyncResponse asyncResponse) {
+        logger.warn("Unable to claim idempotency key " + key + " on the node", error);
+        synchronized (cache) {
+            cache.remove(cacheKey, entry);
+        }
+        asyncResponse.resume(Response.status(SERVICE_UNAVAILABLE)
+                .entity("Header '" + HEADER + "' could not be claimed, the request was not started. Retry it later.\n").build());
+    }
+
+    /**
+     * Answers a key the cache had lost from the records the node returned for it.
+     */
+    private void replay(String cacheKey, List<CourierIdempotencyRecord> records, String requestHash, AsyncResponse asyncResponse) {
+        final CourierIdempotencyRecord last = records.get(records.size() - 1);
+        final Entry entry = new Entry(last.getRequestHash(), last.isMultiple(), last.getCommandIndex() + 1,
+                last.getCreatedAt().toEpochMilli());
+        for (CourierIdempotencyRecord record : records) {
+            if (record.getStatus() != null) {
+                entry.outcomes[record.getCommandIndex()] = new FlowRegistry.FlowOutcome(record.getFlowId(),
+                        FlowRegistry.FlowStatus.valueOf(record.getStatus()), record.getTransactionId(), record.getError());
+            }
+        }
+        boolean running = false;
+        for (int i = 0; i < entry.outcomes.length; i++) {
+            if (entry.outcomes[i] == null && System.currentTimeMillis() - entry.createdAt > LOST_MILLIS) {
+                entry.outcomes[i] = new FlowRegistry.FlowOutcome(null, FlowRegistry.FlowStatus.FAILED, null, "Outcome was not recorded");
+            }
+            running |= entry.outcomes[i] == null;
+        }
+        // A key whose flows are still running stays uncached, so its outcome is read again once they have ended.
+        synchronized (cache) {
+            if (running) {
+                cache.remove(cacheKey);
+            } else {
+                cache.put(cacheKey, entry);
+            }
+        }
+        resume(entry, requestHash, asyncResponse);
+    }
+
+    private static void resume(Entry entry, String requestHash, AsyncResponse asyncResponse) {
+        if (!entry.requestHash.equals(requestHash)) {
+            asyncResponse.resume(Response.status(UNPROCESSABLE_ENTITY)
+                    .entity("Header '" + HEADER + "' was already sent to this endpoint with a different request.\n").build());
+            return;
+        }
+        final List<FlowRegistry.FlowOutcome> outcomes;
+        synchronized (entry) {
+            outcomes = new ArrayList<>(Arrays.asList(entry.outcomes));
+        }
+        if (outcomes.contains(null)) {
+            asyncResponse.resume(Response.status(CONFLICT)
+                    .entity("A request with the same " + HEADER + " is still in progress.\n").build());
+            return;
+        }
+        boolean running = false;
+        for (FlowRegistry.FlowOutcome outcome : outcomes) {
+            running |= outcome.getStatus() == FlowRegistry.FlowStatus.RUNNING;
+        }
+        final Response.Status status = running ? ACCEPTED : OK;
+        asyncResponse.resume(Response.status(status).entity(entry.multiple ? outcomes : outcomes.get(0))
+                .header(HEADER + "-Replayed", "true").build());
+    }
+
+    private static final class RpcNode implements Node {
+        private final CordaRPCOps rpcOps;
+
+        private RpcNode(CordaRPCOps rpcOps) {
+            this.rpcOps = rpcOps;
+        }
+
+        @Override
+        public CompletableFuture<List<CourierIdempotencyRecord>> claim(String endpoint, String key, String requestHash, int commands,
+                                                                       boolean multiple) {
+            return rpcOps.startFlowDynamic(CourierIdempotencyFlow.Claim.class, endpoint, key, requestHash, commands, multiple)
+                    .getReturnValue().toCompletableFuture();
+        }
+
+        @Override
+        public CompletableFuture<Void> complete(String endpoint, String key, int commandIndex, FlowRegistry.FlowOutcome outcome) {
+            return rpcOps.startFlowDynamic(CourierIdempotencyFlow.Complete.class, endpoint, key, commandIndex, outcome.getFlowId(),
+                    outcome.getStatus().name(), outcome.getTransactionId(), outcome.getError()).getReturnValue().toCompletableFuture();
+        }
+
+        @Override
+        public CompletableFuture<Void> release(String endpoint, String key) {
+            return rpcOps.startFlowDynamic(CourierIdempotencyFlow.Release.class, endpoint, key).getReturnValue().toCompletableFuture();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.nec.endmile.api;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Webserver-side copy of the network map, so resolving a party name or listing peers is a local lookup instead of
+ * an RPC round trip.
+ * <p>
+ * The cache is filled from the node's network map snapshot and kept current by its change feed.
+ */
+public class NetworkCache {
+    static private final Logger logger = LoggerFactory.getLogger(NetworkCache.class);
+
+    private final CordaRPCOps rpcOps;
+    private final CordaX500Name myLegalName;
+    private final Set<CordaX500Name> notaryNames;
+    private final ConcurrentMap<CordaX500Name, Party> partiesByName = new ConcurrentHashMap<>();
+    private volatile List<CordaX500Name> peers = ImmutableList.of();
+
+    public NetworkCache(CordaRPCOps rpcOps) {
+        this.rpcOps = rpcOps;
+        this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+
+        final ImmutableSet.Builder<CordaX500Name> notaries = ImmutableSet.builder();
+        for (Party notary : rpcOps.notaryIdentities()) {
+            notaries.add(notary.getName());
+        }
+        this.notaryNames = notaries.build();
+
+        final DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> feed = rpcOps.networkMapFeed();
+        for (NodeInfo node : feed.getSnapshot()) {
+            add(node);
+        }
+        rebuildPeers();
+        feed.getUpdates().subscribe(this::onChange, error -> logger.warn("Network map feed failed, lookups fall back to RPC", error));
+    }
+
+    /**
+     * Returns the well-known party with the given name, or null if there is none. A name missing from the cache is
+     * resolved over RPC.
+     */
+    public Party wellKnownParty(CordaX500Name name) {
+        final Party cached = partiesByName.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        final Party resolved = rpcOps.wellKnownPartyFromX500Name(name);
+        if (resolved != null) {
+            partiesByName.put(name, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the names of every node on the network other than this one and the notaries.
+     */
+    public List<CordaX500Name> getPeers() {
+        return peers;
+    }
+
+    private void onChange(NetworkMapCache.MapChange change) {
+        if (change instanceof NetworkMapCache.MapChange.Modified) {
+            remove(((NetworkMapCache.MapChange.Modified) change).getPreviousNode());
+            add(change.getNode());
+        } else if (change instanceof NetworkMapCache.MapChange.Removed) {
+            remove(change.getNode());
+        } else {
+            add(change.getNode());
+        }
+        rebuildPeers();
+    }
+
+    private void add(NodeInfo node) {
+        for (Party party : node.getLegalIdentities()) {
+            partiesByName.put(party.getName(), party);
+        }
+    }
+
+    private void remove(NodeInfo node) {
+        for (Party party : node.getLegalIdentities()) {
+            partiesByName.remove(party.getName(), party);
+        }
+    }
+
+    private synchronized void rebuildPeers() {
+        final List<CordaX500Name> names = new ArrayList<>();
+        for (CordaX500Name name : partiesByName.keySet()) {
+            if (!name.equals(myLegalName) && !notaryNames.contains(name)) {
+                names.add(name);
+            }
+        }
+        names.sort(Comparator.comparing(CordaX500Name::toString));
+        peers = ImmutableList.copyOf(names);
+    }
+}
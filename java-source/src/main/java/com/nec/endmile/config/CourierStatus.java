@@ -1,16 +1,84 @@
 package com.nec.endmile.config;
 
-public final class CourierStatus {
-
-    public static final String COURIER_INITIATED = "initiated";
-    public static final String COURIER_RESPONSE_RECEIVED = "response-received";
-    public static final String COURIER_ACCEPTED = "accepted";
-    public static final String COURIER_UPLOADED = "uploaded";
-    public static final String COURIER_PICKED = "picked";
-    public static final String COURIER_DELIVERED = "delivered";
-    public static final String COURIER_REQUESTOR_CANCELLED = "requestor-cancelled";
-    public static final String COURIER_RESPONDER_CANCELLED = "responder-cancelled";
-
-    private CourierStatus(){
+import com.fasterxml.jackson.annotation.JsonValue;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Lifecycle of a courier, with the transition table the contract and flows check against.
+ * <p>
+ * Each status is persisted by its fixed {@link #getCode code} rather than its label, and {@link #canFollow} is a
+ * bitset probe, so no string comparison or case folding happens during verification.
+ */
+@CordaSerializable
+public enum CourierStatus {
+    COURIER_INITIATED("initiated", (short) 0),
+    COURIER_RESPONSE_RECEIVED("response-received", (short) 1),
+    COURIER_ACCEPTED("accepted", (short) 2),
+    COURIER_UPLOADED("uploaded", (short) 3),
+    COURIER_PICKED("picked", (short) 4),
+    COURIER_DELIVERED("delivered", (short) 5),
+    COURIER_REQUESTOR_CANCELLED("requestor-cancelled", (short) 6),
+    COURIER_RESPONDER_CANCELLED("responder-cancelled", (short) 7);
+
+    private static final Map<CourierStatus, EnumSet<CourierStatus>> PREDECESSORS = new EnumMap<>(CourierStatus.class);
+
+    static {
+        PREDECESSORS.put(COURIER_INITIATED, EnumSet.noneOf(CourierStatus.class));
+        PREDECESSORS.put(COURIER_RESPONSE_RECEIVED, EnumSet.of(COURIER_INITIATED, COURIER_RESPONSE_RECEIVED));
+        PREDECESSORS.put(COURIER_ACCEPTED, EnumSet.of(COURIER_INITIATED, COURIER_RESPONSE_RECEIVED));
+        PREDECESSORS.put(COURIER_UPLOADED, EnumSet.of(COURIER_ACCEPTED));
+        PREDECESSORS.put(COURIER_PICKED, EnumSet.of(COURIER_UPLOADED));
+        PREDECESSORS.put(COURIER_DELIVERED, EnumSet.of(COURIER_PICKED));
+        PREDECESSORS.put(COURIER_REQUESTOR_CANCELLED, EnumSet.of(COURIER_INITIATED, COURIER_RESPONSE_RECEIVED, COURIER_ACCEPTED));
+        PREDECESSORS.put(COURIER_RESPONDER_CANCELLED, EnumSet.of(COURIER_INITIATED, COURIER_RESPONSE_RECEIVED, COURIER_ACCEPTED));
+    }
+
+    private final String label;
+    private final short code;
+
+    CourierStatus(String label, short code) {
+        this.label = label;
+        this.code = code;
+    }
+
+    @JsonValue
+    public String getLabel() {
+        return label;
+    }
+
+    public short getCode() {
+        return code;
+    }
+
+    /**
+     * Whether a courier in the given status may move to this status.
+     */
+    public boolean canFollow(CourierStatus previous) {
+        return previous != null && PREDECESSORS.get(this).contains(previous);
+    }
+
+    /**
+     * Parses an API label such as "picked". Case is ignored, as this only runs at the API boundary.
+     */
+    public static CourierStatus fromLabel(String label) {
+        for (CourierStatus status : values()) {
+            if (status.label.equalsIgnoreCase(label)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown courier status " + label);
+    }
+
+    public static CourierStatus fromCode(short code) {
+        for (CourierStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown courier status code " + code);
     }
-}
\ No newline at end of file
+}
@@ -1,12 +1,33 @@
 package com.nec.endmile.config;
 
-public final class CourierType {
+import com.fasterxml.jackson.annotation.JsonValue;
+import net.corda.core.serialization.CordaSerializable;
 
-    public static final String SHARED = "shared";
-    public static final String DEDICATED = "dedicated";
+@CordaSerializable
+public enum CourierType {
+    SHARED("shared"),
+    DEDICATED("dedicated");
 
+    private final String label;
 
-    private CourierType(){
+    CourierType(String label) {
+        this.label = label;
+    }
+
+    @JsonValue
+    public String getLabel() {
+        return label;
+    }
 
+    /**
+     * Parses an API label such as "shared". Case is ignored, as this only runs at the API boundary.
+     */
+    public static CourierType fromLabel(String label) {
+        for (CourierType type : values()) {
+            if (type.label.equalsIgnoreCase(label)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown courier delivery type " + label);
     }
 }
@@ -1,14 +1,22 @@
 package com.nec.endmile.contract;
 
 import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteOffer;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.CommandWithParties;
 import net.corda.core.contracts.Contract;
+import net.corda.core.crypto.SignedData;
+import net.corda.core.serialization.ConstructorForDeserialization;
 import net.corda.core.transactions.LedgerTransaction;
 
 import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
@@ -24,12 +32,17 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
  * - One output state: the new [CourierState].
  * - A CourierPost() command
  * <p>
+ * A whole batch of new [CourierState]s can instead be issued by one transaction with zero inputs, any number of
+ * initiated [CourierState] outputs and a CourierPostBatch() command.
+ * <p>
  * All contracts must sub-class the [Contract] interface.
  */
 public class
 CourierContract implements Contract {
     public static final String CONTRACT_ID = "com.nec.endmile.contract.CourierContract";
 
+    private static final String KEEPS_ACCEPTED_RESPONDER = "Accepted responder should not change after acceptance";
+
     /**
      * The verify() function of all the states' contracts must not throw an exception for a transaction to be
      * considered valid.
@@ -42,10 +55,12 @@ CourierContract implements Contract {
 
         if (commandData instanceof Commands.CourierPost) {
             verifyCourierPost(tx, setOfSigners);
+        } else if (commandData instanceof Commands.CourierPostBatch) {
+            verifyCourierPostBatch(tx, setOfSigners);
         } else if (commandData instanceof Commands.CourierRate) {
             verifyCourierRate(tx, setOfSigners);
         } else if (commandData instanceof Commands.CourierContractAccept) {
-            verifyCourierAccept(tx, setOfSigners);
+            verifyCourierAccept(tx, (Commands.CourierContractAccept) commandData, setOfSigners);
         } else if (commandData instanceof Commands.CourierDocUpload) {
             verifyCourierDocUpload(tx, setOfSigners);
         } else if (commandData instanceof Commands.CourierPicked) {
@@ -63,7 +78,7 @@ CourierContract implements Contract {
 
     }
 
-    private void verifyCourierAccept(LedgerTransaction tx, Set<PublicKey> setOfSigners) {
+    private void verifyCourierAccept(LedgerTransaction tx, Commands.CourierContractAccept command, Set<PublicKey> setOfSigners) {
 
         requireThat(req -> {
             req.using("Only one courier state when responding to courier request",
@@ -72,9 +87,46 @@ CourierContract implements Contract {
 
 
             CourierState courierState = tx.inputsOfType(CourierState.class).get(0);
-            req.using("Courier Input state status can be either initiated or response-received", courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_RESPONSE_RECEIVED));
-
-
+            req.using("Courier Input state status should be initiated or response-received", CourierStatus.COURIER_ACCEPTED.canFollow(courierState.getStatus()));
+            req.using("Accepting should be signed by the requestor", setOfSigners.contains(courierState.getRequestor().getOwningKey()));
+            req.using("Courier Output state status should be accepted", tx.outputsOfType(CourierState.class).get(0).getStatus() == CourierStatus.COURIER_ACCEPTED);
+
+            // The accepted quote may have been sent off the ledger, so it is read from the output, and every other
+            // quote already on the ledger has to be carried over unchanged.
+            CourierState outputState = tx.outputsOfType(CourierState.class).get(0);
+            req.using("Accepted responder should be one of the courier's carriers", outputState.getAcceptedResponder() != null
+                    && courierState.getAutoNodes().contains(outputState.getAcceptedResponder()));
+            req.using("Accepted responder should have quoted for the courier",
+                    outputState.getResponses().quoteOf(outputState.getAcceptedResponder()) != null);
+            req.using("Final quoted price should match the accepted responder's quote", outputState.getFinalDeliveryType() != null
+                    && outputState.getFinalQuotedPrice() != null
+                    && outputState.getResponses().quoteOf(outputState.getAcceptedResponder()).priceFor(outputState.getFinalDeliveryType()) == outputState.getFinalQuotedPrice());
+            for (CourierQuote inputQuote : courierState.getResponses().getQuotes()) {
+                if (!inputQuote.getResponder().equals(outputState.getAcceptedResponder())) {
+                    req.using("Quotes already on the ledger should be kept when accepting",
+                            inputQuote.equals(outputState.getResponses().quoteOf(inputQuote.getResponder())));
+                }
+            }
+
+            // A quote that is not already on the ledger was sent off it, and only counts with the carrier's signature.
+            final CourierQuote acceptedQuote = outputState.getResponses().quoteOf(outputState.getAcceptedResponder());
+            req.using("Accepting should add no quote but the accepted one",
+                    outputState.getAddedQuote() == null || outputState.getAddedQuote().equals(acceptedQuote));
+            if (!acceptedQuote.equals(courierState.getResponses().quoteOf(outputState.getAcceptedResponder()))) {
+                final SignedData<CourierQuoteOffer> offer = command.getOffer();
+                req.using("Quote sent off the ledger should be signed by the accepted responder",
+                        offer != null && offer.getSig().getBy().equals(outputState.getAcceptedResponder().getOwningKey()));
+                final CourierQuoteOffer verified = verifiedOffer(offer);
+                req.using("Signed offer should be the accepted quote for this courier", verified != null
+                        && Objects.equals(verified.getCourierId(), courierState.getCourierId())
+                        && acceptedQuote.equals(verified.getQuote()));
+            }
+
+
+            req.using("Courier linearId should not change across the lifecycle",
+                    tx.outputsOfType(CourierState.class).get(0).getLinearId().equals(courierState.getLinearId()));
+            req.using("Added quote should be the only quote the transition adds to the quote book",
+                    addsOnlyItsQuote(courierState, tx.outputsOfType(CourierState.class).get(0)));
             return null;
 
             //TODO Minimum validation as of now. Implement at API layer
@@ -94,6 +146,31 @@ CourierContract implements Contract {
         });
     }
 
+    // This allows a whole dispatch wave of couriers to be created by one transaction.
+    private void verifyCourierPostBatch(LedgerTransaction tx, Set<PublicKey> signers) {
+        requireThat(req -> {
+            req.using("No inputs should be consumed when creating courier batch",
+                    tx.getInputStates().isEmpty());
+            req.using("At least one courier state should be created when creating courier batch.",
+                    !tx.getOutputStates().isEmpty());
+
+            final List<CourierState> couriers = tx.outputsOfType(CourierState.class);
+            req.using("Only courier states should be created when creating courier batch.",
+                    couriers.size() == tx.getOutputStates().size());
+
+            final Set<String> courierIds = new HashSet<>();
+            for (CourierState courier : couriers) {
+                req.using("Courier state status should be initiated when creating courier batch.",
+                        courier.getStatus() == CourierStatus.COURIER_INITIATED);
+                req.using("signer should contain owning key.",
+                        signers.contains(courier.getRequestor().getOwningKey()));
+                req.using("Courier ids should be unique within a courier batch.",
+                        courierIds.add(courier.getCourierId()));
+            }
+            return null;
+        });
+    }
+
     // This only allows one response per transaction.
     private void verifyCourierRate(LedgerTransaction tx, Set<PublicKey> signers) {
         requireThat(req -> {
@@ -103,9 +180,20 @@ CourierContract implements Contract {
 
 
             CourierState courierState = tx.inputsOfType(CourierState.class).get(0);
-            req.using("Courier Input state status can be either initiated or response-received", courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_INITIATED) || courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_RESPONSE_RECEIVED));
-
-
+            req.using("Courier Input state status can be either initiated or response-received", CourierStatus.COURIER_RESPONSE_RECEIVED.canFollow(courierState.getStatus()));
+            req.using("Courier Output state status should be response-received", tx.outputsOfType(CourierState.class).get(0).getStatus() == CourierStatus.COURIER_RESPONSE_RECEIVED);
+            req.using("Courier carriers should not change when responding to courier request",
+                    tx.outputsOfType(CourierState.class).get(0).getAutoNodes().equals(courierState.getAutoNodes()));
+            final CourierQuote added = tx.outputsOfType(CourierState.class).get(0).getAddedQuote();
+            req.using("Responding should add the responder's quote", added != null);
+            req.using("Responder should be one of the courier's carriers", courierState.getAutoNodes().contains(added.getResponder()));
+            req.using("Responding should be signed by the responder", signers.contains(added.getResponder().getOwningKey()));
+
+
+            req.using("Courier linearId should not change across the lifecycle",
+                    tx.outputsOfType(CourierState.class).get(0).getLinearId().equals(courierState.getLinearId()));
+            req.using("Added quote should be the only quote the transition adds to the quote book",
+                    addsOnlyItsQuote(courierState, tx.outputsOfType(CourierState.class).get(0)));
             return null;
 
             //TODO Minimum validation as of now. Implement at API layer
@@ -121,7 +209,15 @@ CourierContract implements Contract {
 
             CourierState courierState = tx.inputsOfType(CourierState.class).get(0);
             req.using("Input CourierState should have 'accepted' status",
-                    courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_ACCEPTED));
+                    CourierStatus.COURIER_UPLOADED.canFollow(courierState.getStatus()));
+            req.using("Output CourierState should have 'uploaded' status",
+                    tx.outputsOfType(CourierState.class).get(0).getStatus() == CourierStatus.COURIER_UPLOADED);
+            req.using("Doc upload should be signed by the requestor", signers.contains(courierState.getRequestor().getOwningKey()));
+            req.using(KEEPS_ACCEPTED_RESPONDER, keepsAcceptedResponder(courierState, tx.outputsOfType(CourierState.class).get(0)));
+            req.using("Courier linearId should not change across the lifecycle",
+                    tx.outputsOfType(CourierState.class).get(0).getLinearId().equals(courierState.getLinearId()));
+            req.using("Added quote should be the only quote the transition adds to the quote book",
+                    addsOnlyItsQuote(courierState, tx.outputsOfType(CourierState.class).get(0)));
             return null;
         });
     }
@@ -135,7 +231,15 @@ CourierContract implements Contract {
 
             CourierState courierState = tx.inputsOfType(CourierState.class).get(0);
             req.using("Input CourierState should have 'uploaded' status",
-                    courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_UPLOADED));
+                    CourierStatus.COURIER_PICKED.canFollow(courierState.getStatus()));
+            req.using("Output CourierState should have 'picked' status",
+                    tx.outputsOfType(CourierState.class).get(0).getStatus() == CourierStatus.COURIER_PICKED);
+            req.using("Picking up should be signed by the accepted responder", signedByAcceptedResponder(courierState, signers));
+            req.using(KEEPS_ACCEPTED_RESPONDER, keepsAcceptedResponder(courierState, tx.outputsOfType(CourierState.class).get(0)));
+            req.using("Courier linearId should not change across the lifecycle",
+                    tx.outputsOfType(CourierState.class).get(0).getLinearId().equals(courierState.getLinearId()));
+            req.using("Added quote should be the only quote the transition adds to the quote book",
+                    addsOnlyItsQuote(courierState, tx.outputsOfType(CourierState.class).get(0)));
             return null;
         });
     }
@@ -149,7 +253,15 @@ CourierContract implements Contract {
 
             CourierState courierState = tx.inputsOfType(CourierState.class).get(0);
             req.using("Input CourierState should have 'picked' status",
-                    courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_PICKED));
+                    CourierStatus.COURIER_DELIVERED.canFollow(courierState.getStatus()));
+            req.using("Output CourierState should have 'delivered' status",
+                    tx.outputsOfType(CourierState.class).get(0).getStatus() == CourierStatus.COURIER_DELIVERED);
+            req.using("Delivering should be signed by the accepted responder", signedByAcceptedResponder(courierState, signers));
+            req.using(KEEPS_ACCEPTED_RESPONDER, keepsAcceptedResponder(courierState, tx.outputsOfType(CourierState.class).get(0)));
+            req.using("Courier linearId should not change across the lifecycle",
+                    tx.outputsOfType(CourierState.class).get(0).getLinearId().equals(courierState.getLinearId()));
+            req.using("Added quote should be the only quote the transition adds to the quote book",
+                    addsOnlyItsQuote(courierState, tx.outputsOfType(CourierState.class).get(0)));
             return null;
         });
     }
@@ -163,9 +275,15 @@ CourierContract implements Contract {
 
             CourierState courierState = tx.inputsOfType(CourierState.class).get(0);
             req.using("Input CourierState should have either 'initiated' or 'response-received', 'accepted' status",
-                    (courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_INITIATED)
-                            || courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_RESPONSE_RECEIVED)
-                            || courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_ACCEPTED)));
+                    CourierStatus.COURIER_REQUESTOR_CANCELLED.canFollow(courierState.getStatus()));
+            req.using("Output CourierState should have 'requestor-cancelled' status",
+                    tx.outputsOfType(CourierState.class).get(0).getStatus() == CourierStatus.COURIER_REQUESTOR_CANCELLED);
+            req.using("Requestor cancel should be signed by the requestor", signers.contains(courierState.getRequestor().getOwningKey()));
+            req.using(KEEPS_ACCEPTED_RESPONDER, keepsAcceptedResponder(courierState, tx.outputsOfType(CourierState.class).get(0)));
+            req.using("Courier linearId should not change across the lifecycle",
+                    tx.outputsOfType(CourierState.class).get(0).getLinearId().equals(courierState.getLinearId()));
+            req.using("Added quote should be the only quote the transition adds to the quote book",
+                    addsOnlyItsQuote(courierState, tx.outputsOfType(CourierState.class).get(0)));
             return null;
         });
     }
@@ -179,13 +297,43 @@ CourierContract implements Contract {
 
             CourierState courierState = tx.inputsOfType(CourierState.class).get(0);
             req.using("Input CourierState should have either 'initiated' or 'response-received', 'accepted' status",
-                    (courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_INITIATED)
-                            || courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_RESPONSE_RECEIVED)
-                            || courierState.getStatus().equalsIgnoreCase(CourierStatus.COURIER_ACCEPTED)));
+                    CourierStatus.COURIER_RESPONDER_CANCELLED.canFollow(courierState.getStatus()));
+            req.using("Output CourierState should have 'responder-cancelled' status",
+                    tx.outputsOfType(CourierState.class).get(0).getStatus() == CourierStatus.COURIER_RESPONDER_CANCELLED);
+            req.using("Responder cancel should be signed by the accepted responder", signedByAcceptedResponder(courierState, signers));
+            req.using(KEEPS_ACCEPTED_RESPONDER, keepsAcceptedResponder(courierState, tx.outputsOfType(CourierState.class).get(0)));
+            req.using("Courier linearId should not change across the lifecycle",
+                    tx.outputsOfType(CourierState.class).get(0).getLinearId().equals(courierState.getLinearId()));
+            req.using("Added quote should be the only quote the transition adds to the quote book",
+                    addsOnlyItsQuote(courierState, tx.outputsOfType(CourierState.class).get(0)));
             return null;
         });
     }
 
+    // The added quote is what the vault persists for the transition, so it must match the books exactly.
+    private static boolean addsOnlyItsQuote(CourierState input, CourierState output) {
+        final List<CourierQuote> added = output.getResponses().addedSince(input.getResponses());
+        return output.getAddedQuote() == null ? added.isEmpty() : added.equals(Collections.singletonList(output.getAddedQuote()));
+    }
+
+    // Only the carrier that won the courier may move it on, so a carrier that lost cannot pick up, deliver or cancel it.
+    private static boolean signedByAcceptedResponder(CourierState input, Set<PublicKey> signers) {
+        return input.getAcceptedResponder() != null && signers.contains(input.getAcceptedResponder().getOwningKey());
+    }
+
+    // The accepted responder decides the participants from acceptance on, so it cannot be swapped for another carrier.
+    private static boolean keepsAcceptedResponder(CourierState input, CourierState output) {
+        return Objects.equals(input.getAcceptedResponder(), output.getAcceptedResponder());
+    }
+
+    private static CourierQuoteOffer verifiedOffer(SignedData<CourierQuoteOffer> offer) {
+        try {
+            return offer.verified();
+        } catch (SignatureException e) {
+            return null;
+        }
+    }
+
     /**
      * This contract implements all commands related to CourierState
      */
@@ -193,6 +341,9 @@ CourierContract implements Contract {
         class CourierPost implements Commands {
         }
 
+        class CourierPostBatch implements Commands {
+        }
+
         class CourierRate implements Commands {
         }
 
@@ -200,8 +351,36 @@ CourierContract implements Contract {
         }
 
 
+        /**
+         * Carries the carrier's signed offer when the accepted quote was sent off the ledger.
+         */
         class CourierContractAccept implements Commands {
-
+            private final SignedData<CourierQuoteOffer> offer;
+
+            @ConstructorForDeserialization
+            public CourierContractAccept(SignedData<CourierQuoteOffer> offer) {
+                this.offer = offer;
+            }
+
+            public CourierContractAccept() {
+                this(null);
+            }
+
+            public SignedData<CourierQuoteOffer> getOffer() {
+                return offer;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (o == null || getClass() != o.getClass()) return false;
+                return Objects.equals(offer, ((CourierContractAccept) o).offer);
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hashCode(offer);
+            }
         }
 
         class CourierPicked implements Commands {
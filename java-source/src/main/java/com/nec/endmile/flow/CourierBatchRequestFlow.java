@@ -0,0 +1,178 @@
+package com.nec.endmile.flow;
+
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.service.CourierNetworkService;
+import com.nec.endmile.service.FlowMetricsService;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates a whole dispatch wave of couriers in a single transaction, so N parcels cost one signature, one
+ * notarisation and one FinalityFlow round trip instead of N.
+ */
+public class CourierBatchRequestFlow {
+
+    /**
+     * Dimensions and route of one parcel in a batch.
+     */
+    @CordaSerializable
+    public static class Parcel {
+        private final int courierLength;
+        private final int courierWidth;
+        private final int courierHeight;
+        private final int courierWeight;
+        private final String source;
+        private final String destination;
+
+        public Parcel(int courierLength, int courierWidth, int courierHeight, int courierWeight, String source, String destination) {
+            this.courierLength = courierLength;
+            this.courierWidth = courierWidth;
+            this.courierHeight = courierHeight;
+            this.courierWeight = courierWeight;
+            this.source = source;
+            this.destination = destination;
+        }
+
+        public int getCourierLength() {
+            return courierLength;
+        }
+
+        public int getCourierWidth() {
+            return courierWidth;
+        }
+
+        public int getCourierHeight() {
+            return courierHeight;
+        }
+
+        public int getCourierWeight() {
+            return courierWeight;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+    }
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+        private final List<Parcel> parcels;
+        private final List<Party> autoNodes;
+
+        private final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step("Generating transaction based on new Courier batch.");
+        private final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step("Verifying contract constraints.");
+        private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
+
+        private final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step("Obtaining notary signature and recording transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        // The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
+        // checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
+        // function.
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                FINALISING_TRANSACTION
+        );
+
+        public Initiator(List<Parcel> parcels, Party autoNode) {
+            this(parcels, ImmutableList.of(autoNode));
+        }
+
+        /**
+         * Sends every parcel to the given carriers. An empty list sends them to every carrier on the network map.
+         */
+        public Initiator(List<Parcel> parcels, List<Party> autoNodes) {
+            this.parcels = parcels;
+            this.autoNodes = autoNodes;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            final long flowStarted = System.nanoTime();
+            long stageStarted = flowStarted;
+
+            if (parcels == null || parcels.isEmpty()) {
+                throw new FlowException("Courier batch must contain at least one parcel");
+            }
+
+            // Stage 1.
+            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            // Generate an unsigned transaction.
+            Party me = getOurIdentity();
+
+            final List<Party> autoNodes = CourierCarriers.resolve(getServiceHub(), me, this.autoNodes);
+
+            final List<CourierState> couriers = new ArrayList<>(parcels.size());
+            for (Parcel parcel : parcels) {
+                UniqueIdentifier uniqueIdentifier = new UniqueIdentifier();
+                couriers.add(new CourierState(parcel.getCourierLength(), parcel.getCourierWidth(), parcel.getCourierHeight(), parcel.getCourierWeight(),
+                        parcel.getSource(), parcel.getDestination(), me, CourierStatus.COURIER_INITIATED, uniqueIdentifier, uniqueIdentifier.getId().toString(), autoNodes));
+            }
+
+            // A transaction has a single notary, so the whole batch is issued on the first courier's notary.
+            final Party notary = getServiceHub().cordaService(CourierNetworkService.class).getNotary(couriers.get(0).getCourierId());
+
+            final Command<CourierContract.Commands.CourierPostBatch> txCommand = new Command<>(
+                    new CourierContract.Commands.CourierPostBatch(),
+                    ImmutableList.of(me.getOwningKey()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                    .addCommand(txCommand);
+            for (CourierState courierState : couriers) {
+                txBuilder.addOutputState(courierState, CourierContract.CONTRACT_ID);
+            }
+
+            stageStarted = metrics.record(getClass(), FlowMetricsService.GENERATE, stageStarted);
+            // Stage 2.
+            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            // Verify that the transaction is valid.
+            txBuilder.verify(getServiceHub());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.VERIFY, stageStarted);
+
+            // Stage 3.
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            // Sign the transaction.
+            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(txBuilder);
+            stageStarted = metrics.record(getClass(), FlowMetricsService.SIGN, stageStarted);
+
+            // Stage 4
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            // Notarise and record the transaction in all parties' vaults.
+            final SignedTransaction finalTx = subFlow(new FinalityFlow(signedTx));
+            metrics.record(getClass(), FlowMetricsService.FINALITY, stageStarted);
+            metrics.record(getClass(), FlowMetricsService.TOTAL, flowStarted);
+            return finalTx;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.nec.endmile.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.service.CourierNetworkService;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the carriers a courier request is sent to.
+ */
+final class CourierCarriers {
+    private CourierCarriers() {
+    }
+
+    /**
+     * Returns the requested carriers without duplicates or the requestor itself. When none are requested, every
+     * non-notary party on the network map other than the requestor is a carrier.
+     */
+    static List<Party> resolve(ServiceHub serviceHub, Party requestor, List<Party> requested) throws FlowException {
+        final Set<Party> carriers = new LinkedHashSet<>(requested != null && !requested.isEmpty()
+                ? requested
+                : serviceHub.cordaService(CourierNetworkService.class).getCarriers());
+        carriers.remove(requestor);
+
+        if (carriers.isEmpty()) {
+            throw new FlowException("No carriers to send the courier request to");
+        }
+        return ImmutableList.copyOf(carriers);
+    }
+}
@@ -4,38 +4,37 @@ package com.nec.endmile.flow;
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
 import com.nec.endmile.contract.CourierContract;
-import com.nec.endmile.schema.CourierSchemaV1;
+import com.nec.endmile.logging.CourierLogger;
+import com.nec.endmile.service.CourierLookupService;
+import com.nec.endmile.service.CourierQuoteStore;
+import com.nec.endmile.service.FlowMetricsService;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierQuoteOffer;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.StateAndRef;
-import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.SecureHash;
+import net.corda.core.crypto.SignedData;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.Builder;
-import net.corda.core.node.services.vault.CriteriaExpression;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-
 public class CourierContractAcceptFlow {
 
 
     @InitiatingFlow
     @StartableByRPC
     public static class Acceptor extends FlowLogic<SignedTransaction> {
+        private static final CourierLogger log = CourierLogger.of(Acceptor.class);
+
         private final String courierId;
-        private final String responder;
-        private final String finalDeliveryType;
+        private final Party responder;
+        private final CourierType finalDeliveryType;
 
 
         private final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step("Generating transaction for courier response.");
@@ -59,10 +58,17 @@ public class CourierContractAcceptFlow {
                 FINALISING_TRANSACTION
         );
 
-        public Acceptor(String courierId,String responder, String finalDeliveryType) {
+        public Acceptor(String courierId, Party responder, CourierType finalDeliveryType) {
             this.courierId = courierId;
-            this.responder=responder;
-            this.finalDeliveryType=finalDeliveryType;
+            this.responder = responder;
+            this.finalDeliveryType = finalDeliveryType;
+        }
+
+        /**
+         * Accepts the cheapest quote received for the delivery type.
+         */
+        public Acceptor(String courierId, CourierType finalDeliveryType) {
+            this(courierId, null, finalDeliveryType);
         }
 
         @Override
@@ -73,91 +79,88 @@ public class CourierContractAcceptFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            // Obtain a reference to the notary we want to use.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            final long flowStarted = System.nanoTime();
+            long stageStarted = flowStarted;
+
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
             // Generate an unsigned transaction.
             Party me = getOurIdentity();
 
-            //Vault query
-            QueryCriteria.VaultQueryCriteria criteria = new QueryCriteria.VaultQueryCriteria();
-
-            Field courierIDField;
-            try {
-                courierIDField = CourierSchemaV1.PersistentCourier.class.getDeclaredField("courierId");
-            } catch (NoSuchFieldException e) {
-                throw new FlowException("No field name courierId present in courier schema");
-            }
-            CriteriaExpression courierIndex = Builder.equal(courierIDField, this.courierId);
-            QueryCriteria courierIDCriteria = new QueryCriteria.VaultCustomQueryCriteria<>(courierIndex);
-
-            criteria.and(courierIDCriteria);
-
-            Vault.Page<CourierState> queryResult = getServiceHub().getVaultService().queryBy(CourierState.class, criteria);
-            List<StateAndRef<CourierState>> couriers = queryResult.getStates();
+            // Resolve and reserve the current courier state from the node-local courierId index.
+            final StateAndRef<CourierState> courierStateStateAndRef = getServiceHub().cordaService(CourierLookupService.class).reserveUnconsumed(this.courierId, getRunId().getUuid());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.VAULT_LOOKUP, stageStarted);
 
-
-            if (couriers == null) {
-                throw new FlowException("No couriers present in ledger");
+            if (courierStateStateAndRef == null) {
+                throw new FlowException("Invalid courier id");
             }
-
-            CourierState courierState = null;
-            StateAndRef<CourierState> courierStateStateAndRef = null;
-            for (StateAndRef<CourierState> temp : couriers) {
-                if (temp.getState().getData().getCourierId().equals(this.courierId)) {
-                    courierStateStateAndRef = temp;
-                    courierState = temp.getState().getData();
+            final CourierState courierState = courierStateStateAndRef.getState().getData();
+            log.debug(this.courierId, GENERATING_TRANSACTION.getLabel(), "Courier input state {}", courierState);
+
+            // Quotes sent off the ledger are chosen from alongside the ones already on it.
+            CourierQuoteBook responses = courierState.getResponses();
+            for (CourierQuote offered : getServiceHub().cordaService(CourierQuoteStore.class).getOffered(this.courierId).getQuotes()) {
+                final CourierQuote onLedger = responses.quoteOf(offered.getResponder());
+                if (onLedger == null || offered.getQuotedAt().isAfter(onLedger.getQuotedAt())) {
+                    responses = responses.withQuote(offered);
                 }
             }
 
-            if (courierState == null) {
-                throw new FlowException("Invalid courier id");
-            }else{
-                System.out.println("Courier input state"+courierState);
-            }
+            final CourierQuote quote = this.responder == null
+                    ? responses.bestQuote(this.finalDeliveryType)
+                    : responses.quoteOf(this.responder);
 
-            //ENDS HERE
-
-
-            String price = CourierState.getPrice(courierState.getResponses(),this.finalDeliveryType,this.responder);
-
-            if(price==null){
+            if (quote == null || this.finalDeliveryType == null) {
                 throw new FlowException("Courier responder is not present or courier delivery type is wrong");
             }
 
+            // A quote already on the ledger is not added again. One sent off it is backed by the carrier's signed offer.
+            final CourierQuote added = quote.equals(courierState.getResponses().quoteOf(quote.getResponder())) ? null : quote;
+            final SignedData<CourierQuoteOffer> offer = added == null ? null
+                    : getServiceHub().cordaService(CourierQuoteStore.class).getSignedOffer(this.courierId, added);
+            if (added != null && offer == null) {
+                throw new FlowException("Quote of " + added.getResponder() + " is no longer held, and has to be sent again");
+            }
             CourierState courierOutputState = new CourierState(courierState.getCourierLength(), courierState.getCourierWidth(), courierState.getCourierHeight(), courierState.getCourierWeight(),
-            null, courierState.getSource(), courierState.getDestination(), courierState.getRequestor(), this.responder,
-                    price , this.finalDeliveryType, CourierStatus.COURIER_ACCEPTED, new UniqueIdentifier(), courierState.getResponses(),
-                    courierState.getCourierId(), courierState.getAutoNodes());
+            null, courierState.getSource(), courierState.getDestination(), courierState.getRequestor(), quote.getResponder(),
+                    quote.priceFor(this.finalDeliveryType), this.finalDeliveryType, CourierStatus.COURIER_ACCEPTED, courierState.getLinearId(), courierState.getResponses().withQuote(quote),
+                    courierState.getCourierId(), courierState.getAutoNodes(), added);
 
 
 
             final Command<CourierContract.Commands.CourierContractAccept> txCommand = new Command<>(
-                    new CourierContract.Commands.CourierContractAccept(),
+                    new CourierContract.Commands.CourierContractAccept(offer),
                     ImmutableList.of(me.getOwningKey()));
 
-            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+            // The courier stays with the notary it was issued on.
+            final TransactionBuilder txBuilder = new TransactionBuilder(courierStateStateAndRef.getState().getNotary())
                     .addInputState(courierStateStateAndRef)
                     .addOutputState(courierOutputState, CourierContract.CONTRACT_ID)
                     .addCommand(txCommand);
 
+            stageStarted = metrics.record(getClass(), FlowMetricsService.GENERATE, stageStarted);
             // Stage 2.
             progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
             // Verify that the transaction is valid.
             txBuilder.verify(getServiceHub());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.VERIFY, stageStarted);
 
             // Stage 3.
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            stageStarted = metrics.record(getClass(), FlowMetricsService.SIGN, stageStarted);
 
 
             // Stage 4
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(partSignedTx));
+            final SignedTransaction finalTx = subFlow(new FinalityFlow(partSignedTx));
+            metrics.record(getClass(), FlowMetricsService.FINALITY, stageStarted);
+            metrics.record(getClass(), FlowMetricsService.TOTAL, flowStarted);
+            return finalTx;
         }
     }
 
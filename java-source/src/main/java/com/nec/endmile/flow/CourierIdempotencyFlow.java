@@ -0,0 +1,111 @@
+package com.nec.endmile.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.nec.endmile.service.CourierIdempotencyRecord;
+import com.nec.endmile.service.CourierIdempotencyStore;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Reads and writes the node's Idempotency-Key table for the web API. None of these flows touch the ledger.
+ * <p>
+ * A request sent with a key costs one {@link Claim}, plus one {@link Complete} per command once its flow ends.
+ */
+public class CourierIdempotencyFlow {
+
+    /**
+     * Claims a key for a request and returns an empty list, or returns the records of the earlier request that
+     * claimed it, in command order.
+     */
+    @StartableByRPC
+    public static class Claim extends FlowLogic<List<CourierIdempotencyRecord>> {
+        private final String endpoint;
+        private final String key;
+        private final String requestHash;
+        private final int commands;
+        private final boolean multiple;
+
+        public Claim(String endpoint, String key, String requestHash, int commands, boolean multiple) {
+            this.endpoint = endpoint;
+            this.key = key;
+            this.requestHash = requestHash;
+            this.commands = commands;
+            this.multiple = multiple;
+        }
+
+        @Suspendable
+        @Override
+        public List<CourierIdempotencyRecord> call() throws FlowException {
+            try {
+                return getServiceHub().cordaService(CourierIdempotencyStore.class).claim(endpoint, key, requestHash, commands, multiple);
+            } catch (SQLException e) {
+                throw new FlowException("Unable to claim idempotency key", e);
+            }
+        }
+    }
+
+    /**
+     * Records the flow started by a command sent with a key, and how it ended.
+     */
+    @StartableByRPC
+    public static class Complete extends FlowLogic<Void> {
+        private final String endpoint;
+        private final String key;
+        private final int commandIndex;
+        private final String flowId;
+        private final String status;
+        private final String transactionId;
+        private final String error;
+
+        public Complete(String endpoint, String key, int commandIndex, String flowId, String status, String transactionId, String error) {
+            this.endpoint = endpoint;
+            this.key = key;
+            this.commandIndex = commandIndex;
+            this.flowId = flowId;
+            this.status = status;
+            this.transactionId = transactionId;
+            this.error = error;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            try {
+                getServiceHub().cordaService(CourierIdempotencyStore.class)
+                        .complete(endpoint, key, commandIndex, flowId, status, transactionId, error);
+                return null;
+            } catch (SQLException e) {
+                throw new FlowException("Unable to complete idempotency key", e);
+            }
+        }
+    }
+
+    /**
+     * Frees a key whose request started no flow.
+     */
+    @StartableByRPC
+    public static class Release extends FlowLogic<Void> {
+        private final String endpoint;
+        private final String key;
+
+        public Release(String endpoint, String key) {
+            this.endpoint = endpoint;
+            this.key = key;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            try {
+                getServiceHub().cordaService(CourierIdempotencyStore.class).release(endpoint, key);
+                return null;
+            } catch (SQLException e) {
+                throw new FlowException("Unable to release idempotency key", e);
+            }
+        }
+    }
+}
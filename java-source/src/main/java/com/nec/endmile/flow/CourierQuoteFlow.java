@@ -0,0 +1,167 @@
+package com.nec.endmile.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.logging.CourierLogger;
+import com.nec.endmile.service.CourierLookupService;
+import com.nec.endmile.service.CourierQuoteStore;
+import com.nec.endmile.service.FlowMetricsService;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteOffer;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.SignedData;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.SerializationAPIKt;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.core.serialization.SerializedBytes;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.security.SignatureException;
+
+/**
+ * Off-ledger quoting. A carrier signs its quote and sends it straight to the requestor, who keeps it in the
+ * {@link CourierQuoteStore} until {@link CourierContractAcceptFlow} commits the accepted quote. Quoting this way costs no
+ * transaction or notarisation, so any number of carriers can quote on a courier without contending for its state.
+ */
+public class CourierQuoteFlow {
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Submitter extends FlowLogic<CourierQuote> {
+        private static final CourierLogger log = CourierLogger.of(Submitter.class);
+
+        private final String courierId;
+        private final long sharedPrice;
+        private final long dedicatedPrice;
+
+        private final ProgressTracker.Step GENERATING_QUOTE = new ProgressTracker.Step("Generating quote for courier request.");
+        private final ProgressTracker.Step SIGNING_QUOTE = new ProgressTracker.Step("Signing quote with our private key.");
+        private final ProgressTracker.Step SENDING_QUOTE = new ProgressTracker.Step("Sending quote to the requestor.");
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_QUOTE,
+                SIGNING_QUOTE,
+                SENDING_QUOTE
+        );
+
+        /**
+         * Prices are in minor units, see {@link CourierQuote}.
+         */
+        public Submitter(String courierId, long sharedPrice, long dedicatedPrice) {
+            this.courierId = courierId;
+            this.sharedPrice = sharedPrice;
+            this.dedicatedPrice = dedicatedPrice;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public CourierQuote call() throws FlowException {
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            final long flowStarted = System.nanoTime();
+            long stageStarted = flowStarted;
+
+            // Stage 1.
+            progressTracker.setCurrentStep(GENERATING_QUOTE);
+            Party me = getOurIdentity();
+
+            final StateAndRef<CourierState> courierStateStateAndRef = getServiceHub().cordaService(CourierLookupService.class).getUnconsumed(this.courierId);
+            stageStarted = metrics.record(getClass(), FlowMetricsService.VAULT_LOOKUP, stageStarted);
+
+            if (courierStateStateAndRef == null) {
+                throw new FlowException("Invalid courier id");
+            }
+            final CourierState courierState = courierStateStateAndRef.getState().getData();
+            if (!CourierStatus.COURIER_RESPONSE_RECEIVED.canFollow(courierState.getStatus())) {
+                throw new FlowException("Courier is no longer open for quotes");
+            }
+            if (!courierState.getAutoNodes().contains(me)) {
+                throw new FlowException("Courier request was not sent to this carrier");
+            }
+
+            final CourierQuote quote = new CourierQuote(me, this.sharedPrice, this.dedicatedPrice, getServiceHub().getClock().instant());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.GENERATE, stageStarted);
+
+            // Stage 2.
+            progressTracker.setCurrentStep(SIGNING_QUOTE);
+            final SerializationFactory factory = SerializationFactory.Companion.getDefaultFactory();
+            final SerializedBytes<CourierQuoteOffer> offer = SerializationAPIKt.serialize(
+                    new CourierQuoteOffer(this.courierId, quote), factory, factory.getDefaultContext());
+            final DigitalSignature.WithKey signature = getServiceHub().getKeyManagementService().sign(offer.getBytes(), me.getOwningKey());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.SIGN, stageStarted);
+
+            // Stage 3.
+            progressTracker.setCurrentStep(SENDING_QUOTE);
+            // The requestor acknowledges once the quote is stored, or fails the flow with its reason.
+            final FlowSession requestorSession = initiateFlow(courierState.getRequestor());
+            requestorSession.sendAndReceive(Boolean.class, new SignedData<>(offer, signature)).unwrap(stored -> stored);
+            log.debug(this.courierId, SENDING_QUOTE.getLabel(), "Quote sent to {}", courierState.getRequestor());
+
+            metrics.record(getClass(), FlowMetricsService.SEND, stageStarted);
+            metrics.record(getClass(), FlowMetricsService.TOTAL, flowStarted);
+            return quote;
+        }
+    }
+
+    @InitiatedBy(Submitter.class)
+    public static class Receiver extends FlowLogic<Void> {
+        private static final CourierLogger log = CourierLogger.of(Receiver.class);
+
+        private final FlowSession carrierSession;
+
+        public Receiver(FlowSession carrierSession) {
+            this.carrierSession = carrierSession;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final Party carrier = carrierSession.getCounterparty();
+            final SignedData<?> signed = carrierSession.receive(SignedData.class).unwrap(data -> (SignedData<?>) data);
+            final Object verified;
+            try {
+                verified = signed.verified();
+            } catch (SignatureException e) {
+                throw new FlowException("Quote signature is invalid", e);
+            }
+            if (!(verified instanceof CourierQuoteOffer)) {
+                throw new FlowException("Expected a courier quote");
+            }
+            final CourierQuoteOffer offer = (CourierQuoteOffer) verified;
+            if (!carrier.equals(offer.getQuote().getResponder())
+                    || !carrier.getOwningKey().equals(signed.getSig().getBy())) {
+                throw new FlowException("Quote must be made and signed by the carrier sending it");
+            }
+            @SuppressWarnings("unchecked") final SignedData<CourierQuoteOffer> signedOffer = (SignedData<CourierQuoteOffer>) signed;
+
+            final StateAndRef<CourierState> courierStateStateAndRef = getServiceHub().cordaService(CourierLookupService.class).getUnconsumed(offer.getCourierId());
+            if (courierStateStateAndRef == null) {
+                throw new FlowException("Invalid courier id");
+            }
+            final CourierState courierState = courierStateStateAndRef.getState().getData();
+            if (!courierState.getRequestor().equals(getOurIdentity())) {
+                throw new FlowException("Quotes can only be sent to the courier's requestor");
+            }
+            if (!CourierStatus.COURIER_RESPONSE_RECEIVED.canFollow(courierState.getStatus())) {
+                throw new FlowException("Courier is no longer open for quotes");
+            }
+            if (!courierState.getAutoNodes().contains(carrier)) {
+                throw new FlowException("Courier request was not sent to this carrier");
+            }
+
+            // The signed offer is kept, as accepting the quote puts it in the transaction for the contract to check.
+            getServiceHub().cordaService(CourierQuoteStore.class).offer(offer, signedOffer);
+            log.debug(offer.getCourierId(), "Storing quote", "Quote stored from {}", carrier);
+
+            carrierSession.send(true);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.nec.endmile.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.service.CourierPriceStats;
+import com.nec.endmile.service.CourierQuoteQueryService;
+import com.nec.endmile.service.CourierQuoteStore;
+import com.nec.endmile.state.CourierQuoteBook;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public class CourierQuoteQueryFlow {
+
+    /**
+     * Lists the quotes of every unconsumed courier in a status with one query on the courier_quotes table.
+     */
+    @StartableByRPC
+    public static class ByStatus extends FlowLogic<Map<String, CourierQuoteBook>> {
+        private final CourierStatus status;
+
+        public ByStatus(CourierStatus status) {
+            this.status = status;
+        }
+
+        @Suspendable
+        @Override
+        public Map<String, CourierQuoteBook> call() throws FlowException {
+            try {
+                return getServiceHub().cordaService(CourierQuoteQueryService.class).quotesByStatus(status);
+            } catch (SQLException e) {
+                throw new FlowException("Unable to read courier quotes", e);
+            }
+        }
+    }
+
+    /**
+     * Summarises the prices of couriers accepted in [from, to) by route, delivery type and responder, in the database.
+     */
+    @StartableByRPC
+    public static class AcceptedPrices extends FlowLogic<List<CourierPriceStats>> {
+        private final Instant from;
+        private final Instant to;
+
+        public AcceptedPrices(Instant from, Instant to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Suspendable
+        @Override
+        public List<CourierPriceStats> call() throws FlowException {
+            try {
+                return getServiceHub().cordaService(CourierQuoteQueryService.class).acceptedPrices(from, to);
+            } catch (SQLException e) {
+                throw new FlowException("Unable to read accepted courier prices", e);
+            }
+        }
+    }
+
+    /**
+     * Lists the quotes carriers have sent this node off the ledger for a courier it requested.
+     */
+    @StartableByRPC
+    public static class Offered extends FlowLogic<CourierQuoteBook> {
+        private final String courierId;
+
+        public Offered(String courierId) {
+            this.courierId = courierId;
+        }
+
+        @Suspendable
+        @Override
+        public CourierQuoteBook call() throws FlowException {
+            return getServiceHub().cordaService(CourierQuoteStore.class).getOffered(courierId);
+        }
+    }
+}
@@ -5,6 +5,9 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.nec.endmile.config.CourierStatus;
 import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.logging.CourierLogger;
+import com.nec.endmile.service.CourierNetworkService;
+import com.nec.endmile.service.FlowMetricsService;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.UniqueIdentifier;
@@ -14,7 +17,6 @@ import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class CourierRequestFlow {
@@ -23,13 +25,15 @@ public class CourierRequestFlow {
     @InitiatingFlow
     @StartableByRPC
     public static class Initiator extends FlowLogic<SignedTransaction> {
+        private static final CourierLogger log = CourierLogger.of(Initiator.class);
+
         private final int courierLength;
         private final int courierWidth;
         private final int courierHeight;
         private final int courierWeight;
         private final String source;
         private final String destination;
-        private final Party autoNode;
+        private final List<Party> autoNodes;
 
         private final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step("Generating transaction based on new Courier.");
         private final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step("Verifying contract constraints.");
@@ -53,15 +57,21 @@ public class CourierRequestFlow {
         );
 
         public Initiator(int courierLength, int courierWidth, int courierHeight, int courierWeight, String source, String destination, Party autoNode) {
+            this(courierLength, courierWidth, courierHeight, courierWeight, source, destination, ImmutableList.of(autoNode));
+        }
+
+        /**
+         * Sends the request to every given carrier in one transaction. An empty list sends it to every carrier on the
+         * network map.
+         */
+        public Initiator(int courierLength, int courierWidth, int courierHeight, int courierWeight, String source, String destination, List<Party> autoNodes) {
             this.courierLength = courierLength;
             this.courierWidth = courierWidth;
             this.courierHeight = courierHeight;
             this.courierWeight = courierWeight;
             this.source = source;
             this.destination = destination;
-
-
-            this.autoNode = autoNode;
+            this.autoNodes = autoNodes;
         }
 
         @Override
@@ -72,26 +82,25 @@ public class CourierRequestFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            // Obtain a reference to the notary we want to use.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            final long flowStarted = System.nanoTime();
+            long stageStarted = flowStarted;
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
             // Generate an unsigned transaction.
             Party me = getOurIdentity();
 
-            //TODO Change it to create list of initiating party and AUTO nodes.
-            //Right now it's sending to initiating parties also
-            List<Party> autoNodes = new ArrayList<>();
-            autoNodes.add(autoNode);
-
-            System.out.println("List of parties " + autoNodes.size());
-            //ENDS HERE
+            final List<Party> autoNodes = CourierCarriers.resolve(getServiceHub(), me, this.autoNodes);
+            log.debug(null, GENERATING_TRANSACTION.getLabel(), "List of carriers {}", autoNodes.size());
 
             UniqueIdentifier uniqueIdentifier = new UniqueIdentifier();
             CourierState courierState = new CourierState(this.courierLength, this.courierWidth, this.courierHeight, this.courierWeight,
                     this.source, this.destination, me, CourierStatus.COURIER_INITIATED, uniqueIdentifier, uniqueIdentifier.getId().toString(), autoNodes);
 
+            // Obtain a reference to the notary the courier is issued on. Every later transition stays with it.
+            final Party notary = getServiceHub().cordaService(CourierNetworkService.class).getNotary(courierState.getCourierId());
+
             final Command<CourierContract.Commands.CourierPost> txCommand = new Command<>(
                     new CourierContract.Commands.CourierPost(),
                     ImmutableList.of(me.getOwningKey()));
@@ -99,22 +108,28 @@ public class CourierRequestFlow {
                     .addOutputState(courierState, CourierContract.CONTRACT_ID)
                     .addCommand(txCommand);
 
+            stageStarted = metrics.record(getClass(), FlowMetricsService.GENERATE, stageStarted);
             // Stage 2.
             progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
             // Verify that the transaction is valid.
             txBuilder.verify(getServiceHub());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.VERIFY, stageStarted);
 
             // Stage 3.
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction signedTx = getServiceHub().signInitialTransaction(txBuilder);
+            stageStarted = metrics.record(getClass(), FlowMetricsService.SIGN, stageStarted);
 
 
             // Stage 4
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            System.out.println(FINALISING_TRANSACTION.getLabel());
+            log.debug(courierState.getCourierId(), FINALISING_TRANSACTION.getLabel(), "Finalising courier request");
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(signedTx));
+            final SignedTransaction finalTx = subFlow(new FinalityFlow(signedTx));
+            metrics.record(getClass(), FlowMetricsService.FINALITY, stageStarted);
+            metrics.record(getClass(), FlowMetricsService.TOTAL, flowStarted);
+            return finalTx;
         }
     }
 
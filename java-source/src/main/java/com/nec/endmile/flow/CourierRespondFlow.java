@@ -5,22 +5,23 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.nec.endmile.config.CourierStatus;
 import com.nec.endmile.contract.CourierContract;
-import com.nec.endmile.schema.CourierSchemaV1;
+import com.nec.endmile.logging.CourierLogger;
+import com.nec.endmile.service.CourierLockedException;
+import com.nec.endmile.service.CourierLookupService;
+import com.nec.endmile.service.FlowMetricsService;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.StateAndRef;
-import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.Builder;
-import net.corda.core.node.services.vault.CriteriaExpression;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.lang.reflect.Field;
 import java.util.*;
 
 public class CourierRespondFlow {
@@ -29,10 +30,11 @@ public class CourierRespondFlow {
     @InitiatingFlow
     @StartableByRPC
     public static class Responder extends FlowLogic<SignedTransaction> {
+        private static final CourierLogger log = CourierLogger.of(Responder.class);
+
         private final String courierId;
-        private final String sharedPrice;
-        private final String dedicatedPrice;
-        private final String responder;
+        private final long sharedPrice;
+        private final long dedicatedPrice;
 
 
         private final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step("Generating transaction for courier response.");
@@ -56,11 +58,14 @@ public class CourierRespondFlow {
                 FINALISING_TRANSACTION
         );
 
-        public Responder(String courierId, String sharedPrice, String dedicatedPrice,String responder) {
+        /**
+         * @param sharedPrice    shared delivery price in minor units, see {@link CourierQuote#parsePrice}
+         * @param dedicatedPrice dedicated delivery price in minor units
+         */
+        public Responder(String courierId, long sharedPrice, long dedicatedPrice) {
             this.courierId = courierId;
             this.sharedPrice = sharedPrice;
             this.dedicatedPrice = dedicatedPrice;
-            this.responder=responder;
         }
 
         @Override
@@ -71,97 +76,99 @@ public class CourierRespondFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            // Obtain a reference to the notary we want to use.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
-
-            // Stage 1.
-            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
-            // Generate an unsigned transaction.
-            Party me = getOurIdentity();
-
-            //Vault query
-            QueryCriteria.VaultQueryCriteria criteria = new QueryCriteria.VaultQueryCriteria();
-
-            Field courierIDField;
-            try {
-                courierIDField = CourierSchemaV1.PersistentCourier.class.getDeclaredField("courierId");
-            } catch (NoSuchFieldException e) {
-                throw new FlowException("No field name linearId present in courier schema");
-            }
-            CriteriaExpression courierIndex = Builder.equal(courierIDField, this.courierId);
-            QueryCriteria courierIDCriteria = new QueryCriteria.VaultCustomQueryCriteria<>(courierIndex);
-
-            criteria.and(courierIDCriteria);
-
-            Vault.Page<CourierState> queryResult = getServiceHub().getVaultService().queryBy(CourierState.class, criteria);
-            List<StateAndRef<CourierState>> couriers = queryResult.getStates();
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            final long flowStarted = System.nanoTime();
+            long stageStarted = flowStarted;
 
 
-            if (couriers == null) {
-                throw new FlowException("No couriers present in ledger");
-            }
-
-            CourierState courierState = null;
-            StateAndRef<CourierState> courierStateStateAndRef = null;
-            for (StateAndRef<CourierState> temp : couriers) {
-                if (temp.getState().getData().getCourierId().equals(this.courierId)) {
-                    courierStateStateAndRef = temp;
-                    courierState = temp.getState().getData();
+            Party me = getOurIdentity();
+            final CourierQuote quote = new CourierQuote(me, this.sharedPrice, this.dedicatedPrice, getServiceHub().getClock().instant());
+
+            // Another carrier quoting at the same time may consume the courier first. The loser parks until the winner's
+            // transaction reaches its vault, re-resolves the courier, merges its quote again and retries. A conflict that
+            // does not name the winner leaves nothing to park on, so it goes back to the caller as a 409 instead.
+            StateRef conflictedRef = null;
+            for (int attempt = 1; ; attempt++) {
+                // Stage 1.
+                progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+                // Generate an unsigned transaction.
+
+                // Resolve and reserve the current courier state from the node-local courierId index.
+                final StateAndRef<CourierState> courierStateStateAndRef = getServiceHub().cordaService(CourierLookupService.class).reserveUnconsumed(this.courierId, getRunId().getUuid());
+                stageStarted = metrics.record(getClass(), FlowMetricsService.VAULT_LOOKUP, stageStarted);
+
+                if (courierStateStateAndRef == null) {
+                    throw new FlowException("Invalid courier id");
                 }
+                if (courierStateStateAndRef.getRef().equals(conflictedRef)) {
+                    // The winning transaction is recorded, yet the lookup still resolves the state it consumed, so
+                    // re-querying would only conflict again.
+                    throw new CourierLockedException("Courier " + this.courierId + " is still being updated by another flow");
+                }
+                final CourierState courierState = courierStateStateAndRef.getState().getData();
+                log.debug(this.courierId, GENERATING_TRANSACTION.getLabel(), "Courier input state {}", courierState);
+
+                final CourierQuoteBook responses = courierState.getResponses().withQuote(quote);
+
+                // Every carrier the request went to keeps seeing the courier, so the others can still quote on it.
+                CourierState courierOutputState = new CourierState(courierState.getCourierLength(), courierState.getCourierWidth(), courierState.getCourierHeight(), courierState.getCourierWeight(),
+                        courierState.getSource(), courierState.getDestination(), courierState.getRequestor(), CourierStatus.COURIER_RESPONSE_RECEIVED, courierState.getLinearId(), courierState.getCourierId(), responses, courierState.getAutoNodes(),
+                        quote);
+
+
+                final Command<CourierContract.Commands.CourierRate> txCommand = new Command<>(
+                        new CourierContract.Commands.CourierRate(),
+                        ImmutableList.of(me.getOwningKey()));
+
+                // The courier stays with the notary it was issued on.
+                final TransactionBuilder txBuilder = new TransactionBuilder(courierStateStateAndRef.getState().getNotary())
+                        .addInputState(courierStateStateAndRef)
+                        .addOutputState(courierOutputState, CourierContract.CONTRACT_ID)
+                        .addCommand(txCommand);
+
+                stageStarted = metrics.record(getClass(), FlowMetricsService.GENERATE, stageStarted);
+                // Stage 2.
+                progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+                // Verify that the transaction is valid.
+                txBuilder.verify(getServiceHub());
+                stageStarted = metrics.record(getClass(), FlowMetricsService.VERIFY, stageStarted);
+
+                // Stage 3.
+                progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+                // Sign the transaction.
+                final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+                stageStarted = metrics.record(getClass(), FlowMetricsService.SIGN, stageStarted);
+
+
+                // Stage 4
+                progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+                // Notarise and record the transaction in both parties' vaults.
+                final SignedTransaction finalTx;
+                try {
+                    finalTx = subFlow(new FinalityFlow(partSignedTx));
+                } catch (NotaryException e) {
+                    if (!NotaryConflictRetry.isConflict(e)) {
+                        throw e;
+                    }
+                    conflictedRef = courierStateStateAndRef.getRef();
+                    final SecureHash winner = NotaryConflictRetry.consumingTransaction(e, conflictedRef);
+                    final boolean exhausted = attempt >= NotaryConflictRetry.MAX_ATTEMPTS;
+                    metrics.recordConflict(getClass(), exhausted || winner == null);
+                    if (exhausted) {
+                        throw e;
+                    }
+                    if (winner == null) {
+                        throw new CourierLockedException("Courier " + this.courierId + " was updated by another flow");
+                    }
+                    log.warn(this.courierId, FINALISING_TRANSACTION.getLabel(), "Notary conflict on attempt {}, retrying", attempt);
+                    waitForLedgerCommit(winner);
+                    stageStarted = System.nanoTime();
+                    continue;
+                }
+                metrics.record(getClass(), FlowMetricsService.FINALITY, stageStarted);
+                metrics.record(getClass(), FlowMetricsService.TOTAL, flowStarted);
+                return finalTx;
             }
-
-            if (courierState == null) {
-                throw new FlowException("Invalid courier id");
-            }else{
-                System.out.println("Courier input state"+courierState);
-            }
-
-            Map<String, String> responses = new LinkedHashMap<>();;
-            if (courierState.getResponses() != null) {
-
-                responses.putAll(courierState.getResponses());
-            }
-
-
-            responses = CourierState.addResponse(responses, responder, this.sharedPrice ,this.dedicatedPrice);
-
-
-            //TODO Change it to create list of initiating party and AUTO nodes.
-            //Right now it's sending to initiating parties also
-            List<Party> autoNodes = new ArrayList<>();
-            autoNodes.add(me);
-
-            System.out.println("List of auto nodes " + autoNodes.size());
-            //ENDS HERE
-
-            CourierState courierOutputState = new CourierState(courierState.getCourierLength(), courierState.getCourierWidth(), courierState.getCourierHeight(), courierState.getCourierWeight(),
-                    courierState.getSource(), courierState.getDestination(), courierState.getRequestor(), CourierStatus.COURIER_RESPONSE_RECEIVED, new UniqueIdentifier(), courierState.getCourierId(), responses,autoNodes);
-
-
-            final Command<CourierContract.Commands.CourierRate> txCommand = new Command<>(
-                    new CourierContract.Commands.CourierRate(),
-                    ImmutableList.of(me.getOwningKey()));
-
-            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
-                    .addInputState(courierStateStateAndRef)
-                    .addOutputState(courierOutputState, CourierContract.CONTRACT_ID)
-                    .addCommand(txCommand);
-
-            // Stage 2.
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-            // Verify that the transaction is valid.
-            txBuilder.verify(getServiceHub());
-
-            // Stage 3.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
-            // Sign the transaction.
-            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
-
-
-            // Stage 4
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(partSignedTx));
         }
     }
 
@@ -4,24 +4,17 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.nec.endmile.config.CourierStatus;
 import com.nec.endmile.contract.CourierContract;
-import com.nec.endmile.schema.CourierSchemaV1;
+import com.nec.endmile.service.CourierLookupService;
+import com.nec.endmile.service.FlowMetricsService;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.StateAndRef;
-import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.Builder;
-import net.corda.core.node.services.vault.CriteriaExpression;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.lang.reflect.Field;
-import java.util.List;
-
 public class CourierResponderCancelFlow {
     @InitiatingFlow
     @StartableByRPC
@@ -60,47 +53,29 @@ public class CourierResponderCancelFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            // Obtain a reference to the notary we want to use.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            final long flowStarted = System.nanoTime();
+            long stageStarted = flowStarted;
+
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
             // Generate an unsigned transaction.
             Party me = getOurIdentity();
 
-            // Fetch existing courierState
-            QueryCriteria.VaultQueryCriteria criteria = new QueryCriteria.VaultQueryCriteria();
-            Field courierIdField;
-            try {
-                courierIdField = CourierSchemaV1.PersistentCourier.class.getDeclaredField("courierId");
-            } catch(NoSuchFieldException e) {
-                throw new FlowException("courierId not present in schema");
-            }
-
-            CriteriaExpression courierIndex = Builder.equal(courierIdField, this.courierId);
-            QueryCriteria courierIdCriteria = new QueryCriteria.VaultCustomQueryCriteria<>(courierIndex);
-            courierIdCriteria.and(courierIdCriteria);
-
-            Vault.Page<CourierState> queryResult = getServiceHub().getVaultService().queryBy(CourierState.class, criteria);
-            List<StateAndRef<CourierState>> couriers = queryResult.getStates();
-
-            CourierState courierState = null;
-            StateAndRef<CourierState> courierStateStateAndRef = null;
-            for(StateAndRef<CourierState> temp : couriers) {
-                if(temp.getState().getData().getCourierId().equals(courierId)) {
-                    courierState = temp.getState().getData();
-                    courierStateStateAndRef = temp;
-                }
-            }
+            // Fetch and reserve existing courierState from the node-local courierId index
+            final StateAndRef<CourierState> courierStateStateAndRef = getServiceHub().cordaService(CourierLookupService.class).reserveUnconsumed(courierId, getRunId().getUuid());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.VAULT_LOOKUP, stageStarted);
 
-            if(courierState == null) {
+            if(courierStateStateAndRef == null) {
                 throw new FlowException("Courier not present in state");
             }
+            final CourierState courierState = courierStateStateAndRef.getState().getData();
 
             // Create output state
             CourierState courierOutputState = new CourierState(courierState.getCourierLength(), courierState.getCourierWidth(), courierState.getCourierHeight(),
                     courierState.getCourierWeight(), courierState.getCourierReceiptHash(), courierState.getSource(), courierState.getDestination(), courierState.getRequestor(),
-                    courierState.getAcceptedResponder(), courierState.getFinalQuotedPrice(), courierState.getFinalDeliveryType(), CourierStatus.COURIER_RESPONDER_CANCELLED, new UniqueIdentifier(),
+                    courierState.getAcceptedResponder(), courierState.getFinalQuotedPrice(), courierState.getFinalDeliveryType(), CourierStatus.COURIER_RESPONDER_CANCELLED, courierState.getLinearId(),
                     courierState.getResponses(), courierState.getCourierId(), courierState.getAutoNodes());
 
             Command<CourierContract.Commands.CourierCancelByResponder> txCommand = new Command<>(
@@ -108,25 +83,32 @@ public class CourierResponderCancelFlow {
                     ImmutableList.of(me.getOwningKey()));
 
             // Build transaction
-            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+            // The courier stays with the notary it was issued on.
+            final TransactionBuilder txBuilder = new TransactionBuilder(courierStateStateAndRef.getState().getNotary())
                     .addInputState(courierStateStateAndRef)
                     .addOutputState(courierOutputState, CourierContract.CONTRACT_ID)
                     .addCommand(txCommand);
 
+            stageStarted = metrics.record(getClass(), FlowMetricsService.GENERATE, stageStarted);
             // Stage 2.
             progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
             // Verify that the transaction is valid.
             txBuilder.verify(getServiceHub());
+            stageStarted = metrics.record(getClass(), FlowMetricsService.VERIFY, stageStarted);
 
             // Stage 3.
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            stageStarted = metrics.record(getClass(), FlowMetricsService.SIGN, stageStarted);
 
             // Stage 4
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(partSignedTx));
+            final SignedTransaction finalTx = subFlow(new FinalityFlow(partSignedTx));
+            metrics.record(getClass(), FlowMetricsService.FINALITY, stageStarted);
+            metrics.record(getClass(), FlowMetricsService.TOTAL, flowStarted);
+            return finalTx;
         }
     }
 }
@@ -0,0 +1,47 @@
+package com.nec.endmile.flow;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.node.services.UniquenessProvider;
+
+import java.security.SignatureException;
+
+/**
+ * Bounded retry for flows that lose a race for a courier state at the notary.
+ * <p>
+ * The loser does not sleep, as a Corda 3 flow cannot park its fiber outside the flow framework. It parks on the
+ * winning transaction, named in the notary's conflict, until that is recorded in its vault, and retries on the state
+ * that transaction produced. It never re-queries without parking: a conflict that does not name the winner, or a
+ * retry that still resolves the consumed state, is handed back to the caller at once, as is the conflict once
+ * {@link #MAX_ATTEMPTS} are used up. The web API answers all of them with 409.
+ */
+final class NotaryConflictRetry {
+    static final int MAX_ATTEMPTS = 5;
+
+    private NotaryConflictRetry() {
+    }
+
+    /**
+     * Whether the notary rejected the transaction because another transaction had already consumed its input.
+     */
+    static boolean isConflict(NotaryException e) {
+        return e.getError() instanceof NotaryError.Conflict;
+    }
+
+    /**
+     * Returns the id of the transaction that consumed the state, as the notary signed it in the conflict, or null if
+     * the conflict does not name it.
+     */
+    static SecureHash consumingTransaction(NotaryException e, StateRef consumed) {
+        final UniquenessProvider.Conflict conflict;
+        try {
+            conflict = ((NotaryError.Conflict) e.getError()).getConflict().verified();
+        } catch (SignatureException ex) {
+            return null;
+        }
+        final UniquenessProvider.ConsumingTx consumingTx = conflict.getStateHistory().get(consumed);
+        return consumingTx == null ? null : consumingTx.getId();
+    }
+}
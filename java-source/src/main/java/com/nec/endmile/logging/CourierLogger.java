@@ -0,0 +1,84 @@
+package com.nec.endmile.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Logging facade for the courier flows.
+ * <p>
+ * Every message carries the flow, courierId and step as MDC fields, which the log4j2 pattern renders as
+ * key=value pairs. Each call is guarded by the level check and takes fixed arguments, so a disabled level costs no
+ * string building, no varargs array and no MDC updates. The fields are set and cleared around the single call, as
+ * a flow fiber may resume on another thread between log statements.
+ */
+public final class CourierLogger {
+    public static final String FLOW = "flow";
+    public static final String COURIER_ID = "courierId";
+    public static final String STEP = "step";
+
+    private final Logger logger;
+    private final String flow;
+
+    private CourierLogger(Class<?> flowClass) {
+        this.logger = LoggerFactory.getLogger(flowClass);
+        this.flow = flowClass.getName().substring(flowClass.getPackage().getName().length() + 1);
+    }
+
+    public static CourierLogger of(Class<?> flowClass) {
+        return new CourierLogger(flowClass);
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public void debug(String courierId, String step, String message) {
+        if (logger.isDebugEnabled()) {
+            putFields(courierId, step);
+            try {
+                logger.debug(message);
+            } finally {
+                clearFields();
+            }
+        }
+    }
+
+    public void debug(String courierId, String step, String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            putFields(courierId, step);
+            try {
+                logger.debug(format, arg);
+            } finally {
+                clearFields();
+            }
+        }
+    }
+
+    public void warn(String courierId, String step, String format, Object arg) {
+        if (logger.isWarnEnabled()) {
+            putFields(courierId, step);
+            try {
+                logger.warn(format, arg);
+            } finally {
+                clearFields();
+            }
+        }
+    }
+
+    private void putFields(String courierId, String step) {
+        MDC.put(FLOW, flow);
+        if (courierId != null) {
+            MDC.put(COURIER_ID, courierId);
+        }
+        if (step != null) {
+            MDC.put(STEP, step);
+        }
+    }
+
+    private static void clearFields() {
+        MDC.remove(FLOW);
+        MDC.remove(COURIER_ID);
+        MDC.remove(STEP);
+    }
+}
@@ -6,6 +6,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.nec.endmile.api.CourierApi1;
 import com.nec.endmile.api.CourierApi2;
+import com.nec.endmile.api.FlowRegistry;
+import com.nec.endmile.api.IdempotencyKeys;
+import com.nec.endmile.api.NetworkCache;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.webserver.services.WebServerPluginRegistry;
 
@@ -14,10 +17,22 @@ import java.util.Map;
 import java.util.function.Function;
 
 public class APIPlugin implements WebServerPluginRegistry {
+    /**
+     * Flows started through the web APIs, shared so either API can report on them.
+     */
+    private final FlowRegistry flowRegistry = new FlowRegistry();
+
+    /**
+     * Idempotency-Keys seen by the command endpoints, shared so a key is honoured whichever API it is sent to.
+     */
+    private IdempotencyKeys idempotencyKeys;
+
     /**
      * A list of classes that expose web APIs.
      */
-    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(CourierApi1::new, CourierApi2::new);
+    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(
+            rpcOps -> new CourierApi1(rpcOps, flowRegistry, new NetworkCache(rpcOps), idempotencyKeys(rpcOps)),
+            rpcOps -> new CourierApi2(rpcOps, flowRegistry, idempotencyKeys(rpcOps)));
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
@@ -27,6 +42,13 @@ public class APIPlugin implements WebServerPluginRegistry {
             "example", getClass().getClassLoader().getResource("exampleWeb").toExternalForm()
     );
 
+    private synchronized IdempotencyKeys idempotencyKeys(CordaRPCOps rpcOps) {
+        if (idempotencyKeys == null) {
+            idempotencyKeys = new IdempotencyKeys(rpcOps);
+        }
+        return idempotencyKeys;
+    }
+
     @Override public List<Function<CordaRPCOps, ?>> getWebApis() { return webApis; }
     @Override public Map<String, String> getStaticServeDirs() { return staticServeDirs; }
     @Override public void customizeJSONSerialization(ObjectMapper objectMapper) { }
@@ -0,0 +1,6 @@
+package com.nec.endmile.schema;
+
+/**
+ * The family of schemas for the Idempotency-Keys sent to the web API.
+ */
+public class CourierIdempotencySchema { }
@@ -0,0 +1,163 @@
+package com.nec.endmile.schema;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * The courier_idempotency_keys table, with one row per command sent with an Idempotency-Key.
+ * <p>
+ * Keys are not states: they are neither shared nor part of any transaction. The table is still mapped here so the
+ * node creates it with the rest of the cordapp's schema, rather than the API creating it on first use. A key is
+ * scoped by the endpoint it was sent to, and holds a hash of the request, so a key reused for a different request can
+ * be told apart from a retry. status is null while the command's flow has yet to end.
+ */
+public class CourierIdempotencySchemaV1 extends MappedSchema {
+    public static final int MAX_ENDPOINT_LENGTH = 64;
+    public static final int MAX_KEY_LENGTH = 255;
+    public static final int MAX_ERROR_LENGTH = 1024;
+
+    public CourierIdempotencySchemaV1() {
+        super(CourierIdempotencySchema.class, 1, ImmutableList.of(PersistentIdempotencyKey.class));
+    }
+
+    @Entity
+    @Table(name = "courier_idempotency_keys",
+            indexes = {@Index(name = "courier_idempotency_created_at_idx", columnList = "created_at")})
+    public static class PersistentIdempotencyKey {
+        @EmbeddedId
+        private final PersistentKey id;
+        @Column(name = "multiple", nullable = false)
+        private final boolean multiple;
+        @Column(name = "request_hash", length = 64, nullable = false)
+        private final String requestHash;
+        @Column(name = "flow_id", length = 36)
+        private final String flowId;
+        @Column(name = "status", length = 16)
+        private final String status;
+        @Column(name = "transaction_id", length = 64)
+        private final String transactionId;
+        @Column(name = "error", length = MAX_ERROR_LENGTH)
+        private final String error;
+        @Column(name = "created_at", nullable = false)
+        private final Instant createdAt;
+
+        public PersistentIdempotencyKey(PersistentKey id, boolean multiple, String requestHash, String flowId, String status,
+                                        String transactionId, String error, Instant createdAt) {
+            this.id = id;
+            this.multiple = multiple;
+            this.requestHash = requestHash;
+            this.flowId = flowId;
+            this.status = status;
+            this.transactionId = transactionId;
+            this.error = error;
+            this.createdAt = createdAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentIdempotencyKey() {
+            this.id = null;
+            this.multiple = false;
+            this.requestHash = null;
+            this.flowId = null;
+            this.status = null;
+            this.transactionId = null;
+            this.error = null;
+            this.createdAt = null;
+        }
+
+        public PersistentKey getId() {
+            return id;
+        }
+
+        public boolean isMultiple() {
+            return multiple;
+        }
+
+        public String getRequestHash() {
+            return requestHash;
+        }
+
+        public String getFlowId() {
+            return flowId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public Instant getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    /**
+     * A command is identified by the endpoint the key was sent to, the key and the command's index in the request.
+     */
+    @Embeddable
+    public static class PersistentKey implements Serializable {
+        @Column(name = "endpoint", length = MAX_ENDPOINT_LENGTH, nullable = false)
+        private final String endpoint;
+        @Column(name = "idempotency_key", length = MAX_KEY_LENGTH, nullable = false)
+        private final String idempotencyKey;
+        @Column(name = "command_index", nullable = false)
+        private final int commandIndex;
+
+        public PersistentKey(String endpoint, String idempotencyKey, int commandIndex) {
+            this.endpoint = endpoint;
+            this.idempotencyKey = idempotencyKey;
+            this.commandIndex = commandIndex;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentKey() {
+            this.endpoint = null;
+            this.idempotencyKey = null;
+            this.commandIndex = 0;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public String getIdempotencyKey() {
+            return idempotencyKey;
+        }
+
+        public int getCommandIndex() {
+            return commandIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PersistentKey that = (PersistentKey) o;
+            return commandIndex == that.commandIndex &&
+                    Objects.equals(endpoint, that.endpoint) &&
+                    Objects.equals(idempotencyKey, that.idempotencyKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, idempotencyKey, commandIndex);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.nec.endmile.schema;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinColumns;
+import javax.persistence.OneToMany;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An CourierState schema with quotes normalised into their own table.
+ * <p>
+ * The quote book is not copied onto every courier row. Each quote is written once to courier_quotes, by the state
+ * whose transition added it, so the table is an append-only log keyed by courier_id.
+ * <p>
+ * This schema replaces CourierSchemaV1, which is no longer mapped. Upgrading leaves its courier_states and
+ * courier_states_responses tables in place but no longer written; drop them once nothing reads them. Couriers
+ * recorded before the upgrade have no courier_states_v2 row, and the API does not see them until their next
+ * transition is recorded, so finish or cancel open couriers before upgrading a node that has any.
+ * <p>
+ * The upgrade is also a hard break of the states' wire shape, not only of their tables. CourierState now carries
+ * status and delivery type as enums rather than strings and its quotes as a CourierQuoteBook rather than a map, and
+ * there is no legacy state class or contract upgrade to read the old shape. A node on the old cordapp cannot
+ * deserialise a transaction from an upgraded one, nor the reverse, and a courier recorded in the old shape cannot be
+ * moved on after the upgrade. Upgrade every node of the network together on a flag day, once the ledger has been
+ * drained of open couriers.
+ * <p>
+ * Every column the API filters on is indexed. courier_id cannot be declared unique, as each version of a courier
+ * has its own row, and whether a row is unconsumed is only known from vault_states.
+ */
+public class CourierSchemaV2 extends MappedSchema {
+    public CourierSchemaV2() {
+        super(CourierSchema.class, 2, ImmutableList.of(PersistentCourier.class, PersistentQuote.class));
+    }
+
+    @Entity
+    @Table(name = "courier_states_v2",
+            indexes = {@Index(name = "courier_v2_id_idx", columnList = "courier_id"),
+                    @Index(name = "courier_v2_status_idx", columnList = "status"),
+                    @Index(name = "courier_v2_requestor_idx", columnList = "requestor"),
+                    @Index(name = "courier_v2_accepted_responder_idx", columnList = "accepted_responder"),
+                    @Index(name = "courier_v2_route_idx", columnList = "source,destination")})
+    public static class PersistentCourier extends PersistentState {
+        @Column(name = "courier_length")
+        private final int courierLength;
+        @Column(name = "courier_width")
+        private final int courierWidth;
+        @Column(name = "courier_height")
+        private final int courierHeight;
+        @Column(name = "courier_weight")
+        private final int courierWeight;
+        @Column(name = "courier_receipt_hash")
+        private final String courierReceiptHash;
+        @Column(name = "source")
+        private final String source;
+        @Column(name = "destination")
+        private final String destination;
+        @Column(name = "requestor")
+        private final String requestor;
+        @Column(name = "accepted_responder")
+        private final String acceptedResponder;
+        @Column(name = "final_quoted_price")
+        private final Long finalQuotedPrice;
+        @Column(name = "final_delivery_type")
+        private final String finalDeliveryType;
+        @Column(name = "status")
+        private final short status;
+        @Column(name = "linear_id")
+        private final UUID linearId;
+        @Column(name = "courier_id")
+        private final String courierId;
+        @OneToMany(cascade = CascadeType.PERSIST, fetch = FetchType.LAZY)
+        @JoinColumns({
+                @JoinColumn(name = "transaction_id", referencedColumnName = "transaction_id"),
+                @JoinColumn(name = "output_index", referencedColumnName = "output_index")
+        })
+        private final List<PersistentQuote> quotes;
+
+
+        public PersistentCourier(int courierLength, int courierWidth, int courierHeight, int courierWeight, String courierReceiptHash, String source, String destination, String requestor, String acceptedResponder,
+                                 Long finalQuotedPrice, String finalDeliveryType, short status, UUID linearId,
+                                 String courierId, List<PersistentQuote> quotes) {
+            this.courierLength = courierLength;
+            this.courierWidth = courierWidth;
+            this.courierHeight = courierHeight;
+            this.courierWeight = courierWeight;
+            this.courierReceiptHash = courierReceiptHash;
+            this.source = source;
+            this.destination = destination;
+            this.requestor = requestor;
+            this.acceptedResponder = acceptedResponder;
+            this.finalQuotedPrice = finalQuotedPrice;
+            this.finalDeliveryType = finalDeliveryType;
+            this.status = status;
+            this.linearId = linearId;
+            this.courierId = courierId;
+            this.quotes = quotes;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentCourier() {
+            this.courierLength = 0;
+            this.courierWidth = 0;
+            this.courierHeight = 0;
+            this.courierWeight = 0;
+            this.courierReceiptHash = null;
+            this.source = null;
+            this.destination = null;
+            this.requestor = null;
+            this.acceptedResponder = null;
+            this.finalQuotedPrice = null;
+            this.finalDeliveryType = null;
+            this.status = 0;
+            this.linearId = null;
+            this.courierId = null;
+            this.quotes = null;
+        }
+
+        public int getCourierLength() {
+            return courierLength;
+        }
+
+        public int getCourierWidth() {
+            return courierWidth;
+        }
+
+        public int getCourierHeight() {
+            return courierHeight;
+        }
+
+        public int getCourierWeight() {
+            return courierWeight;
+        }
+
+        public String getCourierReceiptHash() {
+            return courierReceiptHash;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public String getRequestor() {
+            return requestor;
+        }
+
+        public String getAcceptedResponder() {
+            return acceptedResponder;
+        }
+
+        public Long getFinalQuotedPrice() {
+            return finalQuotedPrice;
+        }
+
+        public String getFinalDeliveryType() {
+            return finalDeliveryType;
+        }
+
+        public short getStatus() {
+            return status;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public String getCourierId() {
+            return courierId;
+        }
+
+        public List<PersistentQuote> getQuotes() {
+            return quotes;
+        }
+    }
+
+    /**
+     * A single quote, written by the courier state that added it. Prices are in minor units.
+     */
+    @Entity
+    @Table(name = "courier_quotes",
+            indexes = {@Index(name = "courier_quotes_courier_id_idx", columnList = "courier_id"),
+                    @Index(name = "courier_quotes_responder_idx", columnList = "responder")})
+    public static class PersistentQuote {
+        @Id
+        @GeneratedValue
+        @Column(name = "quote_id", unique = true, nullable = false)
+        private Long quoteId;
+        @Column(name = "courier_id", nullable = false)
+        private final String courierId;
+        @Column(name = "responder", nullable = false)
+        private final String responder;
+        @Column(name = "shared_price", nullable = false)
+        private final long sharedPrice;
+        @Column(name = "dedicated_price", nullable = false)
+        private final long dedicatedPrice;
+        @Column(name = "created_at", nullable = false)
+        private final Instant createdAt;
+
+        public PersistentQuote(String courierId, String responder, long sharedPrice, long dedicatedPrice, Instant createdAt) {
+            this.courierId = courierId;
+            this.responder = responder;
+            this.sharedPrice = sharedPrice;
+            this.dedicatedPrice = dedicatedPrice;
+            this.createdAt = createdAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentQuote() {
+            this.courierId = null;
+            this.responder = null;
+            this.sharedPrice = 0;
+            this.dedicatedPrice = 0;
+            this.createdAt = null;
+        }
+
+        public Long getQuoteId() {
+            return quoteId;
+        }
+
+        public String getCourierId() {
+            return courierId;
+        }
+
+        public String getResponder() {
+            return responder;
+        }
+
+        public long getSharedPrice() {
+            return sharedPrice;
+        }
+
+        public long getDedicatedPrice() {
+            return dedicatedPrice;
+        }
+
+        public Instant getCreatedAt() {
+            return createdAt;
+        }
+    }
+}
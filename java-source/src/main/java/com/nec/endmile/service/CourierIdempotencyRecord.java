@@ -0,0 +1,74 @@
+package com.nec.endmile.service;
+
+import net.corda.core.serialization.CordaSerializable;
+
+import java.time.Instant;
+
+/**
+ * What one command sent with an Idempotency-Key became: the request it came in, and, once its flow has ended, the
+ * flow and how it ended. A request carrying several commands has one record per command, by index.
+ */
+@CordaSerializable
+public class CourierIdempotencyRecord {
+    private final int commandIndex;
+    private final boolean multiple;
+    private final String requestHash;
+    private final String flowId;
+    private final String status;
+    private final String transactionId;
+    private final String error;
+    private final Instant createdAt;
+
+    public CourierIdempotencyRecord(int commandIndex, boolean multiple, String requestHash, String flowId, String status,
+                                    String transactionId, String error, Instant createdAt) {
+        this.commandIndex = commandIndex;
+        this.multiple = multiple;
+        this.requestHash = requestHash;
+        this.flowId = flowId;
+        this.status = status;
+        this.transactionId = transactionId;
+        this.error = error;
+        this.createdAt = createdAt;
+    }
+
+    public int getCommandIndex() {
+        return commandIndex;
+    }
+
+    /**
+     * Whether the key was sent with a request carrying an array of commands.
+     */
+    public boolean isMultiple() {
+        return multiple;
+    }
+
+    /**
+     * Hash of the request the key was first sent with.
+     */
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public String getFlowId() {
+        return flowId;
+    }
+
+    /**
+     * How the command's flow ended, or null while it has yet to.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+}
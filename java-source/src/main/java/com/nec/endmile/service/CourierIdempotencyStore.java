@@ -0,0 +1,156 @@
+package com.nec.endmile.service;
+
+import com.nec.endmile.schema.CourierIdempotencySchemaV1;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Node-local table of Idempotency-Keys sent to the web API, so a retried command is answered with the flow the first
+ * attempt started, even after the webserver has restarted.
+ * <p>
+ * The table is mapped by {@link CourierIdempotencySchemaV1}, and created by the node along with the cordapp's schema. Keys
+ * are kept for {@link #TTL} and expired as new ones are claimed. Must be called from within a flow, as it uses the
+ * flow's JDBC session.
+ */
+@CordaService
+public class CourierIdempotencyStore extends SingletonSerializeAsToken {
+    public static final Duration TTL = Duration.ofHours(24);
+    public static final int MAX_KEY_LENGTH = CourierIdempotencySchemaV1.MAX_KEY_LENGTH;
+
+    private static final String FIND = "SELECT command_index, multiple, request_hash, flow_id, status, transaction_id, error, created_at" +
+            " FROM courier_idempotency_keys WHERE endpoint = ? AND idempotency_key = ? AND created_at >= ? ORDER BY command_index";
+    private static final String INSERT = "INSERT INTO courier_idempotency_keys" +
+            " (endpoint, idempotency_key, command_index, multiple, request_hash, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String COMPLETE = "UPDATE courier_idempotency_keys SET flow_id = ?, status = ?, transaction_id = ?, error = ?" +
+            " WHERE endpoint = ? AND idempotency_key = ? AND command_index = ?";
+    private static final String RELEASE = "DELETE FROM courier_idempotency_keys WHERE endpoint = ? AND idempotency_key = ?";
+    private static final String EXPIRE = "DELETE FROM courier_idempotency_keys WHERE created_at < ?";
+
+    private final AppServiceHub serviceHub;
+
+    public CourierIdempotencyStore(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * Claims the key for a request of the given number of commands and returns an empty list, or, if the key was
+     * already claimed and has not expired, leaves it as it is and returns its records in command order.
+     * <p>
+     * Two claims of a new key can both find it unclaimed. The one whose insert then hits the other's rows is answered
+     * with those rows, read again after rolling the insert back to a savepoint.
+     *
+     * @throws SQLException if the key could not be claimed, including when the rows of a concurrent claim of it are
+     *                      not yet visible to this transaction. The key must not be treated as claimed.
+     */
+    public List<CourierIdempotencyRecord> claim(String endpoint, String key, String requestHash, int commands, boolean multiple)
+            throws SQLException {
+        final Instant now = serviceHub.getClock().instant();
+        final Timestamp expiry = Timestamp.from(now.minus(TTL));
+        try (PreparedStatement statement = serviceHub.jdbcSession().prepareStatement(EXPIRE)) {
+            statement.setTimestamp(1, expiry);
+            statement.executeUpdate();
+        }
+
+        final List<CourierIdempotencyRecord> records = find(endpoint, key, expiry);
+        if (!records.isEmpty()) {
+            return records;
+        }
+
+        final Connection connection = serviceHub.jdbcSession();
+        final Savepoint beforeInsert = connection.setSavepoint();
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            for (int i = 0; i < commands; i++) {
+                statement.setString(1, endpoint);
+                statement.setString(2, key);
+                statement.setInt(3, i);
+                statement.setBoolean(4, multiple);
+                statement.setString(5, requestHash);
+                statement.setTimestamp(6, Timestamp.from(now));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } catch (SQLException e) {
+            if (!isDuplicateKey(e)) {
+                throw e;
+            }
+            connection.rollback(beforeInsert);
+            final List<CourierIdempotencyRecord> claimed = find(endpoint, key, expiry);
+            if (claimed.isEmpty()) {
+                throw new SQLException("Idempotency key is being claimed by another request", e);
+            }
+            return claimed;
+        }
+        return records;
+    }
+
+    private List<CourierIdempotencyRecord> find(String endpoint, String key, Timestamp expiry) throws SQLException {
+        final List<CourierIdempotencyRecord> records = new ArrayList<>();
+        try (PreparedStatement statement = serviceHub.jdbcSession().prepareStatement(FIND)) {
+            statement.setString(1, endpoint);
+            statement.setString(2, key);
+            statement.setTimestamp(3, expiry);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    records.add(new CourierIdempotencyRecord(rows.getInt(1), rows.getBoolean(2), rows.getString(3), rows.getString(4),
+                            rows.getString(5), rows.getString(6), rows.getString(7), rows.getTimestamp(8).toInstant()));
+                }
+            }
+        }
+        return records;
+    }
+
+    // SQLState class 23 is an integrity constraint violation; a batch may report it on the exception it chains.
+    private static boolean isDuplicateKey(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            if (cause.getSQLState() != null && cause.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the flow started by a command sent with the key, and how it ended.
+     */
+    public void complete(String endpoint, String key, int commandIndex, String flowId, String status, String transactionId, String error)
+            throws SQLException {
+        try (PreparedStatement statement = serviceHub.jdbcSession().prepareStatement(COMPLETE)) {
+            statement.setString(1, flowId);
+            statement.setString(2, status);
+            statement.setString(3, transactionId);
+            statement.setString(4, truncate(error));
+            statement.setString(5, endpoint);
+            statement.setString(6, key);
+            statement.setInt(7, commandIndex);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Frees a key whose request started no flow, so a retry can claim it again.
+     */
+    public void release(String endpoint, String key) throws SQLException {
+        try (PreparedStatement statement = serviceHub.jdbcSession().prepareStatement(RELEASE)) {
+            statement.setString(1, endpoint);
+            statement.setString(2, key);
+            statement.executeUpdate();
+        }
+    }
+
+    private static String truncate(String error) {
+        final int max = CourierIdempotencySchemaV1.MAX_ERROR_LENGTH;
+        return error == null || error.length() <= max ? error : error.substring(0, max);
+    }
+}
@@ -0,0 +1,12 @@
+package com.nec.endmile.service;
+
+import net.corda.core.flows.FlowException;
+
+/**
+ * Thrown when another flow on this node has already reserved the courier's current state for a transition.
+ */
+public class CourierLockedException extends FlowException {
+    public CourierLockedException(String message) {
+        super(message);
+    }
+}
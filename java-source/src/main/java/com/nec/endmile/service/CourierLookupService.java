@@ -0,0 +1,149 @@
+package com.nec.endmile.service;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.NonEmptySet;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-local index of the current unconsumed {@link CourierState} for every courierId.
+ * <p>
+ * The index is kept hot by the vault update feed: produced courier states are added and consumed ones removed, so a
+ * flow resolving its input costs a hash probe instead of a vault query. A courierId is the id of the courier's
+ * linearId, which stays the same for its whole lifecycle, so a miss falls back to a single linear state query on the
+ * indexed vault_linear_states table and the result is cached.
+ * <p>
+ * A cached state can be stale for the moment between a transaction being recorded and its update reaching the feed.
+ * A hit is returned as it is, and the staleness is left to the soft lock: {@link #reserveUnconsumed} cannot lock a
+ * consumed state, so it drops it and looks the courier up again. A state read with {@link #getUnconsumed} alone may
+ * be that moment out of date, and a transaction built on it is rejected by the notary.
+ * <p>
+ * Transition flows resolve their input with {@link #reserveUnconsumed}, which soft-locks it to the flow, so a second
+ * flow on the same courier fails fast instead of after a notary round trip. The node releases the lock when the
+ * flow ends.
+ */
+@CordaService
+public class CourierLookupService extends SingletonSerializeAsToken {
+    private final AppServiceHub serviceHub;
+    private final ConcurrentMap<String, StateAndRef<CourierState>> unconsumedByCourierId = new ConcurrentHashMap<>();
+
+    public CourierLookupService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.getVaultService().getUpdates().subscribe(this::onVaultUpdate);
+    }
+
+    /**
+     * Returns the current unconsumed {@link CourierState} for the given courierId, or null if this node has none.
+     * Must be called from within a flow, as a cache miss queries the vault.
+     */
+    public StateAndRef<CourierState> getUnconsumed(String courierId) {
+        if (courierId == null) {
+            return null;
+        }
+
+        final StateAndRef<CourierState> cached = unconsumedByCourierId.get(courierId);
+        if (cached != null) {
+            return cached;
+        }
+        return queryAndCache(courierId);
+    }
+
+    /**
+     * Caches the state as the courier's unconsumed one, as the feed would. Lets tests stand in for a feed that lags.
+     */
+    void remember(String courierId, StateAndRef<CourierState> courier) {
+        unconsumedByCourierId.put(courierId, courier);
+    }
+
+    /**
+     * Returns the ref cached for the courier, or null if there is none.
+     */
+    StateRef cached(String courierId) {
+        final StateAndRef<CourierState> cached = unconsumedByCourierId.get(courierId);
+        return cached == null ? null : cached.getRef();
+    }
+
+    /**
+     * Like {@link #getUnconsumed}, but also soft-locks the state to the given flow run id, so a consumed state is never
+     * returned. Throws {@link CourierLockedException} if another flow holds the lock.
+     */
+    public StateAndRef<CourierState> reserveUnconsumed(String courierId, UUID lockId) throws CourierLockedException {
+        final StateAndRef<CourierState> courier = getUnconsumed(courierId);
+        if (courier == null || reserve(courier, lockId)) {
+            return courier;
+        }
+
+        // The lock is held, or the cached state was consumed before the feed reported it. Only the latter is retried.
+        unconsumedByCourierId.remove(courierId, courier);
+        final StateAndRef<CourierState> queried = queryAndCache(courierId);
+        if (queried == null || (!queried.getRef().equals(courier.getRef()) && reserve(queried, lockId))) {
+            return queried;
+        }
+        throw new CourierLockedException("Courier " + courierId + " is being updated by another flow");
+    }
+
+    private boolean reserve(StateAndRef<CourierState> courier, UUID lockId) {
+        try {
+            serviceHub.getVaultService().softLockReserve(lockId, NonEmptySet.of(courier.getRef()));
+            return true;
+        } catch (StatesNotAvailableException e) {
+            return false;
+        }
+    }
+
+    private StateAndRef<CourierState> queryAndCache(String courierId) {
+        final StateAndRef<CourierState> queried = queryUnconsumed(courierId);
+        if (queried != null) {
+            unconsumedByCourierId.putIfAbsent(courierId, queried);
+        }
+        return queried;
+    }
+
+    private StateAndRef<CourierState> queryUnconsumed(String courierId) {
+        final UUID linearId;
+        try {
+            linearId = UUID.fromString(courierId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        final QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(linearId), null, Vault.StateStatus.UNCONSUMED);
+
+        final List<StateAndRef<CourierState>> couriers = serviceHub.getVaultService().queryBy(CourierState.class, criteria).getStates();
+        return couriers.isEmpty() ? null : couriers.get(0);
+    }
+
+    private void onVaultUpdate(Vault.Update<ContractState> update) {
+        // Consumed first, so a transition consuming and re-issuing the same courierId leaves the new ref in place.
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            final ContractState data = consumed.getState().getData();
+            if (data instanceof CourierState && ((CourierState) data).getCourierId() != null) {
+                unconsumedByCourierId.computeIfPresent(((CourierState) data).getCourierId(),
+                        (courierId, cached) -> cached.getRef().equals(consumed.getRef()) ? null : cached);
+            }
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            final ContractState data = produced.getState().getData();
+            if (data instanceof CourierState && ((CourierState) data).getCourierId() != null) {
+                unconsumedByCourierId.put(((CourierState) data).getCourierId(), asCourier(produced));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StateAndRef<CourierState> asCourier(StateAndRef<? extends ContractState> courier) {
+        return (StateAndRef<CourierState>) courier;
+    }
+}
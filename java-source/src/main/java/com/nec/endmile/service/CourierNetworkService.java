@@ -0,0 +1,166 @@
+package com.nec.endmile.service;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.NetworkMapCache;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-local cache of the network lookups courier flows repeat on every run: the notary new couriers are issued on,
+ * X500 name to party resolution and the list of carriers.
+ * <p>
+ * Each lookup is computed once and then served from memory until the network map changes, when the whole cache is
+ * dropped. The notary is chosen by the policy in the com.nec.endmile.notary.policy system property, see
+ * {@link NotaryPolicy}. A courier keeps the notary it was issued on for its whole lifecycle, as transitions build on the
+ * notary recorded with their input state.
+ */
+@CordaService
+public class CourierNetworkService extends SingletonSerializeAsToken {
+    public static final String NOTARY_POLICY_PROPERTY = "com.nec.endmile.notary.policy";
+    public static final String NOTARY_NAME_PROPERTY = "com.nec.endmile.notary.name";
+
+    /**
+     * How the notary for new couriers is chosen.
+     */
+    public enum NotaryPolicy {
+        /**
+         * The first notary in the network parameters. This is the default.
+         */
+        FIRST,
+        /**
+         * The notary named by the com.nec.endmile.notary.name system property.
+         */
+        NAMED,
+        /**
+         * Couriers are spread over every notary on the network by the hash of their courierId. The notaries are
+         * ordered by name, so every node assigns a courierId to the same notary.
+         */
+        PARTITIONED
+    }
+
+    private final AppServiceHub serviceHub;
+    private final NotaryPolicy notaryPolicy;
+    private final CordaX500Name notaryName;
+    private final ConcurrentMap<CordaX500Name, Party> partiesByName = new ConcurrentHashMap<>();
+    private volatile Party notary;
+    private volatile List<Party> partitionNotaries;
+    private volatile List<Party> carriers;
+
+    public CourierNetworkService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.notaryPolicy = NotaryPolicy.valueOf(System.getProperty(NOTARY_POLICY_PROPERTY, NotaryPolicy.FIRST.name()).toUpperCase(Locale.ROOT));
+        final String name = System.getProperty(NOTARY_NAME_PROPERTY);
+        this.notaryName = name == null ? null : CordaX500Name.parse(name);
+        if (notaryPolicy == NotaryPolicy.NAMED && notaryName == null) {
+            throw new IllegalStateException(NOTARY_NAME_PROPERTY + " must be set for the " + NotaryPolicy.NAMED + " notary policy");
+        }
+        serviceHub.getNetworkMapCache().getChanged().subscribe(change -> invalidate());
+    }
+
+    /**
+     * Returns the notary new couriers are issued on when their courierId is not known. Under the PARTITIONED policy
+     * this is the first notary.
+     */
+    public Party getNotary() {
+        Party selected = notary;
+        if (selected == null) {
+            selected = selectNotary();
+            notary = selected;
+        }
+        return selected;
+    }
+
+    /**
+     * Returns the notary the courier with the given id is issued on. Only the PARTITIONED policy depends on the id.
+     */
+    public Party getNotary(String courierId) {
+        if (notaryPolicy != NotaryPolicy.PARTITIONED || courierId == null) {
+            return getNotary();
+        }
+        List<Party> notaries = partitionNotaries;
+        if (notaries == null) {
+            final List<Party> sorted = new ArrayList<>(serviceHub.getNetworkMapCache().getNotaryIdentities());
+            if (sorted.isEmpty()) {
+                throw new IllegalStateException("No notary is on the network");
+            }
+            sorted.sort(Comparator.comparing(party -> party.getName().toString()));
+            notaries = ImmutableList.copyOf(sorted);
+            partitionNotaries = notaries;
+        }
+        return notaries.get(Math.floorMod(courierId.hashCode(), notaries.size()));
+    }
+
+    private Party selectNotary() {
+        final NetworkMapCache networkMap = serviceHub.getNetworkMapCache();
+        switch (notaryPolicy) {
+            case NAMED:
+                final Party named = networkMap.getNotary(notaryName);
+                if (named == null) {
+                    throw new IllegalStateException("Notary " + notaryName + " is not on the network");
+                }
+                return named;
+            case FIRST:
+            case PARTITIONED:
+            default:
+                final List<Party> notaries = networkMap.getNotaryIdentities();
+                if (notaries.isEmpty()) {
+                    throw new IllegalStateException("No notary is on the network");
+                }
+                return notaries.get(0);
+        }
+    }
+
+    /**
+     * Returns the well-known party with the given name, or null if there is none.
+     */
+    public Party wellKnownParty(CordaX500Name name) {
+        final Party cached = partiesByName.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        final Party resolved = serviceHub.getIdentityService().wellKnownPartyFromX500Name(name);
+        if (resolved != null) {
+            partiesByName.put(name, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns every non-notary party on the network map, this node's own identities included.
+     */
+    public List<Party> getCarriers() {
+        List<Party> listed = carriers;
+        if (listed == null) {
+            final NetworkMapCache networkMap = serviceHub.getNetworkMapCache();
+            final List<Party> parties = new ArrayList<>();
+            for (NodeInfo node : networkMap.getAllNodes()) {
+                for (Party party : node.getLegalIdentities()) {
+                    if (!networkMap.isNotary(party)) {
+                        parties.add(party);
+                    }
+                }
+            }
+            listed = ImmutableList.copyOf(parties);
+            carriers = listed;
+        }
+        return listed;
+    }
+
+    private void invalidate() {
+        notary = null;
+        partitionNotaries = null;
+        carriers = null;
+        partiesByName.clear();
+    }
+}
@@ -0,0 +1,88 @@
+package com.nec.endmile.service;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * Accepted prices of one route, delivery type and responder over a time window. Prices are in minor units, the
+ * average is rounded to the nearest minor unit, and percentiles are nearest-rank.
+ */
+@CordaSerializable
+public class CourierPriceStats {
+    private final String source;
+    private final String destination;
+    private final String deliveryType;
+    private final String responder;
+    private final int count;
+    private final long averagePrice;
+    private final long minPrice;
+    private final long maxPrice;
+    private final long p50Price;
+    private final long p90Price;
+    private final long p99Price;
+
+    public CourierPriceStats(String source, String destination, String deliveryType, String responder, int count,
+                             long averagePrice, long minPrice, long maxPrice, long p50Price, long p90Price, long p99Price) {
+        this.source = source;
+        this.destination = destination;
+        this.deliveryType = deliveryType;
+        this.responder = responder;
+        this.count = count;
+        this.averagePrice = averagePrice;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.p50Price = p50Price;
+        this.p90Price = p90Price;
+        this.p99Price = p99Price;
+    }
+
+    /**
+     * The 1-based rank of the given percentile among count ascending prices.
+     */
+    static int nearestRank(int percent, int count) {
+        return Math.max((int) Math.ceil(percent / 100.0 * count), 1);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public String getDeliveryType() {
+        return deliveryType;
+    }
+
+    public String getResponder() {
+        return responder;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getAveragePrice() {
+        return averagePrice;
+    }
+
+    public long getMinPrice() {
+        return minPrice;
+    }
+
+    public long getMaxPrice() {
+        return maxPrice;
+    }
+
+    public long getP50Price() {
+        return p50Price;
+    }
+
+    public long getP90Price() {
+        return p90Price;
+    }
+
+    public long getP99Price() {
+        return p99Price;
+    }
+}
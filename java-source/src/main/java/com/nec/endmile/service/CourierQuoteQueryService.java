@@ -0,0 +1,181 @@
+package com.nec.endmile.service;
+
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads quotes from the normalised courier_quotes table of [CourierSchemaV2].
+ * <p>
+ * Quotes for every unconsumed courier in a status are fetched with a single join, rather than one select per
+ * courier, and accepted prices are summarised by the database. Must be called from within a flow, as it uses the
+ * flow's JDBC session.
+ */
+@CordaService
+public class CourierQuoteQueryService extends SingletonSerializeAsToken {
+    private static final String QUOTES_BY_STATUS = "SELECT q.courier_id, q.responder, q.shared_price, q.dedicated_price, q.created_at" +
+            " FROM courier_quotes q" +
+            " JOIN courier_states_v2 c ON c.courier_id = q.courier_id" +
+            " JOIN vault_states v ON v.transaction_id = c.transaction_id AND v.output_index = c.output_index" +
+            " WHERE v.state_status = 0 AND c.status = ?" +
+            " ORDER BY q.courier_id, q.quote_id";
+
+    // A courier is accepted exactly once, so its accepted row is counted whether or not the courier has moved on.
+    private static final String ACCEPTED_WHERE = " FROM courier_states_v2 c" +
+            " JOIN vault_states v ON v.transaction_id = c.transaction_id AND v.output_index = c.output_index" +
+            " WHERE c.status = ? AND v.recorded_timestamp >= ? AND v.recorded_timestamp < ?";
+    private static final String ACCEPTED_GROUP = "c.source, c.destination, c.final_delivery_type, c.accepted_responder";
+
+    private static final String ACCEPTED_SUMMARY = "SELECT " + ACCEPTED_GROUP + ", COUNT(*), AVG(CAST(c.final_quoted_price AS DOUBLE PRECISION))," +
+            " MIN(c.final_quoted_price), MAX(c.final_quoted_price)" +
+            ACCEPTED_WHERE +
+            " GROUP BY " + ACCEPTED_GROUP +
+            " ORDER BY " + ACCEPTED_GROUP;
+
+    private static final String ACCEPTED_PRICES = "SELECT " + ACCEPTED_GROUP + ", c.final_quoted_price" +
+            ACCEPTED_WHERE +
+            " ORDER BY " + ACCEPTED_GROUP + ", c.final_quoted_price";
+
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    private final AppServiceHub serviceHub;
+
+    public CourierQuoteQueryService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * Returns the quote book of every unconsumed courier in the given status, keyed by courierId. Couriers without
+     * quotes are left out.
+     */
+    public Map<String, CourierQuoteBook> quotesByStatus(CourierStatus status) throws SQLException {
+        final Map<String, CourierQuoteBook> books = new LinkedHashMap<>();
+        final CourierNetworkService network = serviceHub.cordaService(CourierNetworkService.class);
+        final Map<String, Party> responders = new HashMap<>();
+
+        try (PreparedStatement statement = serviceHub.jdbcSession().prepareStatement(QUOTES_BY_STATUS)) {
+            statement.setShort(1, status.getCode());
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    final Party responder = responders.computeIfAbsent(rows.getString(2),
+                            name -> network.wellKnownParty(CordaX500Name.parse(name)));
+                    if (responder == null) {
+                        continue;
+                    }
+                    // Rows come in the order they were recorded, so a responder's later quote replaces its earlier one.
+                    final CourierQuote quote = new CourierQuote(responder, rows.getLong(3), rows.getLong(4), rows.getTimestamp(5).toInstant());
+                    books.merge(rows.getString(1), CourierQuoteBook.EMPTY.withQuote(quote), (book, added) -> book.withQuote(quote));
+                }
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Summarises the prices of couriers accepted in [from, to), grouped by route, delivery type and responder.
+     * <p>
+     * Count, average, min and max come from a GROUP BY. Percentiles are computed here, in Java, because the H2
+     * database of a Corda 3 node has neither PERCENTILE_CONT nor window functions: the prices are scanned once in
+     * order and only the values at each group's nearest ranks are kept. A courier accepted between the two reads can
+     * shift a group's percentiles by one rank.
+     */
+    public List<CourierPriceStats> acceptedPrices(Instant from, Instant to) throws SQLException {
+        final Map<List<String>, Summary> summaries = new LinkedHashMap<>();
+        try (PreparedStatement statement = acceptedStatement(ACCEPTED_SUMMARY, from, to);
+             ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                final Summary summary = new Summary(rows.getInt(5), rows.getDouble(6), rows.getLong(7), rows.getLong(8));
+                summaries.put(groupOf(rows), summary);
+            }
+        }
+        if (summaries.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        try (PreparedStatement statement = acceptedStatement(ACCEPTED_PRICES, from, to);
+             ResultSet rows = statement.executeQuery()) {
+            List<String> group = null;
+            Summary summary = null;
+            int rank = 0;
+            while (rows.next()) {
+                final List<String> key = groupOf(rows);
+                if (!key.equals(group)) {
+                    group = key;
+                    summary = summaries.get(key);
+                    rank = 0;
+                }
+                rank++;
+                if (summary != null) {
+                    summary.atRank(rank, rows.getLong(5));
+                }
+            }
+        }
+
+        final List<CourierPriceStats> stats = new ArrayList<>(summaries.size());
+        summaries.forEach((group, summary) -> stats.add(new CourierPriceStats(
+                group.get(0), group.get(1), group.get(2), group.get(3), summary.count, Math.round(summary.average), summary.min, summary.max,
+                summary.percentiles[0], summary.percentiles[1], summary.percentiles[2])));
+        return stats;
+    }
+
+    private PreparedStatement acceptedStatement(String sql, Instant from, Instant to) throws SQLException {
+        final PreparedStatement statement = serviceHub.jdbcSession().prepareStatement(sql);
+        statement.setShort(1, CourierStatus.COURIER_ACCEPTED.getCode());
+        statement.setTimestamp(2, Timestamp.from(from));
+        statement.setTimestamp(3, Timestamp.from(to));
+        return statement;
+    }
+
+    private static List<String> groupOf(ResultSet rows) throws SQLException {
+        return Arrays.asList(rows.getString(1), rows.getString(2), rows.getString(3), rows.getString(4));
+    }
+
+    /**
+     * The aggregates of one group, and its percentiles once the ordered scan has passed their ranks.
+     */
+    private static final class Summary {
+        private final int count;
+        private final double average;
+        private final long min;
+        private final long max;
+        private final int[] ranks = new int[PERCENTILES.length];
+        private final long[] percentiles = new long[PERCENTILES.length];
+
+        private Summary(int count, double average, long min, long max) {
+            this.count = count;
+            this.average = average;
+            this.min = min;
+            this.max = max;
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                ranks[i] = CourierPriceStats.nearestRank(PERCENTILES[i], count);
+                // Stands in until the scan reaches the rank, should the group have lost rows between the two reads.
+                percentiles[i] = max;
+            }
+        }
+
+        private void atRank(int rank, long price) {
+            for (int i = 0; i < ranks.length; i++) {
+                if (ranks[i] == rank) {
+                    percentiles[i] = price;
+                }
+            }
+        }
+    }
+}
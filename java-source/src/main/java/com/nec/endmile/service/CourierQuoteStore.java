@@ -0,0 +1,106 @@
+package com.nec.endmile.service;
+
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierQuoteOffer;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.SignedData;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Requestor-side store of the quotes carriers have sent off the ledger, keyed by courierId.
+ * <p>
+ * Each quote is kept with the carrier's signed offer, which goes into the accept transaction so the contract can check
+ * the accepted price was really quoted. Quotes are held in memory until the courier is accepted or cancelled, which
+ * the vault update feed reports, and only the accepted quote is ever written to the ledger.
+ * <p>
+ * Quotes held when the node stops are lost. A carrier whose quote is lost cannot be accepted until it sends the quote
+ * again, while quotes already on the ledger through CourierRespondFlow are unaffected.
+ */
+@CordaService
+public class CourierQuoteStore extends SingletonSerializeAsToken {
+    private final ConcurrentMap<String, Offered> offeredByCourierId = new ConcurrentHashMap<>();
+
+    /**
+     * The quotes offered for one courier, and the signed offer behind each.
+     */
+    private static final class Offered {
+        private static final Offered EMPTY = new Offered(CourierQuoteBook.EMPTY, Collections.emptyMap());
+
+        private final CourierQuoteBook quotes;
+        private final Map<Party, SignedData<CourierQuoteOffer>> signedOffers;
+
+        private Offered(CourierQuoteBook quotes, Map<Party, SignedData<CourierQuoteOffer>> signedOffers) {
+            this.quotes = quotes;
+            this.signedOffers = signedOffers;
+        }
+
+        private Offered with(CourierQuote quote, SignedData<CourierQuoteOffer> signedOffer) {
+            final CourierQuote previous = quotes.quoteOf(quote.getResponder());
+            if (previous != null && previous.getQuotedAt().isAfter(quote.getQuotedAt())) {
+                return this;
+            }
+            final Map<Party, SignedData<CourierQuoteOffer>> signed = new HashMap<>(signedOffers);
+            signed.put(quote.getResponder(), signedOffer);
+            return new Offered(quotes.withQuote(quote), signed);
+        }
+    }
+
+    public CourierQuoteStore(AppServiceHub serviceHub) {
+        serviceHub.getVaultService().getUpdates().subscribe(this::onVaultUpdate);
+    }
+
+    /**
+     * Adds the verified offer and the carrier's signed offer behind it, replacing an older quote from the same carrier,
+     * and returns the courier's quotes.
+     */
+    public CourierQuoteBook offer(CourierQuoteOffer offer, SignedData<CourierQuoteOffer> signedOffer) {
+        return offeredByCourierId.compute(offer.getCourierId(), (courierId, existing) ->
+                (existing == null ? Offered.EMPTY : existing).with(offer.getQuote(), signedOffer)).quotes;
+    }
+
+    /**
+     * Returns the quotes offered for the courier, which is empty if there are none.
+     */
+    public CourierQuoteBook getOffered(String courierId) {
+        return offeredByCourierId.getOrDefault(courierId, Offered.EMPTY).quotes;
+    }
+
+    /**
+     * Returns the carrier's signed offer of the quote, or null if the quote is not the one held for its carrier.
+     */
+    public SignedData<CourierQuoteOffer> getSignedOffer(String courierId, CourierQuote quote) {
+        final Offered offered = offeredByCourierId.getOrDefault(courierId, Offered.EMPTY);
+        return quote.equals(offered.quotes.quoteOf(quote.getResponder())) ? offered.signedOffers.get(quote.getResponder()) : null;
+    }
+
+    /**
+     * Drops every quote held, as stopping the node does.
+     */
+    void clear() {
+        offeredByCourierId.clear();
+    }
+
+    private void onVaultUpdate(Vault.Update<ContractState> update) {
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            final ContractState data = produced.getState().getData();
+            if (data instanceof CourierState && ((CourierState) data).getCourierId() != null
+                    && !CourierStatus.COURIER_RESPONSE_RECEIVED.canFollow(((CourierState) data).getStatus())) {
+                offeredByCourierId.remove(((CourierState) data).getCourierId());
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.nec.endmile.service;
+
+import com.sun.net.httpserver.HttpServer;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Latency histograms for every courier flow, overall and per stage.
+ * <p>
+ * Flows time themselves by chaining {@link #record}, which returns the time the next stage starts from. Each
+ * histogram is registered with the platform MBean server under com.nec.endmile:type=FlowLatency, and the whole set
+ * can be rendered in the Prometheus text format. Notary conflicts are counted per flow the same way, under
+ * com.nec.endmile:type=NotaryConflicts.
+ * <p>
+ * When the com.nec.endmile.metrics.port system property is set, the rendered metrics are also served at /metrics on
+ * that port of the loopback interface, which the webserver's /api/couriers/any/metrics reads so that a scrape does
+ * not start a flow. The webserver must be given the same property.
+ * <p>
+ * A node restarted in the same JVM replaces the MBeans of its previous service. Any other clash on an MBean name
+ * fails the registration with an IllegalStateException.
+ */
+@CordaService
+public class FlowMetricsService extends SingletonSerializeAsToken {
+    public static final String VAULT_LOOKUP = "vault_lookup";
+    public static final String GENERATE = "generate";
+    public static final String VERIFY = "verify";
+    public static final String SIGN = "sign";
+    public static final String FINALITY = "finality";
+    public static final String SEND = "send";
+    public static final String TOTAL = "total";
+    public static final String EXPORT_PORT_PROPERTY = "com.nec.endmile.metrics.port";
+    public static final String EXPORT_PATH = "/metrics";
+
+    private static final Logger logger = LoggerFactory.getLogger(FlowMetricsService.class);
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final ConcurrentMap<String, Set<ObjectName>> registeredByNode = new ConcurrentHashMap<>();
+
+    private final String nodeName;
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, NotaryConflictCounter> conflicts = new ConcurrentSkipListMap<>();
+
+    public FlowMetricsService(AppServiceHub serviceHub) {
+        this.nodeName = serviceHub.getMyInfo().getLegalIdentities().get(0).getName().toString();
+        final Set<ObjectName> previous = registeredByNode.put(nodeName, registered);
+        if (previous != null) {
+            unregister(previous);
+        }
+        final String port = System.getProperty(EXPORT_PORT_PROPERTY);
+        if (port != null) {
+            export(Integer.parseInt(port));
+        }
+    }
+
+    /**
+     * Serves {@link #toPrometheus} at {@link #EXPORT_PATH} on the port of the loopback interface.
+     */
+    private void export(int port) {
+        final HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to export flow metrics on port " + port, e);
+        }
+        server.createContext(EXPORT_PATH, exchange -> {
+            final byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        logger.info("Exporting flow metrics of " + nodeName + " at http://" + server.getAddress().getHostString() + ":" + port + EXPORT_PATH);
+    }
+
+    /**
+     * Records the time since stageStarted against the flow and stage, and returns the current time so the caller can
+     * pass it on as the start of its next stage.
+     */
+    public long record(Class<?> flowClass, String stage, long stageStarted) {
+        final long now = System.nanoTime();
+        histogram(flowName(flowClass), stage).record(now - stageStarted);
+        return now;
+    }
+
+    /**
+     * Counts a notary conflict hit by the flow, noting whether it has run out of retries.
+     */
+    public void recordConflict(Class<?> flowClass, boolean retriesExhausted) {
+        conflicts(flowName(flowClass)).record(retriesExhausted);
+    }
+
+    private NotaryConflictCounter conflicts(String flow) {
+        final NotaryConflictCounter existing = conflicts.get(flow);
+        if (existing != null) {
+            return existing;
+        }
+        final NotaryConflictCounter created = new NotaryConflictCounter();
+        final NotaryConflictCounter raced = conflicts.putIfAbsent(flow, created);
+        if (raced != null) {
+            return raced;
+        }
+        register("type=NotaryConflicts,node=" + ObjectName.quote(nodeName) + ",flow=" + ObjectName.quote(flow), created);
+        return created;
+    }
+
+    private LatencyHistogram histogram(String flow, String stage) {
+        final String key = flow + KEY_SEPARATOR + stage;
+        final LatencyHistogram existing = histograms.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final LatencyHistogram created = new LatencyHistogram();
+        final LatencyHistogram raced = histograms.putIfAbsent(key, created);
+        if (raced != null) {
+            return raced;
+        }
+        register("type=FlowLatency,node=" + ObjectName.quote(nodeName) + ",flow=" + ObjectName.quote(flow) + ",stage=" + stage, created);
+        return created;
+    }
+
+    private void register(String properties, Object mbean) {
+        try {
+            final ObjectName name = new ObjectName("com.nec.endmile:" + properties);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register MBean com.nec.endmile:" + properties, e);
+        }
+    }
+
+    private static void unregister(Set<ObjectName> names) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException e) {
+                // Already gone.
+            } catch (JMException e) {
+                throw new IllegalStateException("Unable to unregister MBean " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Renders every histogram as courier_flow_latency_seconds, and the conflict counters as
+     * courier_flow_notary_conflicts_total and courier_flow_notary_retries_exhausted_total, in the Prometheus text
+     * exposition format.
+     */
+    public String toPrometheus() {
+        final StringBuilder out = new StringBuilder();
+        out.append("# HELP courier_flow_latency_seconds Courier flow latency by flow and stage.\n");
+        out.append("# TYPE courier_flow_latency_seconds histogram\n");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            final int separator = entry.getKey().indexOf(KEY_SEPARATOR);
+            final String labels = "flow=\"" + entry.getKey().substring(0, separator) + "\",stage=\"" + entry.getKey().substring(separator + 1) + "\"";
+            final LatencyHistogram histogram = entry.getValue();
+
+            long cumulative = 0;
+            for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS.length; i++) {
+                cumulative += histogram.bucketCount(i);
+                out.append("courier_flow_latency_seconds_bucket{").append(labels).append(",le=\"")
+                        .append(LatencyHistogram.BUCKET_BOUNDS[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += histogram.bucketCount(LatencyHistogram.BUCKET_BOUNDS.length);
+            out.append("courier_flow_latency_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append("courier_flow_latency_seconds_sum{").append(labels).append("} ").append(histogram.sumSeconds()).append('\n');
+            out.append("courier_flow_latency_seconds_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+
+        out.append("# HELP courier_flow_notary_conflicts_total Notary conflicts hit by courier flows.\n");
+        out.append("# TYPE courier_flow_notary_conflicts_total counter\n");
+        for (Map.Entry<String, NotaryConflictCounter> entry : conflicts.entrySet()) {
+            out.append("courier_flow_notary_conflicts_total{flow=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().getConflicts()).append('\n');
+        }
+        out.append("# HELP courier_flow_notary_retries_exhausted_total Notary conflicts courier flows gave up retrying.\n");
+        out.append("# TYPE courier_flow_notary_retries_exhausted_total counter\n");
+        for (Map.Entry<String, NotaryConflictCounter> entry : conflicts.entrySet()) {
+            out.append("courier_flow_notary_retries_exhausted_total{flow=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().getExhausted()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String flowName(Class<?> flowClass) {
+        return flowClass.getName().substring(flowClass.getPackage().getName().length() + 1);
+    }
+}
@@ -0,0 +1,18 @@
+package com.nec.endmile.service;
+
+/**
+ * JMX view of a {@link LatencyHistogram}. Percentiles are bucket upper bounds.
+ */
+public interface LatencyHistogramMXBean {
+    long getCount();
+
+    double getSumMillis();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
@@ -0,0 +1,28 @@
+package com.nec.endmile.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts a flow's notary conflicts, and how many of them it gave up on after its last retry.
+ */
+public class NotaryConflictCounter implements NotaryConflictCounterMXBean {
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    void record(boolean retriesExhausted) {
+        conflicts.increment();
+        if (retriesExhausted) {
+            exhausted.increment();
+        }
+    }
+
+    @Override
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    @Override
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+}
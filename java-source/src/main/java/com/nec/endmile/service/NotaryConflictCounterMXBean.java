@@ -0,0 +1,10 @@
+package com.nec.endmile.service;
+
+/**
+ * JMX view of a {@link NotaryConflictCounter}.
+ */
+public interface NotaryConflictCounterMXBean {
+    long getConflicts();
+
+    long getExhausted();
+}
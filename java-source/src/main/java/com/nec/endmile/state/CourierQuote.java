@@ -0,0 +1,91 @@
+package com.nec.endmile.state;
+
+import com.nec.endmile.config.CourierType;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A responder's quote for a courier.
+ * <p>
+ * Prices are fixed-point amounts in minor units (two decimal places), so "10.50" is held as 1050.
+ */
+@CordaSerializable
+public class CourierQuote {
+    public static final int PRICE_SCALE = 2;
+
+    private final Party responder;
+    private final long sharedPrice;
+    private final long dedicatedPrice;
+    private final Instant quotedAt;
+
+    public CourierQuote(Party responder, long sharedPrice, long dedicatedPrice, Instant quotedAt) {
+        this.responder = responder;
+        this.sharedPrice = sharedPrice;
+        this.dedicatedPrice = dedicatedPrice;
+        this.quotedAt = quotedAt;
+    }
+
+    /**
+     * Parses a decimal price such as "10.5" into minor units.
+     */
+    public static long parsePrice(String price) {
+        return new BigDecimal(price).movePointRight(PRICE_SCALE).longValueExact();
+    }
+
+    /**
+     * Formats a price in minor units as a decimal string such as "10.50".
+     */
+    public static String formatPrice(long price) {
+        return BigDecimal.valueOf(price, PRICE_SCALE).toPlainString();
+    }
+
+    public Party getResponder() {
+        return responder;
+    }
+
+    public long getSharedPrice() {
+        return sharedPrice;
+    }
+
+    public long getDedicatedPrice() {
+        return dedicatedPrice;
+    }
+
+    public Instant getQuotedAt() {
+        return quotedAt;
+    }
+
+    public long priceFor(CourierType deliveryType) {
+        return deliveryType == CourierType.SHARED ? sharedPrice : dedicatedPrice;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CourierQuote that = (CourierQuote) o;
+        return sharedPrice == that.sharedPrice &&
+                dedicatedPrice == that.dedicatedPrice &&
+                Objects.equals(responder, that.responder) &&
+                Objects.equals(quotedAt, that.quotedAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(responder, sharedPrice, dedicatedPrice, quotedAt);
+    }
+
+    @Override
+    public String toString() {
+        return "CourierQuote{" +
+                "responder=" + responder +
+                ", sharedPrice=" + sharedPrice +
+                ", dedicatedPrice=" + dedicatedPrice +
+                ", quotedAt=" + quotedAt +
+                '}';
+    }
+}
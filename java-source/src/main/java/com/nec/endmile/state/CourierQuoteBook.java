@@ -0,0 +1,128 @@
+package com.nec.endmile.state;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierType;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable book of the quotes received for a courier, at most one per responder.
+ * <p>
+ * Quotes are kept sorted by responder name, so a responder's quote is found by binary search, and the cheapest
+ * quote for each delivery type is located once when the book is built.
+ */
+@CordaSerializable
+public class CourierQuoteBook {
+    private static final Comparator<CourierQuote> BY_RESPONDER = Comparator.comparing(quote -> quote.getResponder().getName().toString());
+
+    public static final CourierQuoteBook EMPTY = new CourierQuoteBook(ImmutableList.of());
+
+    private final List<CourierQuote> quotes;
+    private final String[] responderNames;
+    private final int bestShared;
+    private final int bestDedicated;
+
+    /**
+     * @throws IllegalArgumentException if a responder has more than one quote, so a book read off the wire cannot hide
+     *                                  a second quote behind the one {@link #quoteOf} finds.
+     */
+    public CourierQuoteBook(List<CourierQuote> quotes) {
+        List<CourierQuote> sorted = new ArrayList<>(quotes);
+        sorted.sort(BY_RESPONDER);
+        this.quotes = ImmutableList.copyOf(sorted);
+
+        this.responderNames = new String[this.quotes.size()];
+        int shared = -1;
+        int dedicated = -1;
+        for (int i = 0; i < this.quotes.size(); i++) {
+            CourierQuote quote = this.quotes.get(i);
+            responderNames[i] = quote.getResponder().getName().toString();
+            if (i > 0 && responderNames[i].equals(responderNames[i - 1])) {
+                throw new IllegalArgumentException("Responder " + responderNames[i] + " has more than one quote");
+            }
+            if (shared < 0 || quote.getSharedPrice() < this.quotes.get(shared).getSharedPrice()) {
+                shared = i;
+            }
+            if (dedicated < 0 || quote.getDedicatedPrice() < this.quotes.get(dedicated).getDedicatedPrice()) {
+                dedicated = i;
+            }
+        }
+        this.bestShared = shared;
+        this.bestDedicated = dedicated;
+    }
+
+    public List<CourierQuote> getQuotes() {
+        return quotes;
+    }
+
+    public int size() {
+        return quotes.size();
+    }
+
+    /**
+     * Returns the responder's quote, or null if the responder has not quoted.
+     */
+    public CourierQuote quoteOf(Party responder) {
+        int index = Arrays.binarySearch(responderNames, responder.getName().toString());
+        return index >= 0 ? quotes.get(index) : null;
+    }
+
+    /**
+     * Returns the cheapest quote for the delivery type, or null if the book is empty.
+     */
+    public CourierQuote bestQuote(CourierType deliveryType) {
+        int index = deliveryType == CourierType.SHARED ? bestShared : bestDedicated;
+        return index >= 0 ? quotes.get(index) : null;
+    }
+
+    /**
+     * Returns the quotes in this book that the previous book does not hold as they are, in responder order.
+     */
+    public List<CourierQuote> addedSince(CourierQuoteBook previous) {
+        List<CourierQuote> added = new ArrayList<>(1);
+        for (CourierQuote quote : quotes) {
+            if (!quote.equals(previous.quoteOf(quote.getResponder()))) {
+                added.add(quote);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Returns a new book with the quote added, replacing any earlier quote from the same responder.
+     */
+    public CourierQuoteBook withQuote(CourierQuote quote) {
+        List<CourierQuote> updated = new ArrayList<>(quotes.size() + 1);
+        for (CourierQuote existing : quotes) {
+            if (!existing.getResponder().equals(quote.getResponder())) {
+                updated.add(existing);
+            }
+        }
+        updated.add(quote);
+        return new CourierQuoteBook(updated);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return quotes.equals(((CourierQuoteBook) o).quotes);
+    }
+
+    @Override
+    public int hashCode() {
+        return quotes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CourierQuoteBook{" +
+                "quotes=" + quotes +
+                '}';
+    }
+}
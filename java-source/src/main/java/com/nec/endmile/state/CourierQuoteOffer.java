@@ -0,0 +1,50 @@
+package com.nec.endmile.state;
+
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Objects;
+
+/**
+ * A quote sent to the requestor off the ledger. The carrier signs the offer as a whole, so a quote cannot be
+ * replayed against another courier.
+ */
+@CordaSerializable
+public class CourierQuoteOffer {
+    private final String courierId;
+    private final CourierQuote quote;
+
+    public CourierQuoteOffer(String courierId, CourierQuote quote) {
+        this.courierId = courierId;
+        this.quote = quote;
+    }
+
+    public String getCourierId() {
+        return courierId;
+    }
+
+    public CourierQuote getQuote() {
+        return quote;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CourierQuoteOffer that = (CourierQuoteOffer) o;
+        return Objects.equals(courierId, that.courierId) &&
+                Objects.equals(quote, that.quote);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(courierId, quote);
+    }
+
+    @Override
+    public String toString() {
+        return "CourierQuoteOffer{" +
+                "courierId='" + courierId + '\'' +
+                ", quote=" + quote +
+                '}';
+    }
+}
@@ -1,8 +1,9 @@
 package com.nec.endmile.state;
 
 import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
 import com.nec.endmile.config.CourierType;
-import com.nec.endmile.schema.CourierSchemaV1;
+import com.nec.endmile.schema.CourierSchemaV2;
 import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.SecureHash;
@@ -29,22 +30,27 @@ public class CourierState implements LinearState, QueryableState {
     private final String source;
     private final String destination;
     private final Party requestor;
-    private final String acceptedResponder;
-    private final String finalQuotedPrice;
-    private final String finalDeliveryType;
-    private final String status;
+    private final Party acceptedResponder;
+    private final Long finalQuotedPrice;
+    private final CourierType finalDeliveryType;
+    private final CourierStatus status;
     private final UniqueIdentifier linearId;
     private final String courierId;
-    private final Map<String, String> responses;
+    private final CourierQuoteBook responses;
     private final List<Party> autoNodes;
+    private final CourierQuote addedQuote;
 
+    /**
+     * @param addedQuote the quote the transition producing this state adds to the input's quote book, or null if it
+     *                   adds none. The contract checks it against the two books.
+     */
     @ConstructorForDeserialization
     public CourierState(int courierLength, int courierWidth, int courierHeight, int courierWeight,
 
-                        String courierReceiptHash, String source, String destination, Party requestor, String acceptedResponder,
+                        String courierReceiptHash, String source, String destination, Party requestor, Party acceptedResponder,
 
-                        String finalQuotedPrice, String finalDeliveryType, String status, UniqueIdentifier linearId, Map<String, String> responses,
-                        String courierId, List<Party> autoNodes) {
+                        Long finalQuotedPrice, CourierType finalDeliveryType, CourierStatus status, UniqueIdentifier linearId, CourierQuoteBook responses,
+                        String courierId, List<Party> autoNodes, CourierQuote addedQuote) {
         this.courierLength = courierLength;
         this.courierWidth = courierWidth;
         this.courierHeight = courierHeight;
@@ -58,9 +64,21 @@ public class CourierState implements LinearState, QueryableState {
         this.finalDeliveryType = finalDeliveryType;
         this.status = status;
         this.linearId = linearId;
-        this.responses = responses;
+        this.responses = responses == null ? CourierQuoteBook.EMPTY : responses;
         this.courierId = courierId;
         this.autoNodes = autoNodes;
+        this.addedQuote = addedQuote;
+    }
+
+    /**
+     * Constructor for a transition that leaves the quote book as it was.
+     */
+    public CourierState(int courierLength, int courierWidth, int courierHeight, int courierWeight,
+                        String courierReceiptHash, String source, String destination, Party requestor, Party acceptedResponder,
+                        Long finalQuotedPrice, CourierType finalDeliveryType, CourierStatus status, UniqueIdentifier linearId, CourierQuoteBook responses,
+                        String courierId, List<Party> autoNodes) {
+        this(courierLength, courierWidth, courierHeight, courierWeight, courierReceiptHash, source, destination, requestor,
+                acceptedResponder, finalQuotedPrice, finalDeliveryType, status, linearId, responses, courierId, autoNodes, null);
     }
 
     /**
@@ -77,7 +95,7 @@ public class CourierState implements LinearState, QueryableState {
      * @param linearId
      */
     public CourierState(int courierLength, int courierWidth, int courierHeight, int courierWeight,
-                        String source, String destination, Party requestor, String status, UniqueIdentifier linearId, String courierId, List<Party> autoNodes) {
+                        String source, String destination, Party requestor, CourierStatus status, UniqueIdentifier linearId, String courierId, List<Party> autoNodes) {
         this.courierLength = courierLength;
         this.courierWidth = courierWidth;
         this.courierHeight = courierHeight;
@@ -91,9 +109,10 @@ public class CourierState implements LinearState, QueryableState {
         this.finalDeliveryType = null;
         this.status = status;
         this.linearId = linearId;
-        this.responses = null;
+        this.responses = CourierQuoteBook.EMPTY;
         this.courierId = courierId;
         this.autoNodes = autoNodes;
+        this.addedQuote = null;
     }
 
     /**
@@ -108,9 +127,11 @@ public class CourierState implements LinearState, QueryableState {
      * @param requestor
      * @param status
      * @param linearId
+     * @param addedQuote the quote added to the input's book by the response, or null
      */
     public CourierState(int courierLength, int courierWidth, int courierHeight, int courierWeight,
-                        String source, String destination, Party requestor, String status, UniqueIdentifier linearId, String courierId, Map<String, String> responses, List<Party> autoNodes) {
+                        String source, String destination, Party requestor, CourierStatus status, UniqueIdentifier linearId, String courierId, CourierQuoteBook responses, List<Party> autoNodes,
+                        CourierQuote addedQuote) {
         this.courierLength = courierLength;
         this.courierWidth = courierWidth;
         this.courierHeight = courierHeight;
@@ -124,51 +145,13 @@ public class CourierState implements LinearState, QueryableState {
         this.finalDeliveryType = null;
         this.status = status;
         this.linearId = linearId;
-        this.responses = responses;
+        this.responses = responses == null ? CourierQuoteBook.EMPTY : responses;
         this.courierId = courierId;
         this.autoNodes = autoNodes;
+        this.addedQuote = addedQuote;
     }
 
 
-    public static Map<String, String> addResponse(Map<String, String> responses, String responder, String sharedPrice, String dedicatedPrice) {
-
-        if (responses == null) {
-            responses = new LinkedHashMap<>();
-        }
-
-        responses.put(responder, sharedPrice + "-" + dedicatedPrice);
-
-        return responses;
-    }
-
-
-    public static String getPrice(Map<String, String> responses, String finalDeliveryType, String acceptedResponder) {
-
-
-        System.out.println("gePrice method input" + responses + " type " + finalDeliveryType + " acceptedResponder " + acceptedResponder);
-        if (responses == null) {
-            System.err.println("Responses not present");
-            return null;
-        }
-        String rates = responses.get(acceptedResponder);
-
-        if (rates == null) {
-            System.err.println("acceptedResponder not present");
-            return null;
-        }
-
-        String[] split = rates.split("-");
-
-        if (finalDeliveryType.equalsIgnoreCase(CourierType.SHARED)) {
-            return split[0];
-        } else if (finalDeliveryType.equalsIgnoreCase(CourierType.DEDICATED)) {
-            return split[1];
-        }
-
-
-        return null;
-    }
-
     public int getCourierLength() {
         return courierLength;
     }
@@ -202,23 +185,23 @@ public class CourierState implements LinearState, QueryableState {
     }
 
 
-    public String getAcceptedResponder() {
+    public Party getAcceptedResponder() {
         return acceptedResponder;
     }
 
-    public String getFinalQuotedPrice() {
+    public Long getFinalQuotedPrice() {
         return finalQuotedPrice;
     }
 
-    public String getFinalDeliveryType() {
+    public CourierType getFinalDeliveryType() {
         return finalDeliveryType;
     }
 
-    public String getStatus() {
+    public CourierStatus getStatus() {
         return status;
     }
 
-    public Map<String, String> getResponses() {
+    public CourierQuoteBook getResponses() {
         return responses;
     }
 
@@ -231,26 +214,41 @@ public class CourierState implements LinearState, QueryableState {
         return linearId;
     }
 
+    public CourierQuote getAddedQuote() {
+        return addedQuote;
+    }
+
     public List<Party> getAutoNodes() {
         return autoNodes;
     }
 
 
+    /**
+     * Every carrier the courier was broadcast to, until one is accepted. From then on only the requestor and the
+     * accepted responder, so later transitions are neither sent to nor stored by the carriers that lost.
+     */
     @Override
     public List<AbstractParty> getParticipants() {
+        if (acceptedResponder != null) {
+            return acceptedResponder.equals(requestor)
+                    ? ImmutableList.of(requestor) : ImmutableList.of(requestor, acceptedResponder);
+        }
 
-        List<AbstractParty> participants = new ArrayList<>();
+        List<AbstractParty> participants = new ArrayList<>(autoNodes.size() + 1);
         participants.add(requestor);
-        participants.addAll(autoNodes);
-        //TODO change to requestor
+        for (Party autoNode : autoNodes) {
+            if (!autoNode.equals(requestor)) {
+                participants.add(autoNode);
+            }
+        }
         return participants;
     }
 
     @Override
     public PersistentState generateMappedObject(MappedSchema schema) {
-        if (schema instanceof CourierSchemaV1) {
+        if (schema instanceof CourierSchemaV2) {
 
-            return new CourierSchemaV1.PersistentCourier(
+            return new CourierSchemaV2.PersistentCourier(
                     this.courierLength,
                     this.courierWidth,
                     this.courierHeight,
@@ -259,21 +257,34 @@ public class CourierState implements LinearState, QueryableState {
                     this.source,
                     this.destination,
                     this.requestor.getName().toString(),
-                    this.acceptedResponder,
+                    this.acceptedResponder == null ? null : this.acceptedResponder.getName().toString(),
                     this.finalQuotedPrice,
-                    this.finalDeliveryType,
-                    this.status,
+                    this.finalDeliveryType == null ? null : this.finalDeliveryType.getLabel(),
+                    this.status.getCode(),
                     this.linearId.getId(),
-                    this.responses,
-                    this.courierId);
+                    this.courierId,
+                    addedQuotes());
         } else {
             throw new IllegalArgumentException("Unrecognised schema $schema");
         }
     }
 
+    /**
+     * Only the quote this state's transition added to the book is persisted, so each quote is written exactly once
+     * however many times the courier moves on afterwards.
+     */
+    private List<CourierSchemaV2.PersistentQuote> addedQuotes() {
+        final List<CourierSchemaV2.PersistentQuote> added = new ArrayList<>(1);
+        if (this.addedQuote != null) {
+            added.add(new CourierSchemaV2.PersistentQuote(this.courierId, this.addedQuote.getResponder().getName().toString(),
+                    this.addedQuote.getSharedPrice(), this.addedQuote.getDedicatedPrice(), this.addedQuote.getQuotedAt()));
+        }
+        return added;
+    }
+
     @Override
     public Iterable<MappedSchema> supportedSchemas() {
-        return ImmutableList.of(new CourierSchemaV1());
+        return ImmutableList.of(new CourierSchemaV2());
     }
 
     @Override
@@ -288,13 +299,14 @@ public class CourierState implements LinearState, QueryableState {
                 ", destination='" + destination + '\'' +
                 ", requestor=" + requestor +
                 ", acceptedResponder=" + acceptedResponder +
-                ", finalQuotedPrice='" + finalQuotedPrice + '\'' +
+                ", finalQuotedPrice=" + finalQuotedPrice +
                 ", finalDeliveryType='" + finalDeliveryType + '\'' +
                 ", status='" + status + '\'' +
                 ", linearId=" + linearId +
                 ", courierId='" + courierId + '\'' +
                 ", responses=" + responses +
                 ", autoNodes=" + autoNodes +
+                ", addedQuote=" + addedQuote +
                 '}';
     }
 }
\ No newline at end of file
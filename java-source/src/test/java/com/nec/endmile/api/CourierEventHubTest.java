@@ -0,0 +1,172 @@
+package com.nec.endmile.api;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.state.CourierState;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.testing.core.TestIdentity;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.Test;
+import rx.subjects.PublishSubject;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CourierEventHubTest {
+    static private final Party notary = new TestIdentity(new CordaX500Name("Notary", "London", "GB")).getParty();
+    static private final Party amazon = new TestIdentity(new CordaX500Name("Amazon", "London", "GB")).getParty();
+    static private final Party flipkart = new TestIdentity(new CordaX500Name("Flipkart", "Bangalore", "IN")).getParty();
+    static private final Party necAuto = new TestIdentity(new CordaX500Name("NECAuto", "New York", "US")).getParty();
+
+    private final List<PublishSubject<Vault.Update<CourierState>>> feeds = new CopyOnWriteArrayList<>();
+    private final CourierEventHub hub = new CourierEventHub(() -> {
+        PublishSubject<Vault.Update<CourierState>> feed = PublishSubject.create();
+        feeds.add(feed);
+        return feed;
+    }, JacksonSupport.createNonRpcMapper());
+
+    /**
+     * Keeps what the hub writes instead of sending it, and can hold a write to play a slow client.
+     */
+    private static class RecordingOutput extends ChunkedOutput<String> {
+        private final List<String> written = new CopyOnWriteArrayList<>();
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private volatile boolean closed;
+
+        private RecordingOutput(CountDownLatch release) {
+            super(String.class);
+            this.release = release;
+        }
+
+        private RecordingOutput() {
+            this(new CountDownLatch(0));
+        }
+
+        @Override
+        public void write(String chunk) throws IOException {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            written.add(chunk);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    private static StateAndRef<CourierState> courier(Party requestor) {
+        UniqueIdentifier id = new UniqueIdentifier();
+        CourierState courier = new CourierState(10, 10, 10, 10, "krpuram", "marathahalli", requestor, CourierStatus.COURIER_INITIATED,
+                id, id.getId().toString(), ImmutableList.of(necAuto));
+        return new StateAndRef<>(new TransactionState<>(courier, CourierContract.CONTRACT_ID, notary), new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    private PublishSubject<Vault.Update<CourierState>> feed() {
+        return feeds.get(feeds.size() - 1);
+    }
+
+    private void produce(StateAndRef<CourierState> courier) {
+        feed().onNext(new Vault.Update<>(Collections.emptySet(), ImmutableSet.of(courier), null, Vault.UpdateType.GENERAL));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void clientsOnlyReceiveTheCouriersTheirFilterMatches() throws Exception {
+        RecordingOutput amazonClient = new RecordingOutput();
+        RecordingOutput flipkartClient = new RecordingOutput();
+        hub.subscribe(courier -> courier.getRequestor().equals(amazon), amazonClient);
+        hub.subscribe(courier -> courier.getRequestor().equals(flipkart), flipkartClient);
+        StateAndRef<CourierState> courier = courier(amazon);
+
+        produce(courier);
+        produce(courier(amazon));
+
+        await(() -> amazonClient.written.size() == 2);
+        assertTrue(amazonClient.written.get(0).startsWith("id: " + courier.getRef() + "\nevent: courier\ndata: "));
+        assertTrue(amazonClient.written.get(0).contains(courier.getState().getData().getCourierId()));
+        assertTrue(flipkartClient.written.isEmpty());
+        // One feed serves every client.
+        assertEquals(1, feeds.size());
+    }
+
+    @Test
+    public void clientAWholeQueueBehindIsDisconnected() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingOutput slowClient = new RecordingOutput(release);
+        RecordingOutput fastClient = new RecordingOutput();
+        hub.subscribe(courier -> true, slowClient);
+        hub.subscribe(courier -> courier.getRequestor().equals(flipkart), fastClient);
+
+        // The first event is taken off the queue and held in the write, the rest fill the queue.
+        produce(courier(amazon));
+        slowClient.writing.await();
+        for (int i = 0; i < CourierEventHub.QUEUE_CAPACITY; i++) {
+            produce(courier(amazon));
+        }
+        assertFalse(slowClient.isClosed());
+
+        produce(courier(amazon));
+        assertTrue(slowClient.isClosed());
+
+        // The feed carries on for the other clients.
+        produce(courier(flipkart));
+        await(() -> fastClient.written.size() == 1);
+        release.countDown();
+    }
+
+    @Test
+    public void feedErrorClosesEveryStreamAndTheNextClientResubscribes() throws Exception {
+        RecordingOutput first = new RecordingOutput();
+        RecordingOutput second = new RecordingOutput();
+        hub.subscribe(courier -> true, first);
+        hub.subscribe(courier -> true, second);
+
+        feed().onError(new IllegalStateException("Connection lost"));
+
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+
+        RecordingOutput third = new RecordingOutput();
+        hub.subscribe(courier -> true, third);
+        assertEquals(2, feeds.size());
+        produce(courier(amazon));
+        await(() -> third.written.size() == 1);
+        assertTrue(first.written.isEmpty());
+    }
+}
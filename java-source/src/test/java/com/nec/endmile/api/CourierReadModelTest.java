@@ -0,0 +1,255 @@
+package com.nec.endmile.api;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.testing.core.TestIdentity;
+import org.junit.Test;
+import rx.subjects.PublishSubject;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CourierReadModelTest {
+    static private final Party notary = new TestIdentity(new CordaX500Name("Notary", "London", "GB")).getParty();
+    static private final Party amazon = new TestIdentity(new CordaX500Name("Amazon", "London", "GB")).getParty();
+    static private final Party flipkart = new TestIdentity(new CordaX500Name("Flipkart", "Bangalore", "IN")).getParty();
+    static private final Party necAuto = new TestIdentity(new CordaX500Name("NECAuto", "New York", "US")).getParty();
+
+    private final List<PublishSubject<Vault.Update<CourierState>>> feeds = new CopyOnWriteArrayList<>();
+
+    private static StateAndRef<CourierState> initiated(Party requestor, UniqueIdentifier id) {
+        return stateAndRef(new CourierState(10, 10, 10, 10, "krpuram", "marathahalli", requestor, CourierStatus.COURIER_INITIATED,
+                id, id.getId().toString(), ImmutableList.of(necAuto)));
+    }
+
+    private static StateAndRef<CourierState> accepted(Party requestor, UniqueIdentifier id) {
+        CourierQuote quote = new CourierQuote(necAuto, 10000, 20000, Instant.ofEpochSecond(1000));
+        return stateAndRef(new CourierState(10, 10, 10, 10, null, "krpuram", "marathahalli", requestor, necAuto,
+                10000L, CourierType.SHARED, CourierStatus.COURIER_ACCEPTED, id, CourierQuoteBook.EMPTY.withQuote(quote),
+                id.getId().toString(), ImmutableList.of(necAuto), quote));
+    }
+
+    private static StateAndRef<CourierState> stateAndRef(CourierState courier) {
+        return new StateAndRef<>(new TransactionState<>(courier, CourierContract.CONTRACT_ID, notary), new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    private static Vault.Update<CourierState> update(Set<StateAndRef<CourierState>> consumed, Set<StateAndRef<CourierState>> produced) {
+        return new Vault.Update<>(consumed, produced, null, Vault.UpdateType.GENERAL);
+    }
+
+    private static Vault.Update<CourierState> produced(StateAndRef<CourierState> courier) {
+        return update(Collections.emptySet(), ImmutableSet.of(courier));
+    }
+
+    private CourierReadModel model(CourierReadModel.Loader loader) {
+        return new CourierReadModel(() -> {
+            PublishSubject<Vault.Update<CourierState>> feed = PublishSubject.create();
+            feeds.add(feed);
+            return feed;
+        }, loader, Duration.ZERO);
+    }
+
+    private PublishSubject<Vault.Update<CourierState>> feed() {
+        return feeds.get(feeds.size() - 1);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static CourierSummary only(CourierReadModel model) {
+        List<CourierSummary> all = model.select(null, courier -> true);
+        assertEquals(1, all.size());
+        return all.get(0);
+    }
+
+    // Projection.
+
+    @Test
+    public void loadProjectsTheUnconsumedCouriers() throws Exception {
+        UniqueIdentifier id = new UniqueIdentifier();
+        CourierReadModel model = model(unconsumed -> unconsumed.accept(initiated(amazon, id).getState().getData()));
+        await(model::isReady);
+
+        CourierSummary courier = only(model);
+        assertEquals(id.getId().toString(), courier.getCourierId());
+        assertEquals(CourierStatus.COURIER_INITIATED, courier.getStatus());
+        assertEquals(amazon.getName().toString(), courier.getRequestor());
+    }
+
+    @Test
+    public void producedCouriersAreIndexedByStatus() throws Exception {
+        CourierReadModel model = model(unconsumed -> { });
+        await(model::isReady);
+        UniqueIdentifier id = new UniqueIdentifier();
+
+        feed().onNext(produced(accepted(amazon, id)));
+
+        assertEquals(necAuto.getName().toString(), only(model).getAcceptedResponder());
+        assertEquals(1, model.select(CourierStatus.COURIER_ACCEPTED, courier -> true).size());
+        assertTrue(model.select(CourierStatus.COURIER_INITIATED, courier -> true).isEmpty());
+    }
+
+    @Test
+    public void loadSkipsCouriersTheFeedUpdatedWhileItRan() throws Exception {
+        UniqueIdentifier id = new UniqueIdentifier();
+        StateAndRef<CourierState> older = initiated(amazon, id);
+        CourierReadModel model = model(unconsumed -> {
+            // The courier is accepted after the load read it, but before the load applied it.
+            feed().onNext(update(ImmutableSet.of(older), ImmutableSet.of(accepted(amazon, id))));
+            unconsumed.accept(older.getState().getData());
+        });
+        await(model::isReady);
+
+        assertEquals(CourierStatus.COURIER_ACCEPTED, only(model).getStatus());
+    }
+
+    @Test
+    public void loadSkipsCouriersTheFeedConsumedWhileItRan() throws Exception {
+        StateAndRef<CourierState> courier = initiated(amazon, new UniqueIdentifier());
+        CourierReadModel model = model(unconsumed -> {
+            feed().onNext(update(ImmutableSet.of(courier), Collections.emptySet()));
+            unconsumed.accept(courier.getState().getData());
+        });
+        await(model::isReady);
+
+        assertTrue(model.select(null, summary -> true).isEmpty());
+    }
+
+    @Test
+    public void consumedCouriersAreRemoved() throws Exception {
+        CourierReadModel model = model(unconsumed -> { });
+        await(model::isReady);
+        StateAndRef<CourierState> courier = initiated(amazon, new UniqueIdentifier());
+        feed().onNext(produced(courier));
+
+        feed().onNext(update(ImmutableSet.of(courier), Collections.emptySet()));
+
+        assertTrue(model.select(null, summary -> true).isEmpty());
+        assertTrue(model.select(CourierStatus.COURIER_INITIATED, summary -> true).isEmpty());
+    }
+
+    // Counts.
+
+    @Test
+    public void countsFollowPutsAndRemoves() throws Exception {
+        CourierReadModel model = model(unconsumed -> { });
+        await(model::isReady);
+        StateAndRef<CourierState> first = initiated(amazon, new UniqueIdentifier());
+        StateAndRef<CourierState> second = initiated(amazon, new UniqueIdentifier());
+        StateAndRef<CourierState> third = initiated(flipkart, new UniqueIdentifier());
+
+        feed().onNext(update(Collections.emptySet(), ImmutableSet.of(first, second, third)));
+        CourierStats stats = model.stats();
+        assertEquals(3, stats.getTotal());
+        assertEquals(Integer.valueOf(3), stats.getByStatus().get(CourierStatus.COURIER_INITIATED.getLabel()));
+        assertEquals(ImmutableMap.of(amazon.getName().toString(), 2, flipkart.getName().toString(), 1), stats.getByRequestor());
+
+        feed().onNext(update(ImmutableSet.of(first, third), Collections.emptySet()));
+        stats = model.stats();
+        assertEquals(1, stats.getTotal());
+        assertEquals(Integer.valueOf(1), stats.getByStatus().get(CourierStatus.COURIER_INITIATED.getLabel()));
+        // A party with no couriers left is dropped rather than counted as zero.
+        assertEquals(ImmutableMap.of(amazon.getName().toString(), 1), stats.getByRequestor());
+    }
+
+    @Test
+    public void transitionMovesTheCourierBetweenCounts() throws Exception {
+        CourierReadModel model = model(unconsumed -> { });
+        await(model::isReady);
+        UniqueIdentifier id = new UniqueIdentifier();
+        StateAndRef<CourierState> initiated = initiated(amazon, id);
+        feed().onNext(produced(initiated));
+
+        feed().onNext(update(ImmutableSet.of(initiated), ImmutableSet.of(accepted(amazon, id))));
+
+        CourierStats stats = model.stats();
+        assertEquals(1, stats.getTotal());
+        assertEquals(Integer.valueOf(0), stats.getByStatus().get(CourierStatus.COURIER_INITIATED.getLabel()));
+        assertEquals(Integer.valueOf(1), stats.getByStatus().get(CourierStatus.COURIER_ACCEPTED.getLabel()));
+        assertEquals(ImmutableMap.of(amazon.getName().toString(), 1), stats.getByRequestor());
+        assertEquals(ImmutableMap.of(necAuto.getName().toString(), 1), stats.getByResponder());
+    }
+
+    // Recovery.
+
+    @Test
+    public void failedLoadIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        UniqueIdentifier id = new UniqueIdentifier();
+        CourierReadModel model = model(unconsumed -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("Node unavailable");
+            }
+            unconsumed.accept(initiated(amazon, id).getState().getData());
+        });
+        await(model::isReady);
+
+        assertEquals(2, attempts.get());
+        assertEquals(id.getId().toString(), only(model).getCourierId());
+        assertEquals(1, feeds.size());
+    }
+
+    @Test
+    public void feedErrorEmptiesTheModelAndResubscribes() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch reload = new CountDownLatch(1);
+        UniqueIdentifier id = new UniqueIdentifier();
+        CourierReadModel model = model(unconsumed -> {
+            if (loads.incrementAndGet() > 1) {
+                try {
+                    reload.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                unconsumed.accept(accepted(amazon, id).getState().getData());
+            }
+        });
+        await(model::isReady);
+        feed().onNext(produced(initiated(flipkart, new UniqueIdentifier())));
+
+        feed().onError(new IllegalStateException("Connection lost"));
+
+        assertFalse(model.isReady());
+        assertTrue(model.select(null, courier -> true).isEmpty());
+        assertNull(model.stats().getByRequestor().get(flipkart.getName().toString()));
+
+        reload.countDown();
+        await(model::isReady);
+        assertEquals(2, feeds.size());
+        assertEquals(CourierStatus.COURIER_ACCEPTED, only(model).getStatus());
+        feed().onNext(produced(initiated(flipkart, new UniqueIdentifier())));
+        assertEquals(2, model.stats().getTotal());
+    }
+}
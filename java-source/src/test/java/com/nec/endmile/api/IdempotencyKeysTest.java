@@ -0,0 +1,281 @@
+package com.nec.endmile.api;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.service.CourierIdempotencyRecord;
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class IdempotencyKeysTest {
+    private static final String ENDPOINT = "responder/setFares";
+    private static final List<Object> REQUEST = ImmutableList.of("courier-1", "10", "15");
+
+    private final FakeNode node = new FakeNode();
+    private final IdempotencyKeys keys = new IdempotencyKeys(node);
+    private final BlockingQueue<IdempotencyKeys.Claim> started = new LinkedBlockingQueue<>();
+
+    /**
+     * Stands in for the node's key table: records what is written to it, and answers claims from stored.
+     */
+    private static class FakeNode implements IdempotencyKeys.Node {
+        private final Map<String, List<CourierIdempotencyRecord>> stored = new ConcurrentHashMap<>();
+        private final Map<String, String> requestHashes = new ConcurrentHashMap<>();
+        private final AtomicInteger claims = new AtomicInteger();
+        private final List<String> written = new CopyOnWriteArrayList<>();
+        // Set to make claims fail, by throwing or with a failed future.
+        private volatile RuntimeException claimFailure;
+        private volatile boolean claimThrows;
+
+        @Override
+        public CompletableFuture<List<CourierIdempotencyRecord>> claim(String endpoint, String key, String requestHash, int commands,
+                                                                       boolean multiple) {
+            claims.incrementAndGet();
+            requestHashes.put(key, requestHash);
+            if (claimFailure != null) {
+                if (claimThrows) {
+                    throw claimFailure;
+                }
+                final CompletableFuture<List<CourierIdempotencyRecord>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(claimFailure);
+                return failed;
+            }
+            return CompletableFuture.completedFuture(stored.getOrDefault(endpoint + " " + key, Collections.emptyList()));
+        }
+
+        @Override
+        public CompletableFuture<Void> complete(String endpoint, String key, int commandIndex, FlowRegistry.FlowOutcome outcome) {
+            written.add("complete " + endpoint + " " + key + " " + commandIndex + " " + outcome.getStatus());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> release(String endpoint, String key) {
+            written.add("release " + endpoint + " " + key);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Keeps the response the request is resumed with.
+     */
+    private static class RecordingResponse implements AsyncResponse {
+        private final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        private Response get() throws Exception {
+            return response.get(5, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public boolean resume(Object response) {
+            return this.response.complete((Response) response);
+        }
+
+        @Override
+        public boolean resume(Throwable response) {
+            return this.response.completeExceptionally(response);
+        }
+
+        @Override
+        public boolean cancel() {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(int retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(Date retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return !response.isDone();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return response.isDone();
+        }
+
+        @Override
+        public boolean setTimeout(long time, TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void setTimeoutHandler(TimeoutHandler handler) {
+        }
+
+        @Override
+        public Collection<Class<?>> register(Class<?> callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Collection<Class<?>> register(Object callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+            return Collections.emptyMap();
+        }
+    }
+
+    private RecordingResponse send(String key, String endpoint, Object request) {
+        RecordingResponse response = new RecordingResponse();
+        keys.run(key, endpoint, request, 1, false, response, started::add);
+        return response;
+    }
+
+    private IdempotencyKeys.Claim start(String key) throws Exception {
+        send(key, ENDPOINT, REQUEST);
+        IdempotencyKeys.Claim claim = started.poll(5, TimeUnit.SECONDS);
+        assertNotNull("The request was not started", claim);
+        return claim;
+    }
+
+    private static FlowRegistry.FlowOutcome completed(String flowId) {
+        return new FlowRegistry.FlowOutcome(flowId, FlowRegistry.FlowStatus.COMPLETED, "tx-" + flowId, null);
+    }
+
+    @Test
+    public void requestWithoutAKeyIsStartedWithoutAClaim() throws Exception {
+        send(null, ENDPOINT, REQUEST);
+
+        assertNotNull(started.poll());
+        assertEquals(0, node.claims.get());
+    }
+
+    @Test
+    public void retryIsAnsweredWithTheFirstOutcome() throws Exception {
+        start("key-1").update(0, completed("flow-1"));
+
+        Response replayed = send("key-1", ENDPOINT, REQUEST).get();
+
+        assertEquals(200, replayed.getStatus());
+        assertEquals("flow-1", ((FlowRegistry.FlowOutcome) replayed.getEntity()).getFlowId());
+        assertEquals("true", replayed.getHeaderString(IdempotencyKeys.HEADER + "-Replayed"));
+        assertNull(started.poll());
+        // The retry is answered from the cache, and only the first request's outcome is written.
+        assertEquals(1, node.claims.get());
+        assertEquals(ImmutableList.of("complete " + ENDPOINT + " key-1 0 COMPLETED"), node.written);
+    }
+
+    @Test
+    public void retryOfARunningFlowIsAnsweredWith202() throws Exception {
+        start("key-2").update(0, new FlowRegistry.FlowOutcome("flow-2", FlowRegistry.FlowStatus.RUNNING, null, null));
+
+        assertEquals(202, send("key-2", ENDPOINT, REQUEST).get().getStatus());
+        // Nothing is written until the flow ends.
+        assertEquals(Collections.emptyList(), node.written);
+    }
+
+    @Test
+    public void retryWhileTheFirstRequestIsStartingGets409() throws Exception {
+        start("key-3");
+
+        assertEquals(409, send("key-3", ENDPOINT, REQUEST).get().getStatus());
+        assertNull(started.poll());
+    }
+
+    @Test
+    public void keyReusedForADifferentRequestGets422() throws Exception {
+        start("key-4").update(0, completed("flow-4"));
+
+        Response reused = send("key-4", ENDPOINT, ImmutableList.of("courier-1", "10", "20")).get();
+
+        assertEquals(IdempotencyKeys.UNPROCESSABLE_ENTITY, reused.getStatus());
+        assertNull(started.poll());
+    }
+
+    @Test
+    public void keysAreScopedByEndpoint() throws Exception {
+        start("key-5").update(0, completed("flow-5"));
+
+        send("key-5", "responder/updateStatus", REQUEST);
+
+        assertNotNull(started.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void releasedKeyCanBeRetried() throws Exception {
+        start("key-6").release();
+
+        assertEquals(ImmutableList.of("release " + ENDPOINT + " key-6"), node.written);
+        start("key-6");
+        assertEquals(2, node.claims.get());
+    }
+
+    @Test
+    public void keyThatCannotBeClaimedGets503AndStartsNothing() throws Exception {
+        node.claimFailure = new IllegalStateException("Node unreachable");
+
+        assertEquals(503, send("key-9", ENDPOINT, REQUEST).get().getStatus());
+        node.claimThrows = true;
+        assertEquals(503, send("key-9", ENDPOINT, REQUEST).get().getStatus());
+        assertNull(started.poll());
+        // The key may have been claimed, so it is not released, but a retry claims it again once the node answers.
+        assertEquals(Collections.emptyList(), node.written);
+        node.claimFailure = null;
+        start("key-9");
+        assertEquals(3, node.claims.get());
+    }
+
+    @Test
+    public void keyTheCacheLostIsReplayedFromTheNode() throws Exception {
+        start("key-7").update(0, completed("flow-7"));
+        String requestHash = node.requestHashes.get("key-7");
+        node.stored.put(ENDPOINT + " key-7", ImmutableList.of(new CourierIdempotencyRecord(0, false, requestHash, "flow-7",
+                "COMPLETED", "tx-flow-7", null, Instant.now())));
+        node.stored.put(ENDPOINT + " key-8", ImmutableList.of(new CourierIdempotencyRecord(0, false, requestHash, null,
+                null, null, null, Instant.now())));
+        // As when the webserver restarts.
+        IdempotencyKeys restarted = new IdempotencyKeys(node);
+        RecordingResponse response = new RecordingResponse();
+        RecordingResponse different = new RecordingResponse();
+        RecordingResponse running = new RecordingResponse();
+
+        restarted.run("key-7", ENDPOINT, REQUEST, 1, false, response, started::add);
+        restarted.run("key-7", ENDPOINT, ImmutableList.of("courier-2"), 1, false, different, started::add);
+        restarted.run("key-8", ENDPOINT, REQUEST, 1, false, running, started::add);
+
+        assertEquals(200, response.get().getStatus());
+        assertEquals("tx-flow-7", ((FlowRegistry.FlowOutcome) response.get().getEntity()).getTransactionId());
+        assertEquals(IdempotencyKeys.UNPROCESSABLE_ENTITY, different.get().getStatus());
+        assertEquals(409, running.get().getStatus());
+        assertNull(started.poll());
+    }
+}
@@ -1,114 +1,534 @@
-package com.nec.endmile.contract;/*
-package com.example.contract;
+package com.nec.endmile.contract;
 
-import com.example.state.IOUState;
 import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierQuoteOffer;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.SignedData;
 import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.SerializationAPIKt;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.core.serialization.SerializedBytes;
 import net.corda.testing.core.TestIdentity;
+import net.corda.testing.dsl.TransactionDSL;
+import net.corda.testing.dsl.TransactionDSLInterpreter;
 import net.corda.testing.node.MockServices;
 import org.junit.Test;
 
-import static com.example.contract.IOUContract.IOU_CONTRACT_ID;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.nec.endmile.contract.CourierContract.CONTRACT_ID;
 import static net.corda.testing.node.NodeTestUtils.ledger;
+import static org.junit.Assert.assertEquals;
 
-public class IOUContractTests {
-    static private final MockServices ledgerServices = new MockServices();
-    static private TestIdentity megaCorp = new TestIdentity(new CordaX500Name("MegaCorp", "London", "GB"));
-    static private TestIdentity miniCorp = new TestIdentity(new CordaX500Name("MiniCorp", "London", "GB"));
-    static private int iouValue = 1;
+public class CourierContractTests {
+    static private final MockServices ledgerServices = new MockServices(ImmutableList.of("com.nec.endmile.contract"));
+    static private final TestIdentity amazon = new TestIdentity(new CordaX500Name("Amazon", "London", "GB"));
+    static private final TestIdentity necAuto = new TestIdentity(new CordaX500Name("NECAuto", "New York", "US"));
+    static private final TestIdentity olaAuto = new TestIdentity(new CordaX500Name("OlaAuto", "Bangalore", "IN"));
+    static private final TestIdentity uberAuto = new TestIdentity(new CordaX500Name("UberAuto", "Bangalore", "IN"));
 
-    @Test
-    public void transactionMustIncludeCreateCommand() {
+    static private final UniqueIdentifier linearId = new UniqueIdentifier();
+    static private final CourierQuote necQuote = new CourierQuote(necAuto.getParty(), 10000, 20000, Instant.ofEpochSecond(1000));
+    static private final CourierQuote olaQuote = new CourierQuote(olaAuto.getParty(), 9000, 25000, Instant.ofEpochSecond(2000));
+    static private final CourierQuoteBook quoted = new CourierQuoteBook(ImmutableList.of(necQuote, olaQuote));
+
+    private static CourierState courier(CourierStatus status, UniqueIdentifier id, CourierQuoteBook responses,
+                                        Party acceptedResponder, Long finalQuotedPrice, CourierType finalDeliveryType, CourierQuote added) {
+        return new CourierState(10, 10, 10, 10, null, "krpuram", "marathahalli", amazon.getParty(), acceptedResponder,
+                finalQuotedPrice, finalDeliveryType, status, id, responses, id.getId().toString(),
+                ImmutableList.of(necAuto.getParty(), olaAuto.getParty()), added);
+    }
+
+    private static CourierState courier(CourierStatus status, UniqueIdentifier id, CourierQuoteBook responses,
+                                        Party acceptedResponder, Long finalQuotedPrice, CourierType finalDeliveryType) {
+        return courier(status, id, responses, acceptedResponder, finalQuotedPrice, finalDeliveryType, null);
+    }
+
+    private static CourierState courier(CourierStatus status) {
+        return courier(status, linearId, quoted, null, null, null);
+    }
+
+    private static CourierState accepted(Party responder, long price) {
+        return courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted, responder, price, CourierType.SHARED);
+    }
+
+    // A courier OlaAuto has won, at any later status.
+    private static CourierState won(CourierStatus status, UniqueIdentifier id) {
+        return courier(status, id, quoted, olaAuto.getParty(), 9000L, CourierType.SHARED);
+    }
+
+    private static CourierState won(CourierStatus status) {
+        return won(status, linearId);
+    }
+
+    private static void transaction(Consumer<TransactionDSL<TransactionDSLInterpreter>> body) {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.fails();
-                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
-                tx.verifies();
+                body.accept(tx);
                 return null;
             });
             return null;
         }));
     }
 
+    // Signing needs the serialization environment, so it is done inside a transaction.
+    private static SignedData<CourierQuoteOffer> offer(TestIdentity signer, String courierId, CourierQuote quote) {
+        SerializationFactory factory = SerializationFactory.Companion.getDefaultFactory();
+        SerializedBytes<CourierQuoteOffer> raw = SerializationAPIKt.serialize(new CourierQuoteOffer(courierId, quote), factory, factory.getDefaultContext());
+        return new SignedData<>(raw, new DigitalSignature.WithKey(signer.getPublicKey(), Crypto.doSign(signer.getKeyPair().getPrivate(), raw.getBytes())));
+    }
+
+    private static void transition(CourierState input, CourierState output, CommandData command, String failure) {
+        transition(input, output, () -> command, failure);
+    }
+
+    private static void transition(CourierState input, CourierState output, Supplier<CommandData> command, String failure) {
+        transition(amazon, input, output, command, failure);
+    }
+
+    private static void transition(TestIdentity signer, CourierState input, CourierState output, CommandData command, String failure) {
+        transition(signer, input, output, () -> command, failure);
+    }
+
+    private static void transition(TestIdentity signer, CourierState input, CourierState output, Supplier<CommandData> command,
+                                   String failure) {
+        transaction(tx -> {
+            tx.input(CONTRACT_ID, input);
+            tx.output(CONTRACT_ID, output);
+            tx.command(signer.getPublicKey(), command.get());
+            if (failure == null) {
+                tx.verifies();
+            } else {
+                tx.failsWith(failure);
+            }
+        });
+    }
+
+    // Post.
+
     @Test
-    public void transactionMustHaveNoInputs() {
-        ledger(ledgerServices, (ledger -> {
-            ledger.transaction(tx -> {
-                tx.input(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
-                tx.failsWith("No inputs should be consumed when issuing an IOU.");
-                return null;
-            });
-            return null;
-        }));
+    public void postCreatesOneInitiatedCourier() {
+        transaction(tx -> {
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED));
+            tx.fails();
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPost());
+            tx.verifies();
+        });
     }
 
     @Test
-    public void transactionMustHaveOneOutput() {
-        ledger(ledgerServices, (ledger -> {
-            ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
-                tx.failsWith("Only one output state should be created.");
-                return null;
-            });
-            return null;
-        }));
+    public void postMustHaveNoInputs() {
+        transaction(tx -> {
+            tx.input(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED));
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED));
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPost());
+            tx.failsWith("No inputs should be consumed when creating courier");
+        });
     }
 
     @Test
-    public void lenderMustSignTransaction() {
-        ledger(ledgerServices, (ledger -> {
-            ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.command(miniCorp.getPublicKey(), new IOUContract.Commands.Create());
-                tx.failsWith("All of the participants must be signers.");
-                return null;
-            });
-            return null;
-        }));
+    public void postMustHaveOneOutput() {
+        transaction(tx -> {
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED));
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, new UniqueIdentifier(), CourierQuoteBook.EMPTY, null, null, null));
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPost());
+            tx.failsWith("Only one courier state should be created when creating courier.");
+        });
     }
 
     @Test
-    public void borrowerMustSignTransaction() {
-        ledger(ledgerServices, (ledger -> {
-            ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.command(megaCorp.getPublicKey(), new IOUContract.Commands.Create());
-                tx.failsWith("All of the participants must be signers.");
-                return null;
-            });
-            return null;
-        }));
+    public void postMustBeSignedByTheRequestor() {
+        transaction(tx -> {
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED));
+            tx.command(necAuto.getPublicKey(), new CourierContract.Commands.CourierPost());
+            tx.failsWith("signer should contain owning key.");
+        });
     }
 
+    // Post batch.
+
     @Test
-    public void lenderIsNotBorrower() {
-        ledger(ledgerServices, (ledger -> {
-            ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouValue, megaCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
-                tx.failsWith("The lender and the borrower cannot be the same entity.");
-                return null;
-            });
-            return null;
-        }));
+    public void postBatchCreatesManyInitiatedCouriers() {
+        transaction(tx -> {
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, new UniqueIdentifier(), CourierQuoteBook.EMPTY, null, null, null));
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, new UniqueIdentifier(), CourierQuoteBook.EMPTY, null, null, null));
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPostBatch());
+            tx.verifies();
+        });
     }
 
     @Test
-    public void cannotCreateNegativeValueIOUs() {
-        ledger(ledgerServices, (ledger -> {
-            ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(-1, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IOUContract.Commands.Create());
-                tx.failsWith("The IOU's value must be non-negative.");
-                return null;
-            });
-            return null;
-        }));
+    public void postBatchMustHaveNoInputs() {
+        transaction(tx -> {
+            tx.input(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED));
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, new UniqueIdentifier(), CourierQuoteBook.EMPTY, null, null, null));
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPostBatch());
+            tx.failsWith("No inputs should be consumed when creating courier batch");
+        });
+    }
+
+    @Test
+    public void postBatchMustCreateACourier() {
+        transaction(tx -> {
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPostBatch());
+            tx.failsWith("At least one courier state should be created when creating courier batch.");
+        });
+    }
+
+    @Test
+    public void postBatchCouriersMustBeInitiated() {
+        transaction(tx -> {
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, new UniqueIdentifier(), CourierQuoteBook.EMPTY, null, null, null));
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_ACCEPTED, new UniqueIdentifier(), quoted, necAuto.getParty(), 10000L, CourierType.SHARED));
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPostBatch());
+            tx.failsWith("Courier state status should be initiated when creating courier batch.");
+        });
+    }
+
+    @Test
+    public void postBatchMustBeSignedByEveryRequestor() {
+        transaction(tx -> {
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, new UniqueIdentifier(), CourierQuoteBook.EMPTY, null, null, null));
+            tx.command(necAuto.getPublicKey(), new CourierContract.Commands.CourierPostBatch());
+            tx.failsWith("signer should contain owning key.");
+        });
+    }
+
+    @Test
+    public void postBatchCourierIdsMustBeUnique() {
+        UniqueIdentifier repeated = new UniqueIdentifier();
+        transaction(tx -> {
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, repeated, CourierQuoteBook.EMPTY, null, null, null));
+            tx.output(CONTRACT_ID, courier(CourierStatus.COURIER_INITIATED, repeated, CourierQuoteBook.EMPTY, null, null, null));
+            tx.command(amazon.getPublicKey(), new CourierContract.Commands.CourierPostBatch());
+            tx.failsWith("Courier ids should be unique within a courier batch.");
+        });
+    }
+
+    // Rate.
+
+    @Test
+    public void rateRecordsAQuoteOnAnOpenCourier() {
+        transition(necAuto, courier(CourierStatus.COURIER_INITIATED, linearId, CourierQuoteBook.EMPTY, null, null, null),
+                courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null, necQuote),
+                new CourierContract.Commands.CourierRate(), null);
+        CourierQuote lower = new CourierQuote(olaAuto.getParty(), 8000, 24000, Instant.ofEpochSecond(3000));
+        transition(olaAuto, courier(CourierStatus.COURIER_RESPONSE_RECEIVED),
+                courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, quoted.withQuote(lower), null, null, null, lower),
+                new CourierContract.Commands.CourierRate(), null);
+    }
+
+    @Test
+    public void rateMustDeclareTheQuoteItAdds() {
+        CourierState input = courier(CourierStatus.COURIER_INITIATED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        transition(olaAuto, input, courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, quoted, null, null, null),
+                new CourierContract.Commands.CourierRate(), "Responding should add the responder's quote");
+        transition(necAuto, input, courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, quoted, null, null, null, necQuote),
+                new CourierContract.Commands.CourierRate(), "Added quote should be the only quote the transition adds to the quote book");
+        // Whatever the carriers' clocks say, the added quote is the one that differs from the input's book.
+        CourierQuote earlier = new CourierQuote(olaAuto.getParty(), 9000, 25000, Instant.ofEpochSecond(1));
+        transition(olaAuto, input, courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, input.getResponses().withQuote(earlier), null, null, null, earlier),
+                new CourierContract.Commands.CourierRate(), null);
+    }
+
+    @Test
+    public void rateMustBeSignedByTheResponder() {
+        CourierState input = courier(CourierStatus.COURIER_INITIATED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        CourierState output = courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, quoted, null, null, null, olaQuote);
+        transition(input, output, new CourierContract.Commands.CourierRate(), "Responding should be signed by the responder");
+        // A carrier cannot quote in another carrier's name.
+        transition(necAuto, input, output, new CourierContract.Commands.CourierRate(), "Responding should be signed by the responder");
+    }
+
+    @Test
+    public void responderMustBeACarrier() {
+        CourierQuote uberQuote = new CourierQuote(uberAuto.getParty(), 5000, 6000, Instant.ofEpochSecond(3000));
+        transition(uberAuto, courier(CourierStatus.COURIER_RESPONSE_RECEIVED),
+                courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, quoted.withQuote(uberQuote), null, null, null, uberQuote),
+                new CourierContract.Commands.CourierRate(), "Responder should be one of the courier's carriers");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quoteBookHoldsOneQuotePerResponder() {
+        new CourierQuoteBook(ImmutableList.of(necQuote, olaQuote, new CourierQuote(necAuto.getParty(), 1, 1, Instant.ofEpochSecond(3000))));
+    }
+
+    @Test
+    public void rateMustNotFollowAcceptance() {
+        transition(olaAuto, accepted(necAuto.getParty(), 10000), courier(CourierStatus.COURIER_RESPONSE_RECEIVED),
+                new CourierContract.Commands.CourierRate(), "Courier Input state status can be either initiated or response-received");
+    }
+
+    @Test
+    public void rateMustProduceAResponseReceivedCourier() {
+        transition(olaAuto, courier(CourierStatus.COURIER_INITIATED), courier(CourierStatus.COURIER_INITIATED),
+                new CourierContract.Commands.CourierRate(), "Courier Output state status should be response-received");
+    }
+
+    @Test
+    public void rateMustKeepTheCarriers() {
+        CourierState widened = new CourierState(10, 10, 10, 10, null, "krpuram", "marathahalli", amazon.getParty(), null,
+                null, null, CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, quoted, linearId.getId().toString(),
+                ImmutableList.of(necAuto.getParty(), olaAuto.getParty(), uberAuto.getParty()));
+        transition(olaAuto, courier(CourierStatus.COURIER_INITIATED), widened,
+                new CourierContract.Commands.CourierRate(), "Courier carriers should not change when responding to courier request");
+    }
+
+    @Test
+    public void rateMustKeepTheLinearId() {
+        transition(olaAuto, courier(CourierStatus.COURIER_INITIATED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null),
+                courier(CourierStatus.COURIER_RESPONSE_RECEIVED, new UniqueIdentifier(), quoted, null, null, null, olaQuote),
+                new CourierContract.Commands.CourierRate(), "Courier linearId should not change across the lifecycle");
+    }
+
+    // Accept.
+
+    @Test
+    public void acceptTakesAQuoteOnTheLedger() {
+        transition(courier(CourierStatus.COURIER_RESPONSE_RECEIVED), accepted(olaAuto.getParty(), 9000),
+                new CourierContract.Commands.CourierContractAccept(), null);
+    }
+
+    @Test
+    public void acceptAddsAQuoteSentOffTheLedger() {
+        CourierState input = courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        transition(input, courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted, olaAuto.getParty(), 9000L, CourierType.SHARED, olaQuote),
+                () -> new CourierContract.Commands.CourierContractAccept(offer(olaAuto, input.getCourierId(), olaQuote)), null);
+        transition(input, courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted, olaAuto.getParty(), 9000L, CourierType.SHARED),
+                () -> new CourierContract.Commands.CourierContractAccept(offer(olaAuto, input.getCourierId(), olaQuote)),
+                "Added quote should be the only quote the transition adds to the quote book");
+    }
+
+    @Test
+    public void acceptMayOnlyAddTheAcceptedQuote() {
+        CourierState input = courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        transition(input, courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted, necAuto.getParty(), 10000L, CourierType.SHARED, olaQuote),
+                () -> new CourierContract.Commands.CourierContractAccept(offer(olaAuto, input.getCourierId(), olaQuote)),
+                "Accepting should add no quote but the accepted one");
+    }
+
+    @Test
+    public void quoteSentOffTheLedgerNeedsTheCarriersOffer() {
+        CourierState input = courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        CourierState output = courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted, olaAuto.getParty(), 9000L, CourierType.SHARED, olaQuote);
+        transition(input, output, new CourierContract.Commands.CourierContractAccept(),
+                "Quote sent off the ledger should be signed by the accepted responder");
+        transition(input, output, () -> new CourierContract.Commands.CourierContractAccept(offer(necAuto, input.getCourierId(), olaQuote)),
+                "Quote sent off the ledger should be signed by the accepted responder");
+    }
+
+    @Test
+    public void offerMustBeValidlySigned() {
+        CourierState input = courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        transition(input, courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted, olaAuto.getParty(), 9000L, CourierType.SHARED, olaQuote),
+                () -> {
+                    SignedData<CourierQuoteOffer> forged = offer(necAuto, input.getCourierId(), olaQuote);
+                    return new CourierContract.Commands.CourierContractAccept(new SignedData<>(forged.getRaw(),
+                            new DigitalSignature.WithKey(olaAuto.getPublicKey(), forged.getSig().getBytes())));
+                },
+                "Signed offer should be the accepted quote for this courier");
+    }
+
+    @Test
+    public void offerMustBeForTheCourier() {
+        CourierState input = courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        transition(input, courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted, olaAuto.getParty(), 9000L, CourierType.SHARED, olaQuote),
+                () -> new CourierContract.Commands.CourierContractAccept(offer(olaAuto, UUID.randomUUID().toString(), olaQuote)),
+                "Signed offer should be the accepted quote for this courier");
+    }
+
+    @Test
+    public void offerMustBeTheAcceptedPrice() {
+        CourierState input = courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, CourierQuoteBook.EMPTY.withQuote(necQuote), null, null, null);
+        CourierQuote cheaper = new CourierQuote(olaAuto.getParty(), 1, 25000, olaQuote.getQuotedAt());
+        transition(input, courier(CourierStatus.COURIER_ACCEPTED, linearId, input.getResponses().withQuote(cheaper), olaAuto.getParty(), 1L, CourierType.SHARED, cheaper),
+                () -> new CourierContract.Commands.CourierContractAccept(offer(olaAuto, input.getCourierId(), olaQuote)),
+                "Signed offer should be the accepted quote for this courier");
+    }
+
+    @Test
+    public void acceptMustBeSignedByTheRequestor() {
+        transition(olaAuto, courier(CourierStatus.COURIER_RESPONSE_RECEIVED), accepted(olaAuto.getParty(), 9000),
+                new CourierContract.Commands.CourierContractAccept(), "Accepting should be signed by the requestor");
+    }
+
+    @Test
+    public void acceptMustFollowAnOpenCourier() {
+        transition(accepted(olaAuto.getParty(), 9000), accepted(olaAuto.getParty(), 9000),
+                new CourierContract.Commands.CourierContractAccept(), "Courier Input state status should be initiated or response-received");
+    }
+
+    @Test
+    public void acceptMustProduceAnAcceptedCourier() {
+        transition(courier(CourierStatus.COURIER_RESPONSE_RECEIVED),
+                courier(CourierStatus.COURIER_RESPONSE_RECEIVED, linearId, quoted, olaAuto.getParty(), 9000L, CourierType.SHARED),
+                new CourierContract.Commands.CourierContractAccept(), "Courier Output state status should be accepted");
+    }
+
+    @Test
+    public void acceptedResponderMustBeACarrier() {
+        CourierQuote uberQuote = new CourierQuote(uberAuto.getParty(), 5000, 6000, Instant.ofEpochSecond(3000));
+        transition(courier(CourierStatus.COURIER_RESPONSE_RECEIVED),
+                courier(CourierStatus.COURIER_ACCEPTED, linearId, quoted.withQuote(uberQuote), uberAuto.getParty(), 5000L, CourierType.SHARED),
+                new CourierContract.Commands.CourierContractAccept(), "Accepted responder should be one of the courier's carriers");
+    }
+
+    @Test
+    public void acceptedResponderMustHaveQuoted() {
+        transition(courier(CourierStatus.COURIER_INITIATED, linearId, CourierQuoteBook.EMPTY, null, null, null),
+                courier(CourierStatus.COURIER_ACCEPTED, linearId, CourierQuoteBook.EMPTY, necAuto.getParty(), 10000L, CourierType.SHARED),
+                new CourierContract.Commands.CourierContractAccept(), "Accepted responder should have quoted for the courier");
+    }
+
+    @Test
+    public void finalPriceMustMatchTheAcceptedQuote() {
+        transition(courier(CourierStatus.COURIER_RESPONSE_RECEIVED), accepted(olaAuto.getParty(), 1),
+                new CourierContract.Commands.CourierContractAccept(), "Final quoted price should match the accepted responder's quote");
+    }
+
+    @Test
+    public void acceptMustKeepTheOtherQuotes() {
+        transition(courier(CourierStatus.COURIER_RESPONSE_RECEIVED),
+                courier(CourierStatus.COURIER_ACCEPTED, linearId, CourierQuoteBook.EMPTY.withQuote(olaQuote), olaAuto.getParty(), 9000L, CourierType.SHARED),
+                new CourierContract.Commands.CourierContractAccept(), "Quotes already on the ledger should be kept when accepting");
+    }
+
+    @Test
+    public void acceptMustKeepTheLinearId() {
+        transition(courier(CourierStatus.COURIER_RESPONSE_RECEIVED),
+                courier(CourierStatus.COURIER_ACCEPTED, new UniqueIdentifier(), quoted, olaAuto.getParty(), 9000L, CourierType.SHARED),
+                new CourierContract.Commands.CourierContractAccept(), "Courier linearId should not change across the lifecycle");
+    }
+
+    // Transition table.
+
+    @Test
+    public void couriersMoveThroughTheLifecycleInOrder() {
+        transition(accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_UPLOADED),
+                new CourierContract.Commands.CourierDocUpload(), null);
+        transition(olaAuto, won(CourierStatus.COURIER_UPLOADED), won(CourierStatus.COURIER_PICKED),
+                new CourierContract.Commands.CourierPicked(), null);
+        transition(olaAuto, won(CourierStatus.COURIER_PICKED), won(CourierStatus.COURIER_DELIVERED),
+                new CourierContract.Commands.CourierDelivered(), null);
+        transition(courier(CourierStatus.COURIER_INITIATED), courier(CourierStatus.COURIER_REQUESTOR_CANCELLED),
+                new CourierContract.Commands.CourierCancelByRequestor(), null);
+        transition(accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_REQUESTOR_CANCELLED),
+                new CourierContract.Commands.CourierCancelByRequestor(), null);
+        transition(olaAuto, accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_RESPONDER_CANCELLED),
+                new CourierContract.Commands.CourierCancelByResponder(), null);
+    }
+
+    // Signers.
+
+    @Test
+    public void onlyTheRequestorUploadsTheReceiptAndCancels() {
+        transition(olaAuto, accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_UPLOADED),
+                new CourierContract.Commands.CourierDocUpload(), "Doc upload should be signed by the requestor");
+        transition(necAuto, courier(CourierStatus.COURIER_RESPONSE_RECEIVED), courier(CourierStatus.COURIER_REQUESTOR_CANCELLED),
+                new CourierContract.Commands.CourierCancelByRequestor(), "Requestor cancel should be signed by the requestor");
+    }
+
+    @Test
+    public void losingCarrierCannotMoveTheCourierOn() {
+        transition(necAuto, won(CourierStatus.COURIER_UPLOADED), won(CourierStatus.COURIER_PICKED),
+                new CourierContract.Commands.CourierPicked(), "Picking up should be signed by the accepted responder");
+        transition(necAuto, won(CourierStatus.COURIER_PICKED), won(CourierStatus.COURIER_DELIVERED),
+                new CourierContract.Commands.CourierDelivered(), "Delivering should be signed by the accepted responder");
+        transition(necAuto, accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_RESPONDER_CANCELLED),
+                new CourierContract.Commands.CourierCancelByResponder(), "Responder cancel should be signed by the accepted responder");
+        transition(necAuto, accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_UPLOADED),
+                new CourierContract.Commands.CourierDocUpload(), "Doc upload should be signed by the requestor");
+        // Nor can a carrier cancel a courier nobody has won yet.
+        transition(necAuto, courier(CourierStatus.COURIER_RESPONSE_RECEIVED), courier(CourierStatus.COURIER_RESPONDER_CANCELLED),
+                new CourierContract.Commands.CourierCancelByResponder(), "Responder cancel should be signed by the accepted responder");
+    }
+
+    @Test
+    public void acceptedResponderCannotBeSwapped() {
+        transition(olaAuto, won(CourierStatus.COURIER_UPLOADED),
+                courier(CourierStatus.COURIER_PICKED, linearId, quoted, necAuto.getParty(), 10000L, CourierType.SHARED),
+                new CourierContract.Commands.CourierPicked(), "Accepted responder should not change after acceptance");
+    }
+
+    @Test
+    public void losingCarriersStopBeingParticipantsOnceACourierIsAccepted() {
+        assertEquals(ImmutableList.of(amazon.getParty(), necAuto.getParty(), olaAuto.getParty()),
+                courier(CourierStatus.COURIER_RESPONSE_RECEIVED).getParticipants());
+        assertEquals(ImmutableList.of(amazon.getParty(), olaAuto.getParty()), accepted(olaAuto.getParty(), 9000).getParticipants());
+        assertEquals(ImmutableList.of(amazon.getParty(), olaAuto.getParty()), won(CourierStatus.COURIER_DELIVERED).getParticipants());
+    }
+
+    @Test
+    public void docUploadMustFollowAcceptance() {
+        transition(courier(CourierStatus.COURIER_RESPONSE_RECEIVED), courier(CourierStatus.COURIER_UPLOADED),
+                new CourierContract.Commands.CourierDocUpload(), "Input CourierState should have 'accepted' status");
+        transition(accepted(olaAuto.getParty(), 9000), courier(CourierStatus.COURIER_PICKED),
+                new CourierContract.Commands.CourierDocUpload(), "Output CourierState should have 'uploaded' status");
+    }
+
+    @Test
+    public void pickedMustFollowUpload() {
+        transition(accepted(olaAuto.getParty(), 9000), courier(CourierStatus.COURIER_PICKED),
+                new CourierContract.Commands.CourierPicked(), "Input CourierState should have 'uploaded' status");
+        transition(courier(CourierStatus.COURIER_UPLOADED), courier(CourierStatus.COURIER_DELIVERED),
+                new CourierContract.Commands.CourierPicked(), "Output CourierState should have 'picked' status");
+    }
+
+    @Test
+    public void deliveredMustFollowPicked() {
+        transition(courier(CourierStatus.COURIER_UPLOADED), courier(CourierStatus.COURIER_DELIVERED),
+                new CourierContract.Commands.CourierDelivered(), "Input CourierState should have 'picked' status");
+        transition(courier(CourierStatus.COURIER_PICKED), courier(CourierStatus.COURIER_PICKED),
+                new CourierContract.Commands.CourierDelivered(), "Output CourierState should have 'delivered' status");
+    }
+
+    @Test
+    public void cancelMustPrecedeUpload() {
+        transition(courier(CourierStatus.COURIER_UPLOADED), courier(CourierStatus.COURIER_REQUESTOR_CANCELLED),
+                new CourierContract.Commands.CourierCancelByRequestor(),
+                "Input CourierState should have either 'initiated' or 'response-received', 'accepted' status");
+        transition(courier(CourierStatus.COURIER_INITIATED), courier(CourierStatus.COURIER_RESPONDER_CANCELLED),
+                new CourierContract.Commands.CourierCancelByRequestor(), "Output CourierState should have 'requestor-cancelled' status");
+        transition(courier(CourierStatus.COURIER_DELIVERED), courier(CourierStatus.COURIER_RESPONDER_CANCELLED),
+                new CourierContract.Commands.CourierCancelByResponder(),
+                "Input CourierState should have either 'initiated' or 'response-received', 'accepted' status");
+        transition(courier(CourierStatus.COURIER_INITIATED), courier(CourierStatus.COURIER_REQUESTOR_CANCELLED),
+                new CourierContract.Commands.CourierCancelByResponder(), "Output CourierState should have 'responder-cancelled' status");
+    }
+
+    @Test
+    public void laterTransitionsMustKeepTheQuoteBook() {
+        transition(accepted(olaAuto.getParty(), 9000),
+                courier(CourierStatus.COURIER_UPLOADED, linearId, CourierQuoteBook.EMPTY.withQuote(olaQuote), olaAuto.getParty(), 9000L, CourierType.SHARED),
+                new CourierContract.Commands.CourierDocUpload(), "Added quote should be the only quote the transition adds to the quote book");
+    }
+
+    // linearId.
+
+    @Test
+    public void laterTransitionsMustKeepTheLinearId() {
+        UniqueIdentifier other = new UniqueIdentifier();
+        transition(accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_UPLOADED, other),
+                new CourierContract.Commands.CourierDocUpload(), "Courier linearId should not change across the lifecycle");
+        transition(olaAuto, won(CourierStatus.COURIER_UPLOADED), won(CourierStatus.COURIER_PICKED, other),
+                new CourierContract.Commands.CourierPicked(), "Courier linearId should not change across the lifecycle");
+        transition(olaAuto, won(CourierStatus.COURIER_PICKED), won(CourierStatus.COURIER_DELIVERED, other),
+                new CourierContract.Commands.CourierDelivered(), "Courier linearId should not change across the lifecycle");
+        transition(courier(CourierStatus.COURIER_INITIATED), courier(CourierStatus.COURIER_REQUESTOR_CANCELLED, other, quoted, null, null, null),
+                new CourierContract.Commands.CourierCancelByRequestor(), "Courier linearId should not change across the lifecycle");
+        transition(olaAuto, accepted(olaAuto.getParty(), 9000), won(CourierStatus.COURIER_RESPONDER_CANCELLED, other),
+                new CourierContract.Commands.CourierCancelByResponder(), "Courier linearId should not change across the lifecycle");
     }
-}*/
+}
@@ -0,0 +1,87 @@
+package com.nec.endmile.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CourierBatchRequestFlowTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+
+        network.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+
+    private List<CourierBatchRequestFlow.Parcel> parcels(int count) {
+        List<CourierBatchRequestFlow.Parcel> parcels = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            parcels.add(new CourierBatchRequestFlow.Parcel(10, 10, 10, 10, "krpuram", "marathahalli"));
+        }
+        return parcels;
+    }
+
+    @Test
+    public void flowRecordsASingleTransactionForTheWholeBatch() throws Exception {
+        CourierBatchRequestFlow.Initiator flow = new CourierBatchRequestFlow.Initiator(parcels(5), necAuto.getInfo().getLegalIdentities().get(0));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        assertEquals(5, signedTx.getTx().getOutputStates().size());
+
+        // We check the recorded transaction in both vaults.
+        for (StartedMockNode node : ImmutableList.of(amazon, necAuto)) {
+            node.transaction(() -> {
+                final SignedTransaction transaction = node.getServices().getValidatedTransactions().getTransaction(signedTx.getId());
+                assertEquals(signedTx, transaction);
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void flowRecordsEveryCourierOfTheBatchInBothPartiesVaults() throws Exception {
+        CourierBatchRequestFlow.Initiator flow = new CourierBatchRequestFlow.Initiator(parcels(5), necAuto.getInfo().getLegalIdentities().get(0));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        future.get();
+
+        for (StartedMockNode node : ImmutableList.of(amazon, necAuto)) {
+            node.transaction(() -> {
+                List<StateAndRef<CourierState>> couriers = node.getServices().getVaultService().queryBy(CourierState.class).getStates();
+                assertEquals(5, couriers.size());
+                assertEquals(5, couriers.stream().map(courier -> courier.getState().getData().getCourierId()).distinct().count());
+                return null;
+            });
+        }
+    }
+}
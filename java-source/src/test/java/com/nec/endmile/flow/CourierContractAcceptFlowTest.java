@@ -4,6 +4,8 @@ import com.google.common.collect.ImmutableList;
 import com.nec.endmile.config.CourierStatus;
 import com.nec.endmile.config.CourierType;
 import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.service.CourierLockedException;
+import com.nec.endmile.state.CourierQuote;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.Command;
@@ -25,6 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
 
 public class CourierContractAcceptFlowTest {
@@ -35,7 +38,7 @@ public class CourierContractAcceptFlowTest {
     private String courierId= null;
     @Before
     public void setup() {
-        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema"));
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
         amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
         necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
 
@@ -76,7 +79,7 @@ public class CourierContractAcceptFlowTest {
     }
 
     private void addFirstResponse() throws ExecutionException, InterruptedException {
-        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, "100", "200","auto1");
+        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("100"), CourierQuote.parsePrice("200"));
         CordaFuture<SignedTransaction> future = necAuto.startFlow(flow);
         network.runNetwork();
         future.get();
@@ -126,7 +129,7 @@ public class CourierContractAcceptFlowTest {
     @Test
     public void flowRecordsATransactionInBothPartiesTransactionStorages() throws Exception {
 
-        CourierContractAcceptFlow.Acceptor flow = new CourierContractAcceptFlow.Acceptor(courierId, "auto1", CourierType.SHARED);
+        CourierContractAcceptFlow.Acceptor flow = new CourierContractAcceptFlow.Acceptor(courierId, necAuto.getInfo().getLegalIdentities().get(0), CourierType.SHARED);
         CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
         network.runNetwork();
         SignedTransaction signedTx = future.get();
@@ -168,7 +171,7 @@ public class CourierContractAcceptFlowTest {
     @Test
     public void flowRecordsTheCorrectCourierInBothPartiesVaults() throws Exception {
 
-        CourierContractAcceptFlow.Acceptor flow = new CourierContractAcceptFlow.Acceptor(courierId, "auto1", CourierType.SHARED);
+        CourierContractAcceptFlow.Acceptor flow = new CourierContractAcceptFlow.Acceptor(courierId, necAuto.getInfo().getLegalIdentities().get(0), CourierType.SHARED);
         CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
         network.runNetwork();
         future.get();
@@ -188,9 +191,23 @@ public class CourierContractAcceptFlowTest {
                 assertEquals(recordedState.getCourierHeight(), 10);
                 assertEquals(recordedState.getCourierLength(), 10);
                 assertEquals(recordedState.getCourierWeight(), 10);
+                assertEquals(necAuto.getInfo().getLegalIdentities().get(0), recordedState.getAcceptedResponder());
+                assertEquals(Long.valueOf(CourierQuote.parsePrice("100")), recordedState.getFinalQuotedPrice());
+                assertEquals(courierId, recordedState.getLinearId().getId().toString());
 
                 return null;
             });
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void secondConcurrentTransitionFailsFastOnTheSoftLock() throws Exception {
+        CordaFuture<SignedTransaction> accept = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierId, CourierType.SHARED));
+        CordaFuture<SignedTransaction> cancel = amazon.startFlow(new CourierRequestorCancelFlow.Initiator(courierId));
+        network.runNetwork();
+
+        assertEquals(CourierStatus.COURIER_ACCEPTED, ((CourierState) accept.get().getTx().getOutputStates().get(0)).getStatus());
+        exception.expectCause(instanceOf(CourierLockedException.class));
+        cancel.get();
+    }
+}
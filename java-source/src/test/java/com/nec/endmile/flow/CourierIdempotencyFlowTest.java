@@ -0,0 +1,128 @@
+package com.nec.endmile.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.service.CourierIdempotencyRecord;
+import com.nec.endmile.service.CourierIdempotencyStore;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CourierIdempotencyFlowTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+
+        network.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private <T> T run(FlowLogic<T> flow) throws Exception {
+        CordaFuture<T> future = amazon.startFlow(flow);
+        network.runNetwork();
+        return future.get();
+    }
+
+    private List<CourierIdempotencyRecord> claim(String endpoint, String key, String requestHash, int commands) throws Exception {
+        return run(new CourierIdempotencyFlow.Claim(endpoint, key, requestHash, commands, commands > 1));
+    }
+
+    @Test
+    public void flowClaimsAnUnknownKey() throws Exception {
+        assertTrue(claim("commands", "key-1", "hash-1", 1).isEmpty());
+
+        List<CourierIdempotencyRecord> records = claim("commands", "key-1", "hash-2", 1);
+
+        assertEquals(1, records.size());
+        assertEquals("hash-1", records.get(0).getRequestHash());
+        assertNull(records.get(0).getStatus());
+        assertNull(records.get(0).getFlowId());
+    }
+
+    @Test
+    public void flowFindsTheRecordedOutcomeOnceCompleted() throws Exception {
+        claim("commands", "key-2", "hash", 1);
+        run(new CourierIdempotencyFlow.Complete("commands", "key-2", 0, "flow-2", "COMPLETED", "tx-2", null));
+
+        List<CourierIdempotencyRecord> records = claim("commands", "key-2", "hash", 1);
+
+        assertEquals(1, records.size());
+        assertEquals("flow-2", records.get(0).getFlowId());
+        assertEquals("COMPLETED", records.get(0).getStatus());
+        assertEquals("tx-2", records.get(0).getTransactionId());
+        assertNull(records.get(0).getError());
+        assertFalse(records.get(0).isMultiple());
+    }
+
+    @Test
+    public void flowClaimsEveryCommandOfAKeyInOrder() throws Exception {
+        claim("commands", "key-3", "hash", 2);
+        run(new CourierIdempotencyFlow.Complete("commands", "key-3", 1, null, "FAILED", null, "Unable to start"));
+
+        List<CourierIdempotencyRecord> records = claim("commands", "key-3", "hash", 2);
+
+        assertEquals(2, records.size());
+        assertEquals(0, records.get(0).getCommandIndex());
+        assertNull(records.get(0).getStatus());
+        assertEquals(1, records.get(1).getCommandIndex());
+        assertEquals("Unable to start", records.get(1).getError());
+        assertTrue(records.get(1).isMultiple());
+    }
+
+    @Test
+    public void keysAreScopedByEndpoint() throws Exception {
+        claim("requestor/create", "key-4", "hash", 1);
+
+        assertTrue(claim("requestor/acceptCourier", "key-4", "hash", 1).isEmpty());
+    }
+
+    @Test
+    public void releasedKeyCanBeClaimedAgain() throws Exception {
+        claim("commands", "key-5", "hash-1", 1);
+        run(new CourierIdempotencyFlow.Release("commands", "key-5"));
+
+        assertTrue(claim("commands", "key-5", "hash-2", 1).isEmpty());
+        assertEquals("hash-2", claim("commands", "key-5", "hash-2", 1).get(0).getRequestHash());
+    }
+
+    @Test
+    public void expiredKeyCanBeClaimedAgain() throws Exception {
+        amazon.transaction(() -> {
+            try (PreparedStatement statement = amazon.getServices().jdbcSession().prepareStatement("INSERT INTO courier_idempotency_keys" +
+                    " (endpoint, idempotency_key, command_index, multiple, request_hash, created_at) VALUES (?, ?, 0, FALSE, ?, ?)")) {
+                statement.setString(1, "commands");
+                statement.setString(2, "key-6");
+                statement.setString(3, "hash");
+                statement.setTimestamp(4, Timestamp.from(Instant.now().minus(CourierIdempotencyStore.TTL).minusSeconds(60)));
+                return statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertTrue(claim("commands", "key-6", "hash", 1).isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+package com.nec.endmile.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.service.CourierLockedException;
+import com.nec.endmile.service.CourierLookupService;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CourierNotaryConflictTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+    private StartedMockNode olaAuto;
+
+    private String courierId = null;
+
+    @Before
+    public void setup() throws Exception {
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+        olaAuto = network.createPartyNode(new CordaX500Name("OlaAuto", "Bangalore", "IN"));
+
+        network.runNetwork();
+
+        CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli",
+                ImmutableList.of(identity(necAuto), identity(olaAuto)));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        courierId = ((CourierState) future.get().getTx().getOutputStates().get(0)).getCourierId();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private static Party identity(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+
+    private CordaFuture<SignedTransaction> respond(StartedMockNode node, String sharedPrice) {
+        return node.startFlow(new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice(sharedPrice), CourierQuote.parsePrice("250")));
+    }
+
+    private CourierState unconsumed(StartedMockNode node) {
+        return node.transaction(() -> node.getServices().cordaService(CourierLookupService.class).getUnconsumed(courierId).getState().getData());
+    }
+
+    private static long conflicts(StartedMockNode node) throws Exception {
+        ObjectName name = new ObjectName("com.nec.endmile:type=NotaryConflicts,node=" + ObjectName.quote(identity(node).getName().toString())
+                + ",flow=" + ObjectName.quote("CourierRespondFlow$Responder"));
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+            return 0;
+        }
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Conflicts");
+    }
+
+    @Test
+    public void racingQuotesBothReachTheLedger() throws Exception {
+        // Both carriers build on the initiated courier, so one of them loses at the notary and retries.
+        CordaFuture<SignedTransaction> nec = respond(necAuto, "100");
+        CordaFuture<SignedTransaction> ola = respond(olaAuto, "90");
+        network.runNetwork();
+        nec.get();
+        ola.get();
+
+        CourierState courier = unconsumed(amazon);
+        assertEquals(CourierStatus.COURIER_RESPONSE_RECEIVED, courier.getStatus());
+        assertEquals(CourierQuote.parsePrice("100"), courier.getResponses().quoteOf(identity(necAuto)).getSharedPrice());
+        assertEquals(CourierQuote.parsePrice("90"), courier.getResponses().quoteOf(identity(olaAuto)).getSharedPrice());
+        assertEquals(1, conflicts(necAuto) + conflicts(olaAuto));
+    }
+
+    @Test
+    public void racingAcceptsLetOnlyOneWin() throws Exception {
+        respond(necAuto, "100");
+        network.runNetwork();
+        respond(olaAuto, "90");
+        network.runNetwork();
+
+        CordaFuture<SignedTransaction> acceptNec = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierId, identity(necAuto), CourierType.SHARED));
+        CordaFuture<SignedTransaction> acceptOla = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierId, identity(olaAuto), CourierType.SHARED));
+        network.runNetwork();
+
+        CourierState accepted = (CourierState) acceptNec.get().getTx().getOutputStates().get(0);
+        assertEquals(identity(necAuto), accepted.getAcceptedResponder());
+        try {
+            acceptOla.get();
+            fail("The second accept should lose the race for the courier");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CourierLockedException);
+        }
+        assertEquals(identity(necAuto), unconsumed(amazon).getAcceptedResponder());
+    }
+}
@@ -0,0 +1,70 @@
+package com.nec.endmile.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.service.CourierNetworkService;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.MockNetworkNotarySpec;
+import net.corda.testing.node.MockNetworkParameters;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CourierNotaryPartitionTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+
+    @Before
+    public void setup() {
+        System.setProperty(CourierNetworkService.NOTARY_POLICY_PROPERTY, CourierNetworkService.NotaryPolicy.PARTITIONED.name());
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"),
+                new MockNetworkParameters().withNotarySpecs(ImmutableList.of(
+                        new MockNetworkNotarySpec(new CordaX500Name("NotaryA", "London", "GB")),
+                        new MockNetworkNotarySpec(new CordaX500Name("NotaryB", "Frankfurt", "DE")))));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+
+        network.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+        System.clearProperty(CourierNetworkService.NOTARY_POLICY_PROPERTY);
+    }
+
+    private Party expectedNotary(String courierId) {
+        List<Party> notaries = new ArrayList<>(amazon.getServices().getNetworkMapCache().getNotaryIdentities());
+        notaries.sort(Comparator.comparing(party -> party.getName().toString()));
+        return notaries.get(Math.floorMod(courierId.hashCode(), notaries.size()));
+    }
+
+    @Test
+    public void couriersAreIssuedOnTheirPartitionsNotaryAndStayThere() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli", necAuto.getInfo().getLegalIdentities().get(0));
+            CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+            network.runNetwork();
+            SignedTransaction issued = future.get();
+            String courierId = ((CourierState) issued.getTx().getOutputStates().get(0)).getCourierId();
+            assertEquals(expectedNotary(courierId), issued.getNotary());
+
+            CordaFuture<SignedTransaction> responded = necAuto.startFlow(new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("100"), CourierQuote.parsePrice("200")));
+            network.runNetwork();
+            assertEquals(issued.getNotary(), responded.get().getNotary());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.nec.endmile.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierQuoteOffer;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+
+public class CourierQuoteFlowTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+    private StartedMockNode olaAuto;
+    private StartedMockNode uberAuto;
+
+    private String courierId = null;
+
+    @Before
+    public void setup() throws Exception {
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+        olaAuto = network.createPartyNode(new CordaX500Name("OlaAuto", "Bangalore", "IN"));
+        uberAuto = network.createPartyNode(new CordaX500Name("UberAuto", "Bangalore", "IN"));
+        amazon.registerInitiatedFlow(CourierQuoteFlow.Receiver.class);
+
+        network.runNetwork();
+
+        CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli",
+                ImmutableList.of(identity(necAuto), identity(olaAuto)));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        courierId = ((CourierState) future.get().getTx().getOutputStates().get(0)).getCourierId();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+
+    private static Party identity(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+
+    private CourierQuote submit(StartedMockNode node, String sharedPrice, String dedicatedPrice) throws Exception {
+        CourierQuoteFlow.Submitter flow = new CourierQuoteFlow.Submitter(courierId, CourierQuote.parsePrice(sharedPrice), CourierQuote.parsePrice(dedicatedPrice));
+        CordaFuture<CourierQuote> future = node.startFlow(flow);
+        network.runNetwork();
+        return future.get();
+    }
+
+    private CourierQuoteBook offered() throws Exception {
+        CordaFuture<CourierQuoteBook> future = amazon.startFlow(new CourierQuoteQueryFlow.Offered(courierId));
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    public void quotesAreStoredByTheRequestorWithoutATransaction() throws Exception {
+        submit(necAuto, "100", "200");
+        submit(olaAuto, "90", "250");
+        submit(necAuto, "80", "200");
+
+        CourierQuoteBook book = offered();
+        assertEquals(2, book.size());
+        assertEquals(CourierQuote.parsePrice("80"), book.quoteOf(identity(necAuto)).getSharedPrice());
+
+        amazon.transaction(() -> {
+            CourierState recordedState = amazon.getServices().getVaultService().queryBy(CourierState.class).getStates().get(0).getState().getData();
+            assertEquals(CourierStatus.COURIER_INITIATED, recordedState.getStatus());
+            assertEquals(0, recordedState.getResponses().size());
+            return null;
+        });
+    }
+
+    @Test
+    public void acceptingCommitsOnlyTheAcceptedQuote() throws Exception {
+        submit(necAuto, "100", "200");
+        submit(olaAuto, "90", "250");
+
+        CordaFuture<SignedTransaction> future = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierId, CourierType.SHARED));
+        network.runNetwork();
+        CourierState accepted = (CourierState) future.get().getTx().getOutputStates().get(0);
+
+        assertEquals(CourierStatus.COURIER_ACCEPTED, accepted.getStatus());
+        assertEquals(identity(olaAuto), accepted.getAcceptedResponder());
+        assertEquals(Long.valueOf(CourierQuote.parsePrice("90")), accepted.getFinalQuotedPrice());
+        assertEquals(1, accepted.getResponses().size());
+        assertEquals(0, offered().size());
+    }
+
+    @Test
+    public void acceptingPutsTheCarriersSignedOfferInTheTransaction() throws Exception {
+        CourierQuote quote = submit(olaAuto, "90", "250");
+
+        CordaFuture<SignedTransaction> future = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierId, identity(olaAuto), CourierType.SHARED));
+        network.runNetwork();
+        CourierContract.Commands.CourierContractAccept command =
+                (CourierContract.Commands.CourierContractAccept) future.get().getTx().getCommands().get(0).getValue();
+
+        assertEquals(identity(olaAuto).getOwningKey(), command.getOffer().getSig().getBy());
+        assertEquals(new CourierQuoteOffer(courierId, quote), command.getOffer().verified());
+    }
+
+    @Test
+    public void quotesFromCarriersTheRequestWasNotSentToAreRejected() throws Exception {
+        // UberAuto never saw the courier, so its quote is rejected before it is sent.
+        exception.expectCause(instanceOf(FlowException.class));
+        submit(uberAuto, "10", "20");
+    }
+}
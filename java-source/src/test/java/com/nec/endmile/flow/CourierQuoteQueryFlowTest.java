@@ -0,0 +1,164 @@
+package com.nec.endmile.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.service.CourierPriceStats;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteBook;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CourierQuoteQueryFlowTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+
+    private String courierId = null;
+
+    @Before
+    public void setup() throws Exception {
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+
+        network.runNetwork();
+
+        CourierBatchRequestFlow.Initiator flow = new CourierBatchRequestFlow.Initiator(
+                ImmutableList.of(new CourierBatchRequestFlow.Parcel(10, 10, 10, 10, "krpuram", "marathahalli")),
+                necAuto.getInfo().getLegalIdentities().get(0));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        courierId = ((CourierState) future.get().getTx().getOutputStates().get(0)).getCourierId();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private void respond(String sharedPrice, String dedicatedPrice) throws Exception {
+        respond(courierId, sharedPrice, dedicatedPrice);
+    }
+
+    private void respond(String courierId, String sharedPrice, String dedicatedPrice) throws Exception {
+        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice(sharedPrice), CourierQuote.parsePrice(dedicatedPrice));
+        CordaFuture<SignedTransaction> future = necAuto.startFlow(flow);
+        network.runNetwork();
+        future.get();
+    }
+
+    private Map<String, CourierQuoteBook> quotesByStatus(StartedMockNode node, CourierStatus status) throws Exception {
+        CordaFuture<Map<String, CourierQuoteBook>> future = node.startFlow(new CourierQuoteQueryFlow.ByStatus(status));
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    public void flowReturnsTheLatestQuoteOfEachResponder() throws Exception {
+        respond("100", "200");
+        respond("150", "250");
+
+        for (StartedMockNode node : ImmutableList.of(amazon, necAuto)) {
+            Map<String, CourierQuoteBook> quotes = quotesByStatus(node, CourierStatus.COURIER_RESPONSE_RECEIVED);
+
+            assertEquals(1, quotes.size());
+            CourierQuoteBook book = quotes.get(courierId);
+            assertEquals(1, book.size());
+            assertEquals(CourierQuote.parsePrice("150"), book.bestQuote(CourierType.SHARED).getSharedPrice());
+            assertEquals(necAuto.getInfo().getLegalIdentities().get(0), book.bestQuote(CourierType.SHARED).getResponder());
+        }
+    }
+
+    private List<CourierPriceStats> acceptedPrices(StartedMockNode node, Instant from, Instant to) throws Exception {
+        CordaFuture<List<CourierPriceStats>> future = node.startFlow(new CourierQuoteQueryFlow.AcceptedPrices(from, to));
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    public void flowSummarisesAcceptedPricesByRouteDeliveryTypeAndResponder() throws Exception {
+        respond("100", "200");
+        CordaFuture<SignedTransaction> future = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierId, necAuto.getInfo().getLegalIdentities().get(0), CourierType.SHARED));
+        network.runNetwork();
+        future.get();
+
+        List<CourierPriceStats> stats = acceptedPrices(amazon, Instant.now().minus(Duration.ofHours(1)), Instant.now().plus(Duration.ofHours(1)));
+
+        assertEquals(1, stats.size());
+        CourierPriceStats route = stats.get(0);
+        assertEquals("krpuram", route.getSource());
+        assertEquals("marathahalli", route.getDestination());
+        assertEquals(CourierType.SHARED.getLabel(), route.getDeliveryType());
+        assertEquals(necAuto.getInfo().getLegalIdentities().get(0).getName().toString(), route.getResponder());
+        assertEquals(1, route.getCount());
+        assertEquals(CourierQuote.parsePrice("100"), route.getAveragePrice());
+        assertEquals(CourierQuote.parsePrice("100"), route.getP99Price());
+    }
+
+    @Test
+    public void flowAggregatesEveryCourierOfARoute() throws Exception {
+        CordaFuture<SignedTransaction> batch = amazon.startFlow(new CourierBatchRequestFlow.Initiator(ImmutableList.of(
+                new CourierBatchRequestFlow.Parcel(10, 10, 10, 10, "krpuram", "marathahalli"),
+                new CourierBatchRequestFlow.Parcel(10, 10, 10, 10, "krpuram", "marathahalli")),
+                necAuto.getInfo().getLegalIdentities().get(0)));
+        network.runNetwork();
+        List<String> courierIds = new ArrayList<>();
+        courierIds.add(courierId);
+        for (Object courier : batch.get().getTx().getOutputStates()) {
+            courierIds.add(((CourierState) courier).getCourierId());
+        }
+        List<String> prices = ImmutableList.of("400", "100", "200");
+        for (int i = 0; i < courierIds.size(); i++) {
+            respond(courierIds.get(i), prices.get(i), "500");
+            CordaFuture<SignedTransaction> future = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierIds.get(i), necAuto.getInfo().getLegalIdentities().get(0), CourierType.SHARED));
+            network.runNetwork();
+            future.get();
+        }
+
+        List<CourierPriceStats> stats = acceptedPrices(amazon, Instant.now().minus(Duration.ofHours(1)), Instant.now().plus(Duration.ofHours(1)));
+
+        assertEquals(1, stats.size());
+        CourierPriceStats route = stats.get(0);
+        assertEquals(3, route.getCount());
+        assertEquals(Math.round(CourierQuote.parsePrice("700") / 3.0), route.getAveragePrice());
+        assertEquals(CourierQuote.parsePrice("100"), route.getMinPrice());
+        assertEquals(CourierQuote.parsePrice("400"), route.getMaxPrice());
+        assertEquals(CourierQuote.parsePrice("200"), route.getP50Price());
+        assertEquals(CourierQuote.parsePrice("400"), route.getP90Price());
+        assertEquals(CourierQuote.parsePrice("400"), route.getP99Price());
+    }
+
+    @Test
+    public void flowLeavesOutCouriersAcceptedOutsideTheWindow() throws Exception {
+        respond("100", "200");
+        CordaFuture<SignedTransaction> future = amazon.startFlow(new CourierContractAcceptFlow.Acceptor(courierId, necAuto.getInfo().getLegalIdentities().get(0), CourierType.SHARED));
+        network.runNetwork();
+        future.get();
+
+        assertTrue(acceptedPrices(amazon, Instant.now().minus(Duration.ofDays(2)), Instant.now().minus(Duration.ofDays(1))).isEmpty());
+    }
+
+    @Test
+    public void flowLeavesOutCouriersInOtherStatuses() throws Exception {
+        respond("100", "200");
+
+        assertTrue(quotesByStatus(amazon, CourierStatus.COURIER_INITIATED).isEmpty());
+    }
+}
@@ -1,6 +1,7 @@
 package com.nec.endmile.flow;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.StateAndRef;
@@ -22,12 +23,14 @@ public class CourierRequestFlowTests {
     private MockNetwork network;
     private StartedMockNode amazon;
     private StartedMockNode necAuto;
+    private StartedMockNode olaAuto;
 
     @Before
     public void setup() {
-        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract","com.nec.endmile.schema"));
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
         amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
         necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+        olaAuto = network.createPartyNode(new CordaX500Name("OlaAuto", "Bangalore", "IN"));
 
         network.runNetwork();
     }
@@ -136,4 +139,32 @@ public class CourierRequestFlowTests {
             });
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void flowSendsOneCourierToEveryGivenCarrier() throws Exception {
+        CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli",
+                ImmutableList.of(necAuto.getInfo().getLegalIdentities().get(0), olaAuto.getInfo().getLegalIdentities().get(0)));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        for (StartedMockNode node : ImmutableList.of(amazon, necAuto, olaAuto)) {
+            assertEquals(signedTx, node.getServices().getValidatedTransactions().getTransaction(signedTx.getId()));
+        }
+        CourierState recordedState = (CourierState) signedTx.getTx().getOutputs().get(0).getData();
+        assertEquals(2, recordedState.getAutoNodes().size());
+        assertEquals(3, recordedState.getParticipants().size());
+    }
+
+    @Test
+    public void flowSendsToEveryCarrierOnTheNetworkWhenNoneAreGiven() throws Exception {
+        CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli", ImmutableList.of());
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        CourierState recordedState = (CourierState) signedTx.getTx().getOutputs().get(0).getData();
+        assertEquals(ImmutableSet.of(necAuto.getInfo().getLegalIdentities().get(0), olaAuto.getInfo().getLegalIdentities().get(0)),
+                ImmutableSet.copyOf(recordedState.getAutoNodes()));
+    }
+}
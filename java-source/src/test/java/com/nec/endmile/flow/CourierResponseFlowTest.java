@@ -3,6 +3,7 @@ package com.nec.endmile.flow;
 import com.google.common.collect.ImmutableList;
 import com.nec.endmile.config.CourierStatus;
 import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.state.CourierQuote;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.Command;
@@ -33,7 +34,7 @@ public class CourierResponseFlowTest {
     private String courierId= null;
     @Before
     public void setup() {
-        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema"));
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
         amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
         necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
 
@@ -110,7 +111,7 @@ public class CourierResponseFlowTest {
     @Test
     public void flowRecordsATransactionInBothPartiesTransactionStorages() throws Exception {
 
-        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, "100", "200","auto1");
+        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("100"), CourierQuote.parsePrice("200"));
         CordaFuture<SignedTransaction> future = necAuto.startFlow(flow);
         network.runNetwork();
         SignedTransaction signedTx = future.get();
@@ -151,7 +152,7 @@ public class CourierResponseFlowTest {
 
     @Test
     public void flowRecordsTheCorrectCourierInBothPartiesVaults() throws Exception {
-        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, "100", "200","auto1");
+        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("100"), CourierQuote.parsePrice("200"));
         CordaFuture<SignedTransaction> future = necAuto.startFlow(flow);
         network.runNetwork();
         future.get();
@@ -2,7 +2,9 @@ package com.nec.endmile.flow;
 
 import com.google.common.collect.ImmutableList;
 import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
 import com.nec.endmile.contract.CourierContract;
+import com.nec.endmile.state.CourierQuote;
 import com.nec.endmile.state.CourierState;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.Command;
@@ -34,7 +36,7 @@ public class CourierSecondResponseFlowTest {
     private String courierId= null;
     @Before
     public void setup() {
-        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema"));
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
         amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
         necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
 
@@ -75,7 +77,7 @@ public class CourierSecondResponseFlowTest {
     }
 
     private void addFirstResponse() throws ExecutionException, InterruptedException {
-        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, "100", "200","auto1");
+        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("100"), CourierQuote.parsePrice("200"));
         CordaFuture<SignedTransaction> future = necAuto.startFlow(flow);
         network.runNetwork();
         future.get();
@@ -125,7 +127,7 @@ public class CourierSecondResponseFlowTest {
     @Test
     public void flowRecordsATransactionInBothPartiesTransactionStorages() throws Exception {
 
-        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, "150", "200","auto2");
+        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("150"), CourierQuote.parsePrice("200"));
         CordaFuture<SignedTransaction> future = necAuto.startFlow(flow);
         network.runNetwork();
         SignedTransaction signedTx = future.get();
@@ -166,7 +168,7 @@ public class CourierSecondResponseFlowTest {
 
     @Test
     public void flowRecordsTheCorrectCourierInBothPartiesVaults() throws Exception {
-        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, "150", "200","auto2");
+        CourierRespondFlow.Responder flow = new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("150"), CourierQuote.parsePrice("200"));
         CordaFuture<SignedTransaction> future = necAuto.startFlow(flow);
         network.runNetwork();
         future.get();
@@ -186,6 +188,8 @@ public class CourierSecondResponseFlowTest {
                 assertEquals(recordedState.getCourierHeight(), 10);
                 assertEquals(recordedState.getCourierLength(), 10);
                 assertEquals(recordedState.getCourierWeight(), 10);
+                assertEquals(1, recordedState.getResponses().size());
+                assertEquals(CourierQuote.parsePrice("150"), recordedState.getResponses().bestQuote(CourierType.SHARED).getSharedPrice());
 
                 return null;
             });
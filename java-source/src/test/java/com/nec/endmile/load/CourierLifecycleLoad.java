@@ -0,0 +1,222 @@
+package com.nec.endmile.load;
+
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.flow.CourierContractAcceptFlow;
+import com.nec.endmile.flow.CourierDocUploadFlow;
+import com.nec.endmile.flow.CourierFinalFlow;
+import com.nec.endmile.flow.CourierRequestFlow;
+import com.nec.endmile.flow.CourierRequestorCancelFlow;
+import com.nec.endmile.flow.CourierRespondFlow;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Drives N couriers through the full lifecycle with a fixed number in flight, and reports throughput and latency per
+ * flow and per ProgressTracker step.
+ * <p>
+ * Each courier runs CourierRequestFlow, then CourierRespondFlow the configured number of times, then
+ * CourierContractAcceptFlow. A configured share of couriers is then cancelled by the requestor; the rest run
+ * CourierDocUploadFlow and CourierFinalFlow to picked and delivered. How flows are started is left to a
+ * {@link FlowStarter}, so the same load runs on a MockNetwork or against driver nodes over RPC.
+ */
+public class CourierLifecycleLoad {
+    public enum Role {REQUESTOR, RESPONDER}
+
+    static private final Logger logger = LoggerFactory.getLogger(CourierLifecycleLoad.class);
+
+    /**
+     * Starts flows on the requestor or responder node and blocks until they return.
+     */
+    public interface FlowStarter {
+        Party party(Role role);
+
+        /**
+         * Imports the attachment on the requestor node and returns its hash.
+         */
+        SecureHash importAttachment(byte[] jar) throws Exception;
+
+        /**
+         * Runs the flow, passing the label of every ProgressTracker step it enters to onStep.
+         */
+        <T> T run(Role role, Class<? extends FlowLogic<T>> flowClass, Consumer<String> onStep, Object... args) throws Exception;
+    }
+
+    private final FlowStarter starter;
+    private final int couriers;
+    private final int concurrency;
+    private final int responsesPerCourier;
+    private final int cancelPercent;
+
+    private final LatencyRecorder flowLatency = new LatencyRecorder();
+    private final LatencyRecorder stepLatency = new LatencyRecorder();
+    private final AtomicLong flowsCompleted = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> failedFlows = new ConcurrentSkipListMap<>();
+
+    private SecureHash receiptHash;
+
+    public CourierLifecycleLoad(FlowStarter starter, int couriers, int concurrency, int responsesPerCourier, int cancelPercent) {
+        this.starter = starter;
+        this.couriers = couriers;
+        this.concurrency = concurrency;
+        this.responsesPerCourier = responsesPerCourier;
+        this.cancelPercent = cancelPercent;
+    }
+
+    /**
+     * Runs the load and prints the report to out.
+     */
+    public void run(PrintStream out) throws Exception {
+        receiptHash = starter.importAttachment(receiptJar());
+
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        final long start = System.nanoTime();
+        try {
+            final List<Future<?>> lifecycles = new ArrayList<>(couriers);
+            for (int i = 0; i < couriers; i++) {
+                lifecycles.add(executor.submit(this::lifecycle));
+            }
+            for (Future<?> lifecycle : lifecycles) {
+                lifecycle.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        final double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        out.println(String.format("couriers=%d concurrency=%d responsesPerCourier=%d cancelPercent=%d",
+                couriers, concurrency, responsesPerCourier, cancelPercent));
+        out.println(String.format("elapsed=%.2fs lifecycles/s=%.2f flows/s=%.2f failures=%d",
+                seconds, (couriers - failures.get()) / seconds, flowsCompleted.get() / seconds, failures.get()));
+        out.println();
+        out.println("Latency per flow");
+        flowLatency.print(out);
+        out.println();
+        out.println("Latency per flow and ProgressTracker step");
+        stepLatency.print(out);
+        if (!failedFlows.isEmpty()) {
+            out.println();
+            out.println("Failed flows");
+            out.println(String.format("%-90s %8s", "key", "count"));
+            for (Map.Entry<String, AtomicLong> failed : failedFlows.entrySet()) {
+                out.println(String.format("%-90s %8d", failed.getKey(), failed.getValue().get()));
+            }
+        }
+    }
+
+    private void lifecycle() {
+        try {
+            final SignedTransaction requested = timed(Role.REQUESTOR, CourierRequestFlow.Initiator.class,
+                    10, 10, 10, 10, "krpuram", "marathahalli", starter.party(Role.RESPONDER));
+            final String courierId = requested.getTx().outputsOfType(CourierState.class).get(0).getCourierId();
+
+            for (int i = 0; i < responsesPerCourier; i++) {
+                timed(Role.RESPONDER, CourierRespondFlow.Responder.class, courierId, 10000L + i, 20000L + i);
+            }
+            timed(Role.REQUESTOR, CourierContractAcceptFlow.Acceptor.class, courierId, starter.party(Role.RESPONDER), CourierType.SHARED);
+
+            if (ThreadLocalRandom.current().nextInt(100) < cancelPercent) {
+                timed(Role.REQUESTOR, CourierRequestorCancelFlow.Initiator.class, courierId);
+                return;
+            }
+            timed(Role.REQUESTOR, CourierDocUploadFlow.Initiator.class, courierId, receiptHash.toString());
+            timed(Role.RESPONDER, CourierFinalFlow.Initiator.class, courierId, CourierStatus.COURIER_PICKED);
+            timed(Role.RESPONDER, CourierFinalFlow.Initiator.class, courierId, CourierStatus.COURIER_DELIVERED);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            logger.warn("Courier lifecycle failed", e);
+        }
+    }
+
+    private <T> T timed(Role role, Class<? extends FlowLogic<T>> flowClass, Object... args) throws Exception {
+        final String flowName = flowClass.getName().substring(flowClass.getPackage().getName().length() + 1);
+        final StepTimer steps = new StepTimer(flowName);
+        final long start = System.nanoTime();
+        final T result;
+        try {
+            result = starter.run(role, flowClass, steps::enter, args);
+        } catch (Exception e) {
+            // Counted by flow and cause, so the report shows which step of the lifecycle fails and why.
+            final Throwable cause = e.getCause() != null ? e.getCause() : e;
+            failedFlows.computeIfAbsent(flowName + " " + cause.getClass().getSimpleName(), key -> new AtomicLong()).incrementAndGet();
+            throw e;
+        }
+        final long end = System.nanoTime();
+        steps.finish(end);
+        flowLatency.record(flowName, end - start);
+        flowsCompleted.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * A jar holding a single receipt, imported once and referenced by every courier's doc upload.
+     */
+    private static byte[] receiptJar() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("receipt.txt"));
+            zip.write("courier load test receipt".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Attributes the time between successive ProgressTracker steps to the step being left.
+     */
+    private final class StepTimer {
+        private final String flowName;
+        private String currentStep;
+        private long enteredAt;
+        private boolean finished;
+
+        StepTimer(String flowName) {
+            this.flowName = flowName;
+        }
+
+        synchronized void enter(String step) {
+            final long now = System.nanoTime();
+            if (finished) {
+                return;
+            }
+            leave(now);
+            currentStep = step;
+            enteredAt = now;
+        }
+
+        synchronized void finish(long now) {
+            leave(now);
+            finished = true;
+        }
+
+        private void leave(long now) {
+            if (currentStep != null) {
+                stepLatency.record(flowName + " / " + currentStep, now - enteredAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.nec.endmile.load;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Thread-safe collection of latency samples, keyed by flow or by flow and ProgressTracker step, with a
+ * percentile summary.
+ */
+public class LatencyRecorder {
+    private final Map<String, Samples> samplesByKey = new ConcurrentSkipListMap<>();
+
+    public void record(String key, long nanos) {
+        samplesByKey.computeIfAbsent(key, k -> new Samples()).add(nanos);
+    }
+
+    public long count(String key) {
+        final Samples samples = samplesByKey.get(key);
+        return samples == null ? 0 : samples.snapshot().length;
+    }
+
+    /**
+     * Prints count, p50, p99 and max in milliseconds for every key.
+     */
+    public void print(PrintStream out) {
+        out.println(String.format("%-90s %8s %10s %10s %10s", "key", "count", "p50 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, Samples> entry : samplesByKey.entrySet()) {
+            final long[] sorted = entry.getValue().snapshot();
+            Arrays.sort(sorted);
+            out.println(String.format("%-90s %8d %10.2f %10.2f %10.2f", entry.getKey(), sorted.length,
+                    millis(percentile(sorted, 50)), millis(percentile(sorted, 99)), millis(sorted[sorted.length - 1])));
+        }
+    }
+
+    static long percentile(long[] sorted, int percentile) {
+        final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static final class Samples {
+        private long[] values = new long[64];
+        private int size;
+
+        synchronized void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized long[] snapshot() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.nec.endmile.load;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Primitives;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.MockNetworkParameters;
+import net.corda.testing.node.StartedMockNode;
+import rx.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Constructor;
+import java.util.function.Consumer;
+
+/**
+ * Runs the courier lifecycle load in-process on a MockNetwork, with a thread per node so flows run concurrently.
+ * <p>
+ * Arguments, all optional: couriers, concurrency, responses per courier, cancel percent. Defaults are 100 4 1 10.
+ * This measures flow and contract cost without network or RPC overhead; use DriverLoadGenerator for real nodes.
+ */
+public class MockNetworkLoadGenerator implements CourierLifecycleLoad.FlowStarter {
+    private final StartedMockNode requestor;
+    private final StartedMockNode responder;
+
+    private MockNetworkLoadGenerator(StartedMockNode requestor, StartedMockNode responder) {
+        this.requestor = requestor;
+        this.responder = responder;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final MockNetwork network = new MockNetwork(
+                ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"),
+                new MockNetworkParameters().withThreadPerNode(true));
+        try {
+            final StartedMockNode amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+            final StartedMockNode necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+            network.startNodes();
+
+            new CourierLifecycleLoad(new MockNetworkLoadGenerator(amazon, necAuto),
+                    intArg(args, 0, 100), intArg(args, 1, 4), intArg(args, 2, 1), intArg(args, 3, 10))
+                    .run(System.out);
+        } finally {
+            network.stopNodes();
+        }
+    }
+
+    static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    private StartedMockNode node(CourierLifecycleLoad.Role role) {
+        return role == CourierLifecycleLoad.Role.REQUESTOR ? requestor : responder;
+    }
+
+    @Override
+    public Party party(CourierLifecycleLoad.Role role) {
+        return node(role).getInfo().getLegalIdentities().get(0);
+    }
+
+    @Override
+    public SecureHash importAttachment(byte[] jar) {
+        return requestor.transaction(() ->
+                requestor.getServices().getAttachments().importAttachment(new ByteArrayInputStream(jar), "load", "receipt.jar"));
+    }
+
+    @Override
+    public <T> T run(CourierLifecycleLoad.Role role, Class<? extends FlowLogic<T>> flowClass, Consumer<String> onStep, Object... args) throws Exception {
+        final FlowLogic<T> flow = instantiate(flowClass, args);
+        final ProgressTracker tracker = flow.getProgressTracker();
+        final Subscription steps = tracker == null ? null : tracker.getChanges()
+                .filter(change -> change instanceof ProgressTracker.Change.Position)
+                .subscribe(change -> onStep.accept(((ProgressTracker.Change.Position) change).getNewStep().getLabel()));
+        try {
+            return node(role).startFlow(flow).get();
+        } finally {
+            if (steps != null) {
+                steps.unsubscribe();
+            }
+        }
+    }
+
+    /**
+     * Finds the public constructor the arguments fit, the way RPC resolves startFlowDynamic arguments.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> FlowLogic<T> instantiate(Class<? extends FlowLogic<T>> flowClass, Object... args) throws Exception {
+        for (Constructor<?> constructor : flowClass.getConstructors()) {
+            final Class<?>[] types = constructor.getParameterTypes();
+            if (types.length != args.length) {
+                continue;
+            }
+            boolean fits = true;
+            for (int i = 0; i < types.length && fits; i++) {
+                fits = args[i] == null ? !types[i].isPrimitive() : Primitives.wrap(types[i]).isInstance(args[i]);
+            }
+            if (fits) {
+                return (FlowLogic<T>) constructor.newInstance(args);
+            }
+        }
+        throw new IllegalArgumentException("No constructor of " + flowClass.getName() + " fits the given arguments");
+    }
+}
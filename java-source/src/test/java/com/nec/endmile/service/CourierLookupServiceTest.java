@@ -0,0 +1,154 @@
+package com.nec.endmile.service;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.flow.CourierRequestFlow;
+import com.nec.endmile.flow.CourierRespondFlow;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CourierLookupServiceTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+
+    private String courierId = null;
+    private StateRef initiatedRef = null;
+    private StateAndRef<CourierState> initiated = null;
+
+    @Before
+    public void setup() throws Exception {
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+
+        network.runNetwork();
+
+        CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli",
+                ImmutableList.of(necAuto.getInfo().getLegalIdentities().get(0)));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        SignedTransaction tx = future.get();
+        courierId = ((CourierState) tx.getTx().getOutputStates().get(0)).getCourierId();
+        initiatedRef = new StateRef(tx.getId(), 0);
+        initiated = tx.getTx().outRef(0);
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private CourierLookupService lookup(StartedMockNode node) {
+        return node.getServices().cordaService(CourierLookupService.class);
+    }
+
+    private StateAndRef<CourierState> getUnconsumed(StartedMockNode node, String id) {
+        return node.transaction(() -> lookup(node).getUnconsumed(id));
+    }
+
+    private SignedTransaction respond() throws Exception {
+        CordaFuture<SignedTransaction> future = necAuto.startFlow(
+                new CourierRespondFlow.Responder(courierId, CourierQuote.parsePrice("100"), CourierQuote.parsePrice("200")));
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    public void producedCourierIsCachedFromTheVaultFeed() {
+        assertEquals(initiatedRef, lookup(amazon).cached(courierId));
+        assertEquals(initiatedRef, getUnconsumed(amazon, courierId).getRef());
+    }
+
+    @Test
+    public void cacheFollowsTheCourierThroughATransition() throws Exception {
+        SignedTransaction responded = respond();
+
+        StateRef respondedRef = new StateRef(responded.getId(), 0);
+        assertEquals(respondedRef, lookup(amazon).cached(courierId));
+        StateAndRef<CourierState> courier = getUnconsumed(amazon, courierId);
+        assertEquals(respondedRef, courier.getRef());
+        assertEquals(CourierStatus.COURIER_RESPONSE_RECEIVED, courier.getState().getData().getStatus());
+    }
+
+    @Test
+    public void cacheHitIsServedWithoutCheckingTheVault() throws Exception {
+        respond();
+        // As if the feed had not yet reported the response.
+        lookup(amazon).remember(courierId, initiated);
+
+        assertEquals(initiatedRef, getUnconsumed(amazon, courierId).getRef());
+    }
+
+    @Test
+    public void staleCachedStateIsReplacedWhenReserved() throws Exception {
+        SignedTransaction responded = respond();
+        lookup(amazon).remember(courierId, initiated);
+
+        StateAndRef<CourierState> courier = amazon.transaction(() -> {
+            try {
+                return lookup(amazon).reserveUnconsumed(courierId, UUID.randomUUID());
+            } catch (CourierLockedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertEquals(new StateRef(responded.getId(), 0), courier.getRef());
+        assertEquals(CourierStatus.COURIER_RESPONSE_RECEIVED, courier.getState().getData().getStatus());
+        assertEquals(courier.getRef(), lookup(amazon).cached(courierId));
+    }
+
+    @Test
+    public void unknownCourierIsNotFound() {
+        String unknown = UUID.randomUUID().toString();
+
+        assertNull(getUnconsumed(amazon, unknown));
+        assertNull(getUnconsumed(amazon, "not-a-uuid"));
+        assertNull(lookup(amazon).cached(unknown));
+    }
+
+    @Test
+    public void reserveFailsWhileAnotherLockHoldsTheCourier() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        amazon.transaction(() -> {
+            try {
+                assertEquals(initiatedRef, lookup(amazon).reserveUnconsumed(courierId, first).getRef());
+                // The holder of the lock can reserve it again.
+                assertEquals(initiatedRef, lookup(amazon).reserveUnconsumed(courierId, first).getRef());
+            } catch (CourierLockedException e) {
+                fail("First reservation should succeed: " + e.getMessage());
+            }
+            try {
+                lookup(amazon).reserveUnconsumed(courierId, second);
+                fail("Second reservation should fail while the first lock is held");
+            } catch (CourierLockedException e) {
+                assertEquals("Courier " + courierId + " is being updated by another flow", e.getMessage());
+            }
+            amazon.getServices().getVaultService().softLockRelease(first, null);
+            try {
+                assertEquals(initiatedRef, lookup(amazon).reserveUnconsumed(courierId, second).getRef());
+            } catch (CourierLockedException e) {
+                fail("Reservation should succeed once the lock is released: " + e.getMessage());
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,111 @@
+package com.nec.endmile.service;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.config.CourierStatus;
+import com.nec.endmile.config.CourierType;
+import com.nec.endmile.flow.CourierContractAcceptFlow;
+import com.nec.endmile.flow.CourierQuoteFlow;
+import com.nec.endmile.flow.CourierRequestFlow;
+import com.nec.endmile.state.CourierQuote;
+import com.nec.endmile.state.CourierQuoteOffer;
+import com.nec.endmile.state.CourierState;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CourierQuoteStoreTest {
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+    private StartedMockNode olaAuto;
+
+    private String courierId = null;
+
+    @Before
+    public void setup() throws Exception {
+        network = new MockNetwork(ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service"));
+        amazon = network.createPartyNode(new CordaX500Name("Amazon", "London", "GB"));
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+        olaAuto = network.createPartyNode(new CordaX500Name("OlaAuto", "Bangalore", "IN"));
+        amazon.registerInitiatedFlow(CourierQuoteFlow.Receiver.class);
+
+        network.runNetwork();
+
+        CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli",
+                ImmutableList.of(identity(necAuto), identity(olaAuto)));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        courierId = ((CourierState) future.get().getTx().getOutputStates().get(0)).getCourierId();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private static Party identity(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+
+    private CourierQuoteStore store() {
+        return amazon.getServices().cordaService(CourierQuoteStore.class);
+    }
+
+    private CourierQuote submit(StartedMockNode node, String sharedPrice) throws Exception {
+        CordaFuture<CourierQuote> future = node.startFlow(
+                new CourierQuoteFlow.Submitter(courierId, CourierQuote.parsePrice(sharedPrice), CourierQuote.parsePrice("250")));
+        network.runNetwork();
+        return future.get();
+    }
+
+    private SignedTransaction accept(StartedMockNode responder) throws Exception {
+        CordaFuture<SignedTransaction> future = amazon.startFlow(
+                new CourierContractAcceptFlow.Acceptor(courierId, identity(responder), CourierType.SHARED));
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    public void signedOfferIsKeptWithTheLatestQuote() throws Exception {
+        CourierQuote first = submit(olaAuto, "100");
+        CourierQuote latest = submit(olaAuto, "90");
+
+        assertEquals(latest, store().getOffered(courierId).quoteOf(identity(olaAuto)));
+        assertEquals(new CourierQuoteOffer(courierId, latest), store().getSignedOffer(courierId, latest).verified());
+        assertNull(store().getSignedOffer(courierId, first));
+    }
+
+    @Test
+    public void quotesLostWithTheNodeHaveToBeSentAgain() throws Exception {
+        submit(olaAuto, "90");
+        // As when the requestor's node restarts.
+        store().clear();
+        assertEquals(0, store().getOffered(courierId).size());
+
+        try {
+            accept(olaAuto);
+            fail("A quote that is no longer held should not be accepted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        }
+
+        CourierQuote quote = submit(olaAuto, "90");
+        CourierState accepted = (CourierState) accept(olaAuto).getTx().getOutputStates().get(0);
+        assertEquals(CourierStatus.COURIER_ACCEPTED, accepted.getStatus());
+        assertEquals(quote, accepted.getResponses().quoteOf(identity(olaAuto)));
+    }
+}
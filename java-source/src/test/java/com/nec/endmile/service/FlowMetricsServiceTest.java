@@ -0,0 +1,114 @@
+package com.nec.endmile.service;
+
+import com.google.common.collect.ImmutableList;
+import com.nec.endmile.flow.CourierRequestFlow;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlowMetricsServiceTest {
+    private static final ImmutableList<String> CORDAPP_PACKAGES = ImmutableList.of("com.nec.endmile.contract", "com.nec.endmile.schema", "com.nec.endmile.service");
+    private static final CordaX500Name AMAZON = new CordaX500Name("Amazon", "London", "GB");
+
+    private MockNetwork network;
+    private StartedMockNode amazon;
+    private StartedMockNode necAuto;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(CORDAPP_PACKAGES);
+        amazon = network.createPartyNode(AMAZON);
+        necAuto = network.createPartyNode(new CordaX500Name("NECAuto", "New York", "US"));
+
+        network.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private static FlowMetricsService metrics(StartedMockNode node) {
+        return node.getServices().cordaService(FlowMetricsService.class);
+    }
+
+    private static ObjectName latencyName(String flow, String stage) throws Exception {
+        return new ObjectName("com.nec.endmile:type=FlowLatency,node=" + ObjectName.quote(AMAZON.toString())
+                + ",flow=" + ObjectName.quote(flow) + ",stage=" + stage);
+    }
+
+    private void request() throws Exception {
+        CourierRequestFlow.Initiator flow = new CourierRequestFlow.Initiator(10, 10, 10, 10, "krpuram", "marathahalli", necAuto.getInfo().getLegalIdentities().get(0));
+        CordaFuture<SignedTransaction> future = amazon.startFlow(flow);
+        network.runNetwork();
+        future.get();
+    }
+
+    @Test
+    public void exportsTheStagesOfCompletedFlows() throws Exception {
+        request();
+
+        String exported = metrics(amazon).toPrometheus();
+        for (String stage : ImmutableList.of("generate", "verify", "sign", "finality", "total")) {
+            assertTrue(exported, exported.contains("courier_flow_latency_seconds_count{flow=\"CourierRequestFlow$Initiator\",stage=\"" + stage + "\"} 1\n"));
+        }
+    }
+
+    @Test
+    public void onlyExportsFlowsRunOnTheNode() throws Exception {
+        request();
+
+        assertFalse(metrics(necAuto).toPrometheus().contains("CourierRequestFlow$Initiator"));
+    }
+
+    @Test
+    public void histogramsAreRegisteredAsMBeans() throws Exception {
+        request();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(latencyName("CourierRequestFlow$Initiator", "generate")));
+        assertEquals(1L, server.getAttribute(latencyName("CourierRequestFlow$Initiator", "total"), "Count"));
+    }
+
+    @Test
+    public void clashingMBeanNameFailsTheRegistration() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = latencyName("FlowMetricsServiceTest", "generate");
+        server.registerMBean(new LatencyHistogram(), name);
+        try {
+            metrics(amazon).record(FlowMetricsServiceTest.class, "generate", System.nanoTime());
+            fail("Recording should fail while another MBean holds the histogram's name");
+        } catch (IllegalStateException e) {
+            assertEquals("Unable to register MBean " + name, e.getMessage());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void restartedNodeReplacesTheMBeansOfItsPreviousService() throws Exception {
+        metrics(amazon).record(FlowMetricsServiceTest.class, "generate", System.nanoTime());
+        network.stopNodes();
+
+        network = new MockNetwork(CORDAPP_PACKAGES);
+        amazon = network.createPartyNode(AMAZON);
+        network.runNetwork();
+
+        metrics(amazon).record(FlowMetricsServiceTest.class, "generate", System.nanoTime());
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(latencyName("FlowMetricsServiceTest", "generate"), "Count"));
+    }
+}